@@ -29,6 +29,34 @@ import routines.system.TalendTimestampWithTZ;
 
 public class TalendDate {
 
+    // The DateFormat instances of FastDateParser are owned by the calling thread, so the format and parse methods
+    // don't need to lock: they only have to set the time zone and the leniency they use on every call.
+
+    private static final TimeZone UTC = TimeZone.getTimeZone("UTC");
+
+    private static boolean hasZone(String pattern) {
+        boolean inQuote = false;
+        for (int i = 0; i < pattern.length(); i++) {
+            char p = pattern.charAt(i);
+            if (p == '\'') {
+                inQuote = !inQuote;
+            } else if (!inQuote && (p == 'Z' || p == 'z')) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static Date withParsedZone(DateFormat df, Date d) {
+        int offset = df.getCalendar().get(Calendar.ZONE_OFFSET);
+        char sign = offset >= 0 ? '+' : '-';
+        int hour = Math.abs(offset) / 1000 / 60 / 60;
+        int min = Math.abs(offset) / 1000 / 60 % 60;
+        String minStr = min < 10 ? "0" + min : min + "";
+        return new TalendTimestampWithTZ(new java.sql.Timestamp(d.getTime()),
+                TimeZone.getTimeZone("GMT" + sign + hour + ":" + minStr));
+    }
+
     /**
      * get part of date. like YEAR, MONTH, HOUR, or DAY_OF_WEEK, WEEK_OF_MONTH, WEEK_OF_YEAR, TIMEZONE and so on
      *
@@ -122,7 +150,7 @@ public class TalendDate {
      * {example} formatDate("yyyy-MM-dd", new Date()) #
      */
 
-    public synchronized static String formatDate(String pattern, java.util.Date date) {
+    public static String formatDate(String pattern, java.util.Date date) {
         DateFormat format = FastDateParser.getInstance(pattern);
         if (date instanceof TalendTimestampWithTZ) {
             format.setTimeZone(((TalendTimestampWithTZ) date).getTimeZone());
@@ -150,13 +178,15 @@ public class TalendDate {
      * {example} formatDate("yyyy-MM-dd", new Date()) #
      */
 
-    public synchronized static String formatDateInUTC(String pattern, java.util.Date date) {
+    public static String formatDateInUTC(String pattern, java.util.Date date) {
         DateFormat format = FastDateParser.getInstance(pattern);
         TimeZone originalTZ = format.getTimeZone();
-        format.setTimeZone(TimeZone.getTimeZone("UTC"));
-        String dateStr = format.format(date);
-        format.setTimeZone(originalTZ);
-        return dateStr;
+        format.setTimeZone(UTC);
+        try {
+            return format.format(date);
+        } finally {
+            format.setTimeZone(originalTZ);
+        }
     }
 
     /**
@@ -851,7 +881,7 @@ public class TalendDate {
      *
      * {example} formatDateLocale("yyyy-MM-dd", new Date(), "en") #
      */
-    public synchronized static String formatDateLocale(String pattern, java.util.Date date, String languageOrCountyCode) {
+    public static String formatDateLocale(String pattern, java.util.Date date, String languageOrCountyCode) {
         return FastDateParser.getInstance(pattern, LocaleProvider.getLocale(languageOrCountyCode)).format(date);
     }
 
@@ -876,7 +906,7 @@ public class TalendDate {
      *
      * {example} parseDate("yyyy-MMM-dd HH:mm:ss", "23-Mar-1979 23:59:59") #
      */
-    public synchronized static Date parseDate(String pattern, String stringDate) {
+    public static Date parseDate(String pattern, String stringDate) {
         return parseDate(pattern, stringDate, true);
     }
 
@@ -904,34 +934,11 @@ public class TalendDate {
      *
      * {example} parseDate("yyyy-MM-dd HH:mm:ss", "29-02-1979 23:59:59",false) #
      */
-    public synchronized static Date parseDate(String pattern, String stringDate, boolean isLenient) {
+    public static Date parseDate(String pattern, String stringDate, boolean isLenient) {
         try {
-            boolean hasZone = false;
-            boolean inQuote = false;
-            char[] ps = pattern.toCharArray();
-            for (char p : ps) {
-                if (p == '\'') {
-                    inQuote = !inQuote;
-                } else if (!inQuote && (p == 'Z' || p == 'z')) {
-                    hasZone = true;
-                    break;
-                }
-            }
-            DateFormat df = FastDateParser.getInstance(pattern);
-            df.setLenient(isLenient);
+            DateFormat df = FastDateParser.getInstance(pattern, isLenient);
             Date d = df.parse(stringDate);
-            if (hasZone) {
-                int offset = df.getCalendar().get(Calendar.ZONE_OFFSET);
-                char sign = offset >= 0 ? '+' : '-';
-                int hour = Math.abs(offset) / 1000 / 60 / 60;
-                int min = Math.abs(offset) / 1000 / 60 % 60;
-                String minStr = min < 10 ? "0" + min : min + "";
-                TalendTimestampWithTZ tstz = new TalendTimestampWithTZ(new java.sql.Timestamp(d.getTime()),
-                        TimeZone.getTimeZone("GMT" + sign + hour + ":" + minStr));
-                return tstz;
-            } else {
-                return d;
-            }
+            return hasZone(pattern) ? withParsedZone(df, d) : d;
         } catch (ParseException e) {
             throw new RuntimeException(e);
         }
@@ -958,7 +965,7 @@ public class TalendDate {
      *
      * {example} parseDate("yyyy-MMM-dd HH:mm:ss", "23-Mar-1979 23:59:59") #
      */
-    public synchronized static Date parseDateInUTC(String pattern, String stringDate) {
+    public static Date parseDateInUTC(String pattern, String stringDate) {
         return parseDateInUTC(pattern, stringDate, true);
     }
 
@@ -986,37 +993,18 @@ public class TalendDate {
      *
      * {example} parseDate("yyyy-MM-dd HH:mm:ss", "29-02-1979 23:59:59",false) #
      */
-    public synchronized static Date parseDateInUTC(String pattern, String stringDate, boolean isLenient) {
+    public static Date parseDateInUTC(String pattern, String stringDate, boolean isLenient) {
         try {
-            boolean hasZone = false;
-            boolean inQuote = false;
-            char[] ps = pattern.toCharArray();
-            for (char p : ps) {
-                if (p == '\'') {
-                    inQuote = !inQuote;
-                } else if (!inQuote && (p == 'Z' || p == 'z')) {
-                    hasZone = true;
-                    break;
-                }
-            }
-            DateFormat df = FastDateParser.getInstance(pattern);
+            DateFormat df = FastDateParser.getInstance(pattern, isLenient);
             TimeZone originalTZ = df.getTimeZone();
-            df.setTimeZone(TimeZone.getTimeZone("UTC"));
-            df.setLenient(isLenient);
-            Date d = df.parse(stringDate);
-            df.setTimeZone(originalTZ);
-            if (hasZone) {
-                int offset = df.getCalendar().get(Calendar.ZONE_OFFSET);
-                char sign = offset >= 0 ? '+' : '-';
-                int hour = Math.abs(offset) / 1000 / 60 / 60;
-                int min = Math.abs(offset) / 1000 / 60 % 60;
-                String minStr = min < 10 ? "0" + min : min + "";
-                TalendTimestampWithTZ tstz = new TalendTimestampWithTZ(new java.sql.Timestamp(d.getTime()),
-                        TimeZone.getTimeZone("GMT" + sign + hour + ":" + minStr));
-                return tstz;
-            } else {
-                return d;
+            df.setTimeZone(UTC);
+            Date d;
+            try {
+                d = df.parse(stringDate);
+            } finally {
+                df.setTimeZone(originalTZ);
             }
+            return hasZone(pattern) ? withParsedZone(df, d) : d;
         } catch (ParseException e) {
             throw new RuntimeException(e);
         }
@@ -1047,7 +1035,7 @@ public class TalendDate {
      *
      * {example} parseDateLocale("yyyy-MMM-dd", "23-Mar-1979", "en") #
      */
-    public synchronized static Date parseDateLocale(String pattern, String stringDate, String languageOrCountyCode) {
+    public static Date parseDateLocale(String pattern, String stringDate, String languageOrCountyCode) {
         try {
             return FastDateParser.getInstance(pattern, LocaleProvider.getLocale(languageOrCountyCode)).parse(stringDate);
         } catch (ParseException e) {
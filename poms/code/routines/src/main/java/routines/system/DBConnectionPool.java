@@ -0,0 +1,659 @@
+// ============================================================================
+//
+// Copyright (C) 2006-2019 Talend Inc. - www.talend.com
+//
+// This source code is available under agreement available at
+// %InstallDIR%\features\org.talend.rcp.branding.%PRODUCTNAME%\%PRODUCTNAME%license.txt
+//
+// You should have received a copy of the agreement
+// along with this program; if not, write to Talend SA
+// 9 rue Pages 92150 Suresnes, France
+//
+// ============================================================================
+package routines.system;
+
+import java.io.PrintWriter;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.CallableStatement;
+import java.sql.Connection;
+import java.sql.DatabaseMetaData;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.SQLFeatureNotSupportedException;
+import java.sql.Statement;
+import java.util.Iterator;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Logger;
+
+/**
+ * A JDBC connection pool, used by {@link SharedDBConnection} in pooled mode and usable as a DataSource by
+ * {@link TalendDataSource}.
+ *
+ * The connections handed out are proxies: close() gives the physical connection back to the pool. Idle connections
+ * are validated on borrow, evicted after the idle timeout down to the min size, and connections borrowed for longer
+ * than the leak threshold are reported once with the stack of the borrower.
+ *
+ * A connection given back is reset for the next borrower: its statements are closed, its transaction rolled back, and
+ * its auto-commit, read-only, isolation, catalog and schema restored to their values at its creation. It is closed if
+ * the reset fails.
+ */
+public class DBConnectionPool implements javax.sql.DataSource {
+
+    /**
+     * settings of a pool, the defaults are used for the values not set.
+     */
+    public static class PoolConfig {
+
+        private int minSize = 0;
+
+        private int maxSize = 8;
+
+        private String validationQuery = null;
+
+        private int validationTimeoutSeconds = 5;
+
+        private long maxWaitMillis = 30000L;
+
+        private long idleTimeoutMillis = 600000L;
+
+        private long leakThresholdMillis = 0L;
+
+        private long housekeepingPeriodMillis = 30000L;
+
+        public PoolConfig setMinSize(int minSize) {
+            this.minSize = Math.max(0, minSize);
+            return this;
+        }
+
+        public PoolConfig setMaxSize(int maxSize) {
+            this.maxSize = Math.max(1, maxSize);
+            return this;
+        }
+
+        /**
+         * @param validationQuery executed on borrow, Connection.isValid() is used if null
+         */
+        public PoolConfig setValidationQuery(String validationQuery) {
+            this.validationQuery = validationQuery;
+            return this;
+        }
+
+        public PoolConfig setValidationTimeoutSeconds(int validationTimeoutSeconds) {
+            this.validationTimeoutSeconds = validationTimeoutSeconds;
+            return this;
+        }
+
+        public PoolConfig setMaxWaitMillis(long maxWaitMillis) {
+            this.maxWaitMillis = maxWaitMillis;
+            return this;
+        }
+
+        public PoolConfig setIdleTimeoutMillis(long idleTimeoutMillis) {
+            this.idleTimeoutMillis = idleTimeoutMillis;
+            return this;
+        }
+
+        /**
+         * @param leakThresholdMillis 0 to disable leak detection
+         */
+        public PoolConfig setLeakThresholdMillis(long leakThresholdMillis) {
+            this.leakThresholdMillis = leakThresholdMillis;
+            return this;
+        }
+
+        public PoolConfig setHousekeepingPeriodMillis(long housekeepingPeriodMillis) {
+            if (housekeepingPeriodMillis <= 0) {
+                throw new IllegalArgumentException("Housekeeping period <= 0"); //$NON-NLS-1$
+            }
+            this.housekeepingPeriodMillis = housekeepingPeriodMillis;
+            return this;
+        }
+    }
+
+    private static final ScheduledExecutorService housekeeper = newHousekeeper();
+
+    private static ScheduledExecutorService newHousekeeper() {
+        ScheduledThreadPoolExecutor executor = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "DBConnectionPool-housekeeper"); //$NON-NLS-1$
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        executor.setRemoveOnCancelPolicy(true);
+        return executor;
+    }
+
+    private final String name;
+
+    private final String url;
+
+    private final String userName;
+
+    private final String password;
+
+    private final PoolConfig config;
+
+    // most recently used first
+    private final LinkedBlockingDeque<PooledConnection> idleConnections = new LinkedBlockingDeque<PooledConnection>();
+
+    private final Set<PooledConnection> borrowedConnections = ConcurrentHashMap.<PooledConnection> newKeySet();
+
+    // one permit per connection which can still be borrowed
+    private final Semaphore permits;
+
+    private final AtomicInteger totalConnections = new AtomicInteger();
+
+    private final java.util.concurrent.ScheduledFuture<?> housekeeping;
+
+    private volatile boolean closed = false;
+
+    private final AtomicLong borrowCount = new AtomicLong();
+
+    private final AtomicLong borrowWaitNanos = new AtomicLong();
+
+    private final AtomicLong timeoutCount = new AtomicLong();
+
+    private final AtomicLong createdCount = new AtomicLong();
+
+    private final AtomicLong destroyedCount = new AtomicLong();
+
+    private final AtomicLong validationFailureCount = new AtomicLong();
+
+    private final AtomicLong leakCount = new AtomicLong();
+
+    /**
+     * @param name used in the messages
+     * @param dbDriver the class of the JDBC driver, loaded once
+     * @param userName null to connect with the url only
+     */
+    public DBConnectionPool(String name, String dbDriver, String url, String userName, String password,
+            PoolConfig config) throws ClassNotFoundException {
+        if (dbDriver != null) {
+            Class.forName(dbDriver);
+        }
+        this.name = name;
+        this.url = url;
+        this.userName = userName;
+        this.password = password;
+        this.config = config != null ? config : new PoolConfig();
+        this.permits = new Semaphore(Math.max(this.config.maxSize, this.config.minSize), true);
+        this.housekeeping = housekeeper.scheduleWithFixedDelay(new Runnable() {
+
+            public void run() {
+                try {
+                    housekeep();
+                } catch (Exception e) {
+                    e.printStackTrace();
+                }
+            }
+        }, 0, this.config.housekeepingPeriodMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * borrow a connection, to be closed by the caller to give it back.
+     */
+    public Connection getConnection() throws SQLException {
+        if (closed) {
+            throw new SQLException("Connection pool " + name + " is closed"); //$NON-NLS-1$ //$NON-NLS-2$
+        }
+        long start = System.nanoTime();
+        try {
+            if (!permits.tryAcquire(config.maxWaitMillis, TimeUnit.MILLISECONDS)) {
+                timeoutCount.incrementAndGet();
+                throw new SQLException("Timeout after " + config.maxWaitMillis //$NON-NLS-1$
+                        + "ms waiting for a connection of the pool " + name + ", all " + config.maxSize //$NON-NLS-1$ //$NON-NLS-2$
+                        + " connections are in use"); //$NON-NLS-1$
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("Interrupted while waiting for a connection of the pool " + name, e); //$NON-NLS-1$
+        }
+        try {
+            PooledConnection pooled = takeValidIdleConnection();
+            if (pooled == null) {
+                pooled = createPooledConnection();
+            }
+            pooled.borrowedAt = System.currentTimeMillis();
+            pooled.borrower = config.leakThresholdMillis > 0 ? new Throwable("Connection borrowed here") : null; //$NON-NLS-1$
+            pooled.leakReported = false;
+            borrowedConnections.add(pooled);
+            borrowCount.incrementAndGet();
+            borrowWaitNanos.addAndGet(System.nanoTime() - start);
+            return pooled.newProxy();
+        } catch (SQLException e) {
+            permits.release();
+            throw e;
+        } catch (RuntimeException e) {
+            permits.release();
+            throw e;
+        }
+    }
+
+    public Connection getConnection(String username, String password) throws SQLException {
+        throw new SQLFeatureNotSupportedException("The pool " + name + " has fixed credentials"); //$NON-NLS-1$ //$NON-NLS-2$
+    }
+
+    /**
+     * close the idle connections and stop the pool, the borrowed connections are closed when given back.
+     */
+    public void close() {
+        closed = true;
+        housekeeping.cancel(false);
+        PooledConnection pooled;
+        while ((pooled = idleConnections.pollFirst()) != null) {
+            destroy(pooled);
+        }
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public int getActiveCount() {
+        return borrowedConnections.size();
+    }
+
+    public int getIdleCount() {
+        return idleConnections.size();
+    }
+
+    public int getTotalCount() {
+        return totalConnections.get();
+    }
+
+    public long getBorrowCount() {
+        return borrowCount.get();
+    }
+
+    /**
+     * @return the mean time spent in getConnection(), in microseconds
+     */
+    public long getMeanBorrowWaitMicros() {
+        long count = borrowCount.get();
+        return count == 0 ? 0 : borrowWaitNanos.get() / count / 1000;
+    }
+
+    public long getTimeoutCount() {
+        return timeoutCount.get();
+    }
+
+    public long getCreatedCount() {
+        return createdCount.get();
+    }
+
+    public long getDestroyedCount() {
+        return destroyedCount.get();
+    }
+
+    public long getValidationFailureCount() {
+        return validationFailureCount.get();
+    }
+
+    public long getLeakCount() {
+        return leakCount.get();
+    }
+
+    @Override
+    public String toString() {
+        return "DBConnectionPool[" + name + " active=" + getActiveCount() + " idle=" + getIdleCount() //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+                + " borrowed=" + getBorrowCount() + " meanWaitMicros=" + getMeanBorrowWaitMicros() + " timeouts=" //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+                + getTimeoutCount() + " created=" + getCreatedCount() + " destroyed=" + getDestroyedCount() //$NON-NLS-1$ //$NON-NLS-2$
+                + " validationFailures=" + getValidationFailureCount() + " leaks=" + getLeakCount() + "]"; //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+    }
+
+    private PooledConnection takeValidIdleConnection() {
+        PooledConnection pooled;
+        while ((pooled = idleConnections.pollFirst()) != null) {
+            if (isValid(pooled.physical)) {
+                return pooled;
+            }
+            validationFailureCount.incrementAndGet();
+            destroy(pooled);
+        }
+        return null;
+    }
+
+    private PooledConnection createPooledConnection() throws SQLException {
+        Connection connection = userName != null ? DriverManager.getConnection(url, userName, password)
+                : DriverManager.getConnection(url);
+        PooledConnection pooled;
+        try {
+            pooled = new PooledConnection(connection);
+        } catch (SQLException e) {
+            connection.close();
+            throw e;
+        }
+        totalConnections.incrementAndGet();
+        createdCount.incrementAndGet();
+        return pooled;
+    }
+
+    private boolean isValid(Connection connection) {
+        try {
+            if (connection.isClosed()) {
+                return false;
+            }
+            if (config.validationQuery == null) {
+                return connection.isValid(config.validationTimeoutSeconds);
+            }
+            Statement statement = connection.createStatement();
+            try {
+                statement.setQueryTimeout(config.validationTimeoutSeconds);
+                statement.execute(config.validationQuery);
+            } finally {
+                statement.close();
+            }
+            return true;
+        } catch (SQLException e) {
+            return false;
+        }
+    }
+
+    private void giveBack(PooledConnection pooled) {
+        borrowedConnections.remove(pooled);
+        pooled.borrower = null;
+        boolean reusable = !closed;
+        try {
+            if (reusable && !pooled.physical.isClosed()) {
+                pooled.reset();
+            } else {
+                reusable = false;
+            }
+        } catch (SQLException e) {
+            reusable = false;
+        }
+        if (reusable) {
+            pooled.lastUsedAt = System.currentTimeMillis();
+            idleConnections.offerFirst(pooled);
+        } else {
+            destroy(pooled);
+        }
+        permits.release();
+    }
+
+    private void destroy(PooledConnection pooled) {
+        totalConnections.decrementAndGet();
+        destroyedCount.incrementAndGet();
+        try {
+            pooled.physical.close();
+        } catch (SQLException e) {
+            // already broken
+        }
+    }
+
+    private void housekeep() throws SQLException {
+        long now = System.currentTimeMillis();
+        // the least recently used are at the end
+        Iterator<PooledConnection> it = idleConnections.descendingIterator();
+        while (it.hasNext() && totalConnections.get() > config.minSize) {
+            PooledConnection pooled = it.next();
+            if (now - pooled.lastUsedAt > config.idleTimeoutMillis && idleConnections.remove(pooled)) {
+                destroy(pooled);
+            }
+        }
+        if (config.leakThresholdMillis > 0) {
+            for (PooledConnection pooled : borrowedConnections) {
+                Throwable borrower = pooled.borrower;
+                if (!pooled.leakReported && borrower != null && now - pooled.borrowedAt > config.leakThresholdMillis) {
+                    pooled.leakReported = true;
+                    leakCount.incrementAndGet();
+                    System.err.println("DBConnectionPool " + name + ", a connection is not given back after " //$NON-NLS-1$ //$NON-NLS-2$
+                            + (now - pooled.borrowedAt) + "ms, possible leak:"); //$NON-NLS-1$
+                    borrower.printStackTrace();
+                }
+            }
+        }
+        while (!closed && totalConnections.get() < config.minSize && permits.tryAcquire()) {
+            try {
+                PooledConnection pooled = createPooledConnection();
+                pooled.lastUsedAt = now;
+                idleConnections.offerLast(pooled);
+            } finally {
+                permits.release();
+            }
+        }
+    }
+
+    private class PooledConnection {
+
+        private final Connection physical;
+
+        private volatile long borrowedAt;
+
+        private volatile long lastUsedAt;
+
+        private volatile Throwable borrower;
+
+        private volatile boolean leakReported;
+
+        // the state at the creation, restored when the connection is given back
+        private final boolean autoCommit;
+
+        private final boolean readOnly;
+
+        private final int transactionIsolation;
+
+        private final String catalog;
+
+        // false if the driver doesn't give the schema (before JDBC 4.1)
+        private final boolean hasSchema;
+
+        private final String schema;
+
+        // the statements opened by the borrower and not closed yet, by identity
+        private final Set<Statement> openStatements = java.util.Collections
+                .synchronizedSet(java.util.Collections.newSetFromMap(new java.util.IdentityHashMap<Statement, Boolean>()));
+
+        PooledConnection(Connection physical) throws SQLException {
+            this.physical = physical;
+            this.autoCommit = physical.getAutoCommit();
+            this.readOnly = physical.isReadOnly();
+            this.transactionIsolation = physical.getTransactionIsolation();
+            this.catalog = physical.getCatalog();
+            String currentSchema = null;
+            boolean schemaKnown;
+            try {
+                currentSchema = physical.getSchema();
+                schemaKnown = true;
+            } catch (AbstractMethodError e) {
+                schemaKnown = false;
+            } catch (SQLException e) {
+                schemaKnown = false;
+            }
+            this.hasSchema = schemaKnown;
+            this.schema = currentSchema;
+        }
+
+        /**
+         * close the statements left open, roll back the transaction and restore the state of the creation.
+         */
+        void reset() throws SQLException {
+            Statement[] statements;
+            synchronized (openStatements) {
+                statements = openStatements.toArray(new Statement[openStatements.size()]);
+                openStatements.clear();
+            }
+            for (Statement statement : statements) {
+                statement.close();
+            }
+            if (!physical.getAutoCommit()) {
+                // don't leak a transaction to the next borrower
+                physical.rollback();
+            }
+            if (physical.getAutoCommit() != autoCommit) {
+                physical.setAutoCommit(autoCommit);
+            }
+            if (physical.isReadOnly() != readOnly) {
+                physical.setReadOnly(readOnly);
+            }
+            if (physical.getTransactionIsolation() != transactionIsolation) {
+                physical.setTransactionIsolation(transactionIsolation);
+            }
+            if (catalog != null && !catalog.equals(physical.getCatalog())) {
+                physical.setCatalog(catalog);
+            }
+            if (hasSchema && schema != null && !schema.equals(physical.getSchema())) {
+                physical.setSchema(schema);
+            }
+        }
+
+        Connection newProxy() {
+            return (Connection) Proxy.newProxyInstance(DBConnectionPool.class.getClassLoader(),
+                    new Class<?>[] { Connection.class }, new InvocationHandler() {
+
+                        private boolean logicallyClosed = false;
+
+                        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                            String methodName = method.getName();
+                            if ("close".equals(methodName) && method.getParameterTypes().length == 0) { //$NON-NLS-1$
+                                if (!logicallyClosed) {
+                                    logicallyClosed = true;
+                                    giveBack(PooledConnection.this);
+                                }
+                                return null;
+                            }
+                            if ("isClosed".equals(methodName) && method.getParameterTypes().length == 0) { //$NON-NLS-1$
+                                return logicallyClosed || physical.isClosed();
+                            }
+                            if ("equals".equals(methodName) && method.getParameterTypes().length == 1) { //$NON-NLS-1$
+                                return proxy == args[0];
+                            }
+                            if ("hashCode".equals(methodName) && method.getParameterTypes().length == 0) { //$NON-NLS-1$
+                                return System.identityHashCode(proxy);
+                            }
+                            if ("toString".equals(methodName) && method.getParameterTypes().length == 0) { //$NON-NLS-1$
+                                return "Pooled[" + name + "] " + physical; //$NON-NLS-1$ //$NON-NLS-2$
+                            }
+                            // the physical connection is never exposed, it would escape the pool
+                            if (isWrapperMethod(methodName, method)) {
+                                return invokeWrapperMethod(proxy, methodName, args);
+                            }
+                            if (logicallyClosed) {
+                                throw new SQLException("Connection is closed"); //$NON-NLS-1$
+                            }
+                            Object result = invokePhysical(physical, method, args);
+                            if (result instanceof Statement) {
+                                openStatements.add((Statement) result);
+                            }
+                            return wrapChild(result, method.getReturnType(), (Connection) proxy, null);
+                        }
+                    });
+        }
+
+        /**
+         * @return a proxy of the statement, metadata or result set, whose getConnection() and getStatement() return
+         * the proxies instead of the physical objects. The other objects are returned as they are.
+         */
+        private Object wrapChild(final Object child, final Class<?> type, final Connection connection,
+                final Object statement) {
+            if (child == null || !(type == Statement.class || type == PreparedStatement.class
+                    || type == CallableStatement.class || type == DatabaseMetaData.class || type == ResultSet.class)) {
+                return child;
+            }
+            return Proxy.newProxyInstance(DBConnectionPool.class.getClassLoader(), new Class<?>[] { type },
+                    new InvocationHandler() {
+
+                        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                            String methodName = method.getName();
+                            int parameterCount = method.getParameterTypes().length;
+                            if ("getConnection".equals(methodName) && parameterCount == 0) { //$NON-NLS-1$
+                                return connection;
+                            }
+                            if ("getStatement".equals(methodName) && parameterCount == 0) { //$NON-NLS-1$
+                                // null for the result sets of the metadata, as JDBC allows
+                                return statement;
+                            }
+                            if ("equals".equals(methodName) && parameterCount == 1) { //$NON-NLS-1$
+                                return proxy == args[0];
+                            }
+                            if ("hashCode".equals(methodName) && parameterCount == 0) { //$NON-NLS-1$
+                                return System.identityHashCode(proxy);
+                            }
+                            if (isWrapperMethod(methodName, method)) {
+                                return invokeWrapperMethod(proxy, methodName, args);
+                            }
+                            if ("close".equals(methodName) && parameterCount == 0 && child instanceof Statement) { //$NON-NLS-1$
+                                openStatements.remove(child);
+                            }
+                            Object result = invokePhysical(child, method, args);
+                            return wrapChild(result, method.getReturnType(), connection,
+                                    child instanceof Statement ? proxy : null);
+                        }
+                    });
+        }
+    }
+
+    private static boolean isWrapperMethod(String methodName, Method method) {
+        return ("isWrapperFor".equals(methodName) || "unwrap".equals(methodName)) //$NON-NLS-1$ //$NON-NLS-2$
+                && method.getParameterTypes().length == 1;
+    }
+
+    // only the proxy itself is unwrapped
+    private static Object invokeWrapperMethod(Object proxy, String methodName, Object[] args) throws SQLException {
+        boolean isWrapper = ((Class<?>) args[0]).isInstance(proxy);
+        if ("isWrapperFor".equals(methodName)) { //$NON-NLS-1$
+            return isWrapper;
+        }
+        if (isWrapper) {
+            return proxy;
+        }
+        throw new SQLException("Not a wrapper of " + args[0]); //$NON-NLS-1$
+    }
+
+    private static Object invokePhysical(Object target, Method method, Object[] args) throws Throwable {
+        try {
+            return method.invoke(target, args);
+        } catch (InvocationTargetException e) {
+            throw e.getTargetException();
+        }
+    }
+
+    // ------- DataSource -------
+
+    public PrintWriter getLogWriter() throws SQLException {
+        return DriverManager.getLogWriter();
+    }
+
+    public void setLogWriter(PrintWriter out) throws SQLException {
+        DriverManager.setLogWriter(out);
+    }
+
+    public void setLoginTimeout(int seconds) throws SQLException {
+        DriverManager.setLoginTimeout(seconds);
+    }
+
+    public int getLoginTimeout() throws SQLException {
+        return DriverManager.getLoginTimeout();
+    }
+
+    public Logger getParentLogger() throws SQLFeatureNotSupportedException {
+        throw new SQLFeatureNotSupportedException();
+    }
+
+    public <T> T unwrap(Class<T> iface) throws SQLException {
+        if (iface.isInstance(this)) {
+            return iface.cast(this);
+        }
+        throw new SQLException("Not a wrapper of " + iface); //$NON-NLS-1$
+    }
+
+    public boolean isWrapperFor(Class<?> iface) throws SQLException {
+        return iface.isInstance(this);
+    }
+}
@@ -0,0 +1,287 @@
+// ============================================================================
+//
+// Copyright (C) 2006-2019 Talend Inc. - www.talend.com
+//
+// This source code is available under agreement available at
+// %InstallDIR%\features\org.talend.rcp.branding.%PRODUCTNAME%\%PRODUCTNAME%license.txt
+//
+// You should have received a copy of the agreement
+// along with this program; if not, write to Talend SA
+// 9 rue Pages 92150 Suresnes, France
+//
+// ============================================================================
+package routines.system;
+
+import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+
+/**
+ * Splits lines of bytes on a separator, reusable from line to line.
+ *
+ * split() only records the offsets of the fields in the line, so the caller can look at the bytes of a field and
+ * decode only the fields it needs. The fields are decoded as UTF-8 first, then with the given encoding if they are
+ * not valid UTF-8, like {@link StringUtils#splitNotRegexWithEncoding(byte[], String, String)}.
+ *
+ * Not thread safe, the offsets and the decoded chars are valid until the next split().
+ */
+public class DelimitedSplitter {
+
+    private static final Charset UTF8 = Charset.forName("UTF-8"); //$NON-NLS-1$
+
+    private final String separatorChars;
+
+    private final String encoding;
+
+    private final byte[] separator;
+
+    private final CharsetDecoder utf8Decoder;
+
+    // null without encoding
+    private final CharsetDecoder decoder;
+
+    private byte[] line;
+
+    private int fieldCount = 0;
+
+    private int[] fieldStarts = new int[16];
+
+    private int[] fieldEnds = new int[16];
+
+    private CharBuffer chars = CharBuffer.allocate(256);
+
+    /**
+     * @param separatorChars not empty
+     * @param encoding of the separator and of the fields, null for the platform encoding of the separator and UTF-8
+     * only for the fields
+     */
+    public DelimitedSplitter(String separatorChars, String encoding) throws UnsupportedEncodingException {
+        this.separatorChars = separatorChars;
+        this.encoding = encoding;
+        if (encoding != null) {
+            separator = separatorChars.getBytes(encoding);
+            decoder = Charset.forName(encoding).newDecoder();
+            decoder.onMalformedInput(CodingErrorAction.REPORT);
+            decoder.onUnmappableCharacter(CodingErrorAction.REPORT);
+        } else {
+            separator = separatorChars.getBytes();
+            decoder = null;
+        }
+        if (separator.length == 0) {
+            throw new IllegalArgumentException("The separator is empty"); //$NON-NLS-1$
+        }
+        utf8Decoder = UTF8.newDecoder();
+        utf8Decoder.onMalformedInput(CodingErrorAction.REPORT);
+        utf8Decoder.onUnmappableCharacter(CodingErrorAction.REPORT);
+    }
+
+    /**
+     * @return true if this splitter uses the given separator and encoding
+     */
+    public boolean accepts(String separatorChars, String encoding) {
+        return this.separatorChars.equals(separatorChars)
+                && (this.encoding == null ? encoding == null : this.encoding.equals(encoding));
+    }
+
+    public int split(byte[] line) {
+        return split(line, 0, line.length);
+    }
+
+    /**
+     * split the bytes line[offset, offset+length[. n separators give n+1 fields, an empty line has one empty field.
+     *
+     * @return the number of fields
+     */
+    public int split(byte[] line, int offset, int length) {
+        return split(line, offset, length, Integer.MAX_VALUE);
+    }
+
+    /**
+     * split the bytes line[offset, offset+length[ but stop after maxFields fields, the rest of the line isn't
+     * scanned.
+     *
+     * @return the number of fields, at most maxFields
+     */
+    public int split(byte[] line, int offset, int length, int maxFields) {
+        this.line = line;
+        fieldCount = 0;
+        int end = offset + length;
+        int start = offset;
+        byte first = separator[0];
+        if (separator.length == 1) {
+            for (int i = offset; i < end; i++) {
+                if (line[i] == first) {
+                    addField(start, i);
+                    if (fieldCount == maxFields) {
+                        return fieldCount;
+                    }
+                    start = i + 1;
+                }
+            }
+        } else {
+            int last = end - separator.length;
+            int i = offset;
+            while (i <= last) {
+                if (line[i] == first && matchesSeparator(line, i)) {
+                    addField(start, i);
+                    if (fieldCount == maxFields) {
+                        return fieldCount;
+                    }
+                    i += separator.length;
+                    start = i;
+                } else {
+                    i++;
+                }
+            }
+        }
+        addField(start, end);
+        return fieldCount;
+    }
+
+    private boolean matchesSeparator(byte[] bytes, int index) {
+        for (int j = 1; j < separator.length; j++) {
+            if (bytes[index + j] != separator[j]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void addField(int start, int end) {
+        if (fieldCount == fieldStarts.length) {
+            int[] starts = new int[fieldCount * 2];
+            int[] ends = new int[fieldCount * 2];
+            System.arraycopy(fieldStarts, 0, starts, 0, fieldCount);
+            System.arraycopy(fieldEnds, 0, ends, 0, fieldCount);
+            fieldStarts = starts;
+            fieldEnds = ends;
+        }
+        fieldStarts[fieldCount] = start;
+        fieldEnds[fieldCount] = end;
+        fieldCount++;
+    }
+
+    public int getFieldCount() {
+        return fieldCount;
+    }
+
+    /**
+     * @return the line given to the last split()
+     */
+    public byte[] getLine() {
+        return line;
+    }
+
+    /**
+     * @return the offset of the first byte of the field in the line
+     */
+    public int getFieldStart(int index) {
+        checkIndex(index);
+        return fieldStarts[index];
+    }
+
+    /**
+     * @return the offset after the last byte of the field in the line
+     */
+    public int getFieldEnd(int index) {
+        checkIndex(index);
+        return fieldEnds[index];
+    }
+
+    public int getFieldLength(int index) {
+        checkIndex(index);
+        return fieldEnds[index] - fieldStarts[index];
+    }
+
+    private void checkIndex(int index) {
+        if (index < 0 || index >= fieldCount) {
+            throw new IndexOutOfBoundsException("Field " + index + ", field count: " + fieldCount); //$NON-NLS-1$ //$NON-NLS-2$
+        }
+    }
+
+    /**
+     * decode the field into a buffer reused by the next calls.
+     *
+     * @return the chars of the field, empty if it can't be decoded
+     */
+    public CharSequence getFieldChars(int index) {
+        checkIndex(index);
+        int start = fieldStarts[index];
+        int length = fieldEnds[index] - start;
+        if (chars.capacity() < length) {
+            chars = CharBuffer.allocate(Math.max(length, chars.capacity() * 2));
+        }
+        chars.clear();
+        // ascii is the same in UTF-8, which is tried first
+        char[] array = chars.array();
+        int i = 0;
+        while (i < length && line[start + i] >= 0) {
+            array[i] = (char) line[start + i];
+            i++;
+        }
+        if (i == length) {
+            chars.limit(length);
+            return chars;
+        }
+        if (!decode(utf8Decoder, start, length) && (decoder == null || !decode(decoder, start, length))) {
+            chars.clear();
+            chars.limit(0);
+        }
+        return chars;
+    }
+
+    private boolean decode(CharsetDecoder charsetDecoder, int start, int length) {
+        chars.clear();
+        ByteBuffer bytes = ByteBuffer.wrap(line, start, length);
+        charsetDecoder.reset();
+        while (true) {
+            CoderResult result = charsetDecoder.decode(bytes, chars, true);
+            if (result.isOverflow()) {
+                growChars();
+                continue;
+            }
+            if (result.isError()) {
+                return false;
+            }
+            result = charsetDecoder.flush(chars);
+            if (result.isOverflow()) {
+                growChars();
+                continue;
+            }
+            chars.flip();
+            return true;
+        }
+    }
+
+    private void growChars() {
+        CharBuffer bigger = CharBuffer.allocate(chars.capacity() * 2);
+        chars.flip();
+        bigger.put(chars);
+        chars = bigger;
+    }
+
+    /**
+     * @return the decoded field
+     */
+    public String getField(int index) {
+        if (getFieldLength(index) == 0) {
+            return StringUtils.EMPTY;
+        }
+        return getFieldChars(index).toString();
+    }
+
+    /**
+     * @return all the decoded fields
+     */
+    public String[] getFields() {
+        String[] fields = new String[fieldCount];
+        for (int i = 0; i < fieldCount; i++) {
+            fields[i] = getField(i);
+        }
+        return fields;
+    }
+}
@@ -5,7 +5,7 @@ import java.util.List;
 import java.util.Map;
 
 /**
- * now for unique match result & first match
+ * for unique match, first match and all matches result
  * for tXMLMap
  * @author Administrator
  *
@@ -14,6 +14,9 @@ public class DocumentLookupCache {
 	
 	private LookupCache cache;
 	
+	// refilled by lookup(List), so that probing with a list doesn't create a key per row
+	private DocumentLookupKey probe;
+	
 	public DocumentLookupCache(String matchingMode) {
 		if("UNIQUE_MATCH".equals(matchingMode)) {
 			cache = new UniqueLookupCache();
@@ -25,10 +28,27 @@ public class DocumentLookupCache {
 	}
 	
 	public void put(List<Object> key,Map<String,Object> value) {
-		cache.put(key, value);
+		cache.put(DocumentLookupKey.of(key), value);
+	}
+	
+	/**
+	 * the key is copied, so the caller can refill it for the next put
+	 */
+	public void put(DocumentLookupKey key,Map<String,Object> value) {
+		cache.put(key.copy(), value);
 	}
 
 	public void lookup(List<Object> key) {
+		if(probe == null || probe.size() != key.size()) {
+			probe = new DocumentLookupKey(key.size());
+		}
+		cache.lookup(probe.fill(key));
+	}
+	
+	/**
+	 * the key can be a probe key created once and refilled for every row
+	 */
+	public void lookup(DocumentLookupKey key) {
 		cache.lookup(key);
 	}
 	
@@ -43,8 +63,8 @@ public class DocumentLookupCache {
 	abstract class LookupCache {
 		protected boolean hasNext = false;
 		protected Map<String,Object> currentValue;
-		abstract void put(List<Object> key,Map<String,Object> value);
-		abstract void lookup(List<Object> key);
+		abstract void put(DocumentLookupKey key,Map<String,Object> value);
+		abstract void lookup(DocumentLookupKey key);
 		abstract boolean hasNext();
 		abstract Map<String,Object> next();
 	}
@@ -56,15 +76,15 @@ public class DocumentLookupCache {
 	 */
 	class UniqueLookupCache extends LookupCache {
 
-		private Map<List<Object>,Map<String,Object>> uniqueMap = new HashMap<List<Object>,Map<String,Object>>();
+		private Map<DocumentLookupKey,Map<String,Object>> uniqueMap = new HashMap<DocumentLookupKey,Map<String,Object>>();
 		
 		@Override
-		void put(List<Object> key,Map<String,Object> value) {
+		void put(DocumentLookupKey key,Map<String,Object> value) {
 			uniqueMap.put(key,value);
 		}
 
 		@Override
-		void lookup(List<Object> key) {
+		void lookup(DocumentLookupKey key) {
 			currentValue = uniqueMap.get(key);
 			hasNext = currentValue != null ? true : false;
 		}
@@ -89,15 +109,15 @@ public class DocumentLookupCache {
 	 */
 	class FirstLookupCache extends LookupCache {
 
-		private Map<List<Object>,Map<String,Object>> uniqueMap = new HashMap<List<Object>,Map<String,Object>>();
+		private Map<DocumentLookupKey,Map<String,Object>> uniqueMap = new HashMap<DocumentLookupKey,Map<String,Object>>();
 		
 		@Override
-		void put(List<Object> key,Map<String,Object> value) {
+		void put(DocumentLookupKey key,Map<String,Object> value) {
 			uniqueMap.put(key,value);
 		}
 
 		@Override
-		void lookup(List<Object> key) {
+		void lookup(DocumentLookupKey key) {
 			currentValue = uniqueMap.get(key);
 			hasNext = currentValue != null ? true : false;
 		}
@@ -114,34 +134,79 @@ public class DocumentLookupCache {
 		
 	}
 	
+	/**
+	 * for all matches & all rows
+	 * compact multimap : every key is mapped once to the index of its first value, the values are kept in one array
+	 * and chained by index in insertion order, so there is no list per key and next() doesn't allocate
+	 *
+	 */
 	class AllMatchLookupCache extends LookupCache {
 		
-		//private Map<List<Object>,Map<String,Object>> uniqueMap = new HashMap<List<Object>,Map<String,Object>>();
+		private Map<DocumentLookupKey,Integer> keyIds = new HashMap<DocumentLookupKey,Integer>();
+		
+		// per key id : index of the first and the last value
+		private int[] heads = new int[16];
+		
+		private int[] tails = new int[16];
+		
+		// per value index : the value and the index of the next value of the same key, -1 at the end
+		private Object[] values = new Object[16];
+		
+		private int[] nextValues = new int[16];
+		
+		private int valueCount = 0;
+		
+		private int cursor = -1;
 
 		@Override
-		void put(List<Object> key, Map<String, Object> value) {
-			// TODO Auto-generated method stub
+		void put(DocumentLookupKey key, Map<String, Object> value) {
+			if(valueCount == values.length) {
+				values = java.util.Arrays.copyOf(values, valueCount * 2);
+				nextValues = java.util.Arrays.copyOf(nextValues, valueCount * 2);
+			}
+			int index = valueCount++;
+			values[index] = value;
+			nextValues[index] = -1;
 			
+			Integer keyId = keyIds.get(key);
+			if(keyId == null) {
+				int id = keyIds.size();
+				if(id == heads.length) {
+					heads = java.util.Arrays.copyOf(heads, id * 2);
+					tails = java.util.Arrays.copyOf(tails, id * 2);
+				}
+				keyIds.put(key, id);
+				heads[id] = index;
+				tails[id] = index;
+			} else {
+				nextValues[tails[keyId]] = index;
+				tails[keyId] = index;
+			}
 		}
 
 		@Override
-		void lookup(List<Object> key) {
-			// TODO Auto-generated method stub
-			
+		void lookup(DocumentLookupKey key) {
+			Integer keyId = keyIds.get(key);
+			cursor = keyId != null ? heads[keyId] : -1;
+			hasNext = cursor >= 0;
 		}
 
 		@Override
 		boolean hasNext() {
-			// TODO Auto-generated method stub
-			return false;
+			return hasNext;
 		}
 
 		@Override
+		@SuppressWarnings("unchecked")
 		Map<String, Object> next() {
-			// TODO Auto-generated method stub
-			return null;
+			if(cursor < 0) {
+				return null;
+			}
+			currentValue = (Map<String, Object>) values[cursor];
+			cursor = nextValues[cursor];
+			hasNext = cursor >= 0;
+			return currentValue;
 		}
 		
-		
 	}
 }
@@ -0,0 +1,221 @@
+// ============================================================================
+//
+// Copyright (C) 2006-2019 Talend Inc. - www.talend.com
+//
+// This source code is available under agreement available at
+// %InstallDIR%\features\org.talend.rcp.branding.%PRODUCTNAME%\%PRODUCTNAME%license.txt
+//
+// You should have received a copy of the agreement
+// along with this program; if not, write to Talend SA
+// 9 rue Pages 92150 Suresnes, France
+//
+// ============================================================================
+package routines.system;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Composite key of {@link DocumentLookupCache}.
+ *
+ * Numbers and booleans are kept unboxed in typed slots, and the hash is computed once until a slot changes. A probe
+ * key can be created once and refilled for every row, the cache copies the keys it keeps on put().
+ *
+ * The slots keep the type of the boxed values, so two keys are equal exactly when the lists of their values are: an
+ * Integer never matches a Long of the same value.
+ */
+public class DocumentLookupKey {
+
+    private static final byte OBJECT = 0;
+
+    private static final byte LONG = 1;
+
+    private static final byte DOUBLE = 2;
+
+    private static final byte BOOLEAN = 3;
+
+    private static final byte INT = 4;
+
+    private static final byte SHORT = 5;
+
+    private static final byte BYTE = 6;
+
+    private static final byte FLOAT = 7;
+
+    private final byte[] types;
+
+    // integral value, double or float bits, or 0/1 for boolean
+    private final long[] primitives;
+
+    private final Object[] objects;
+
+    private int hash;
+
+    private boolean hashValid = false;
+
+    public DocumentLookupKey(int size) {
+        types = new byte[size];
+        primitives = new long[size];
+        objects = new Object[size];
+    }
+
+    public static DocumentLookupKey of(List<Object> values) {
+        DocumentLookupKey key = new DocumentLookupKey(values.size());
+        key.fill(values);
+        return key;
+    }
+
+    public int size() {
+        return types.length;
+    }
+
+    public DocumentLookupKey setLong(int index, long value) {
+        set(index, LONG, value, null);
+        return this;
+    }
+
+    public DocumentLookupKey setInt(int index, int value) {
+        set(index, INT, value, null);
+        return this;
+    }
+
+    public DocumentLookupKey setDouble(int index, double value) {
+        set(index, DOUBLE, Double.doubleToLongBits(value), null);
+        return this;
+    }
+
+    public DocumentLookupKey setBoolean(int index, boolean value) {
+        set(index, BOOLEAN, value ? 1L : 0L, null);
+        return this;
+    }
+
+    /**
+     * boxed numbers and booleans are unboxed into the typed slots.
+     */
+    public DocumentLookupKey setObject(int index, Object value) {
+        if (value instanceof Integer) {
+            set(index, INT, ((Integer) value).intValue(), null);
+        } else if (value instanceof Long) {
+            set(index, LONG, ((Long) value).longValue(), null);
+        } else if (value instanceof Short) {
+            set(index, SHORT, ((Short) value).shortValue(), null);
+        } else if (value instanceof Byte) {
+            set(index, BYTE, ((Byte) value).byteValue(), null);
+        } else if (value instanceof Double) {
+            set(index, DOUBLE, Double.doubleToLongBits(((Double) value).doubleValue()), null);
+        } else if (value instanceof Float) {
+            set(index, FLOAT, Float.floatToIntBits(((Float) value).floatValue()), null);
+        } else if (value instanceof Boolean) {
+            set(index, BOOLEAN, ((Boolean) value).booleanValue() ? 1L : 0L, null);
+        } else {
+            set(index, OBJECT, 0L, value);
+        }
+        return this;
+    }
+
+    /**
+     * refill all the slots from a list of the same size.
+     */
+    public DocumentLookupKey fill(List<Object> values) {
+        if (values.size() != types.length) {
+            throw new IllegalArgumentException("Expected " + types.length + " key values but got " + values.size()); //$NON-NLS-1$ //$NON-NLS-2$
+        }
+        for (int i = 0; i < types.length; i++) {
+            setObject(i, values.get(i));
+        }
+        return this;
+    }
+
+    /**
+     * @return the value of the slot, boxed
+     */
+    public Object get(int index) {
+        switch (types[index]) {
+        case LONG:
+            return primitives[index];
+        case INT:
+            return (int) primitives[index];
+        case SHORT:
+            return (short) primitives[index];
+        case BYTE:
+            return (byte) primitives[index];
+        case DOUBLE:
+            return Double.longBitsToDouble(primitives[index]);
+        case FLOAT:
+            return Float.intBitsToFloat((int) primitives[index]);
+        case BOOLEAN:
+            return primitives[index] != 0L;
+        default:
+            return objects[index];
+        }
+    }
+
+    public DocumentLookupKey copy() {
+        DocumentLookupKey copy = new DocumentLookupKey(types.length);
+        System.arraycopy(types, 0, copy.types, 0, types.length);
+        System.arraycopy(primitives, 0, copy.primitives, 0, types.length);
+        System.arraycopy(objects, 0, copy.objects, 0, types.length);
+        copy.hash = hash;
+        copy.hashValid = hashValid;
+        return copy;
+    }
+
+    private void set(int index, byte type, long primitive, Object object) {
+        types[index] = type;
+        primitives[index] = primitive;
+        objects[index] = object;
+        hashValid = false;
+    }
+
+    @Override
+    public int hashCode() {
+        if (!hashValid) {
+            int h = 1;
+            for (int i = 0; i < types.length; i++) {
+                long primitive = primitives[i];
+                Object object = objects[i];
+                int slotHash = types[i] == OBJECT ? (object == null ? 0 : object.hashCode())
+                        : (int) (primitive ^ (primitive >>> 32));
+                h = 31 * h + (31 * types[i] + slotHash);
+            }
+            hash = h;
+            hashValid = true;
+        }
+        return hash;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (this == obj) {
+            return true;
+        }
+        if (!(obj instanceof DocumentLookupKey)) {
+            return false;
+        }
+        DocumentLookupKey other = (DocumentLookupKey) obj;
+        if (other.types.length != types.length || other.hashCode() != hashCode()) {
+            return false;
+        }
+        for (int i = 0; i < types.length; i++) {
+            if (types[i] != other.types[i] || primitives[i] != other.primitives[i]) {
+                return false;
+            }
+            if (types[i] == OBJECT) {
+                Object object = objects[i];
+                if (object == null ? other.objects[i] != null : !object.equals(other.objects[i])) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public String toString() {
+        Object[] values = new Object[types.length];
+        for (int i = 0; i < types.length; i++) {
+            values[i] = get(i);
+        }
+        return Arrays.toString(values);
+    }
+}
@@ -12,6 +12,10 @@
 // ============================================================================
 package routines.system;
 
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.ObjectStreamField;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
@@ -26,14 +30,53 @@ public class Dynamic implements Cloneable, java.io.Serializable {
 
     private static final long serialVersionUID = 7990658608074365829L;
 
+    // the serialized form is still the one of the lists, so the Dynamic objects serialized before can be read
+    private static final ObjectStreamField[] serialPersistentFields = {
+            new ObjectStreamField("metadatas", List.class), //$NON-NLS-1$
+            new ObjectStreamField("values", List.class), //$NON-NLS-1$
+            new ObjectStreamField("dbmsId", String.class) }; //$NON-NLS-1$
+
     public List<DynamicMetadata> metadatas;
 
-    private List<Object> values = new ArrayList<Object>(30);
+    private DynamicValues values = new DynamicValues(30);
 
     private String dbmsId = "";
 
+    // column readers of DynamicUtils.readColumnsFromDatabase, compiled for these metadatas
+    transient DynamicColumnReaderPlan readerPlan;
+
+    // parameter binders of DynamicUtils.writeColumnsToDatabse
+    transient DynamicColumnWriterPlan writerPlan;
+
     public Dynamic() {
-        this.metadatas = new ArrayList<DynamicMetadata>();
+        this.metadatas = new DynamicMetadataList();
+    }
+
+    private void writeObject(ObjectOutputStream out) throws IOException {
+        List<Object> list = new ArrayList<Object>(values.size());
+        for (int i = 0; i < values.size(); i++) {
+            list.add(values.get(i));
+        }
+        ObjectOutputStream.PutField fields = out.putFields();
+        fields.put("metadatas", metadatas == null ? null : new ArrayList<DynamicMetadata>(metadatas)); //$NON-NLS-1$
+        fields.put("values", list); //$NON-NLS-1$
+        fields.put("dbmsId", dbmsId); //$NON-NLS-1$
+        out.writeFields();
+    }
+
+    @SuppressWarnings("unchecked")
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        ObjectInputStream.GetField fields = in.readFields();
+        List<DynamicMetadata> metadataList = (List<DynamicMetadata>) fields.get("metadatas", null); //$NON-NLS-1$
+        metadatas = metadataList == null ? null : DynamicMetadataList.copyOf(metadataList);
+        List<Object> list = (List<Object>) fields.get("values", null); //$NON-NLS-1$
+        values = new DynamicValues(list == null ? 30 : Math.max(30, list.size()));
+        if (list != null) {
+            for (Object value : list) {
+                values.add(value);
+            }
+        }
+        dbmsId = (String) fields.get("dbmsId", ""); //$NON-NLS-1$ //$NON-NLS-2$
     }
 
     public void setDbmsId(String dbmsId) {
@@ -82,6 +125,32 @@ public class Dynamic implements Cloneable, java.io.Serializable {
             values.add(value);
     }
 
+    // add a primitive value without boxing it, kind is one of the DynamicValues kinds
+    void addColumnValue(byte kind, long bits) {
+        if (values.size() < metadatas.size())
+            values.add(kind, bits);
+    }
+
+    void addIntColumnValue(int value) {
+        addColumnValue(DynamicValues.INT, value);
+    }
+
+    void addLongColumnValue(long value) {
+        addColumnValue(DynamicValues.LONG, value);
+    }
+
+    void addDoubleColumnValue(double value) {
+        addColumnValue(DynamicValues.DOUBLE, Double.doubleToRawLongBits(value));
+    }
+
+    void addBooleanColumnValue(boolean value) {
+        addColumnValue(DynamicValues.BOOLEAN, value ? 1 : 0);
+    }
+
+    void addByteColumnValue(byte value) {
+        addColumnValue(DynamicValues.BYTE, value);
+    }
+
     public void setColumnValue(int index, Object value) {
         if (index < this.metadatas.size()) {
             modifyColunmValue(index, value);
@@ -110,24 +179,41 @@ public class Dynamic implements Cloneable, java.io.Serializable {
         values.clear();
     }
 
+    /**
+     * write the values with the platform encoding and flush the stream, see {@link DynamicRowWriter} to write many
+     * rows.
+     */
     public void writeValuesToStream(java.io.OutputStream out, String delimiter) throws java.io.IOException {
+        byte[] delimiterBytes = delimiter.getBytes();
         for (int i = 0; i < metadatas.size(); i++) {
             out.write((String.valueOf(values.get(i))).getBytes());
             if (i != (metadatas.size() - 1))
-                out.write(delimiter.getBytes());
+                out.write(delimiterBytes);
         }
         out.flush();
     }
 
+    /**
+     * write the values to the writer, which is not flushed.
+     */
+    public void writeValuesToStream(DynamicRowWriter writer) throws java.io.IOException {
+        writer.writeValues(this);
+    }
+
     public void writeHeaderToStream(java.io.OutputStream out, String delimiter) throws java.io.IOException {
+        byte[] delimiterBytes = delimiter.getBytes();
         for (int i = 0; i < metadatas.size(); i++) {
             out.write((String.valueOf(metadatas.get(i).getName())).getBytes());
             if (i != (metadatas.size() - 1))
-                out.write(delimiter.getBytes());
+                out.write(delimiterBytes);
         }
         out.flush();
     }
 
+    public void writeHeaderToStream(DynamicRowWriter writer) throws java.io.IOException {
+        writer.writeHeader(this);
+    }
+
     public static String getTalendTypeFromDBType(String dbName, String dbType, int length, int precision) {
         // TODO:: replace this fucntion with full implementation with XML
         // mappings
@@ -211,6 +297,7 @@ public class Dynamic implements Cloneable, java.io.Serializable {
     }
 
     public int hashCode() {
+        // the hash code of the list of values
         return this.values.hashCode();
     }
 
@@ -248,12 +335,11 @@ public class Dynamic implements Cloneable, java.io.Serializable {
     public Dynamic clone() {
         Dynamic dynamic = new Dynamic();
         dynamic.dbmsId = this.dbmsId;
-        for (int i = 0; i < this.metadatas.size(); i++) {
-            dynamic.metadatas.add(this.metadatas.get(i));
-        }
-        for (int j = 0; j < this.values.size(); j++) {
-            dynamic.values.add(values.get(j));
-        }
+        // copy on write, the clone shares the metadatas and values until one of them is changed
+        dynamic.metadatas = DynamicMetadataList.copyOf(this.metadatas);
+        dynamic.values = this.values.share();
+        // still checked against the columns of the clone before each use
+        dynamic.writerPlan = this.writerPlan;
         return dynamic;
     }
 
@@ -273,6 +359,11 @@ public class Dynamic implements Cloneable, java.io.Serializable {
 
         dynamicTarget.dbmsId = this.dbmsId;
 
+        if (this.values.size() == this.getColumnCount()) {
+            dynamicTarget.metadatas = DynamicMetadataList.copyOf(this.metadatas);
+            dynamicTarget.values = this.values.share();
+            return dynamicTarget;
+        }
         for (int i = 0; i < this.getColumnCount(); i++) {
             dynamicTarget.metadatas.add(this.metadatas.get(i));
             dynamicTarget.addColumnValue(this.getColumnValue(i));
@@ -420,7 +511,7 @@ public class Dynamic implements Cloneable, java.io.Serializable {
         Dynamic newDynamicColumn = this.clone();
         if (index <= this.getColumnCount()) {
             newDynamicColumn.metadatas.add(index, newColumn);
-            newDynamicColumn.values.add(index, defaultValue);
+            newDynamicColumn.values.insert(index, defaultValue);
         } else {
             throw new IllegalArgumentException("Incorrect index value " + index + " for dynamic field size " + this.getColumnCount());
         }
@@ -0,0 +1,308 @@
+// ============================================================================
+//
+// Copyright (C) 2006-2019 Talend Inc. - www.talend.com
+//
+// This source code is available under agreement available at
+// %InstallDIR%\features\org.talend.rcp.branding.%PRODUCTNAME%\%PRODUCTNAME%license.txt
+//
+// You should have received a copy of the agreement
+// along with this program; if not, write to Talend SA
+// 9 rue Pages 92150 Suresnes, France
+//
+// ============================================================================
+package routines.system;
+
+import java.sql.BatchUpdateException;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Writes {@link Dynamic} rows with JDBC batches.
+ *
+ * The columns are bound with binders compiled once for the schema, like DynamicUtils.writeColumnsToDatabse. The rows
+ * are added to the batch of the statement, which is executed when it has batchRows rows or about batchBytes bytes of
+ * dynamic values, and on flush() or close(). A failed batch is recorded with the indexes of its rows, see
+ * {@link #getFailures()}.
+ *
+ * Usage, the fixed columns are bound by the caller before each row:
+ *
+ * <pre>
+ * DynamicBatchWriter writer = new DynamicBatchWriter(pstmt, "oracle_id", 1, false, 10000, 0);
+ * for each row {
+ *     pstmt.setInt(1, id);
+ *     writer.addRow(row.dyn);
+ * }
+ * writer.close();
+ * </pre>
+ *
+ * Not thread safe.
+ */
+public class DynamicBatchWriter implements AutoCloseable {
+
+    public static final int DEFAULT_BATCH_ROWS = 10000;
+
+    /**
+     * The rows of a batch which failed, the row indexes start at 0 with the first row added to the writer.
+     */
+    public static final class BatchFailure {
+
+        private final long firstRow;
+
+        private final int rowCount;
+
+        private final long[] failedRows;
+
+        private final SQLException exception;
+
+        BatchFailure(long firstRow, int rowCount, long[] failedRows, SQLException exception) {
+            this.firstRow = firstRow;
+            this.rowCount = rowCount;
+            this.failedRows = failedRows;
+            this.exception = exception;
+        }
+
+        /**
+         * @return the index of the first row of the batch
+         */
+        public long getFirstRow() {
+            return firstRow;
+        }
+
+        /**
+         * @return the number of rows of the batch
+         */
+        public int getRowCount() {
+            return rowCount;
+        }
+
+        /**
+         * @return the indexes of the rows which failed or were not executed after a failure
+         */
+        public long[] getFailedRows() {
+            return failedRows.clone();
+        }
+
+        public SQLException getException() {
+            return exception;
+        }
+
+        public String toString() {
+            return "Batch of rows " + firstRow + " to " + (firstRow + rowCount - 1) + ", " + failedRows.length //$NON-NLS-1$ //$NON-NLS-2$
+                    + " failed: " + exception.getMessage(); //$NON-NLS-1$
+        }
+    }
+
+    private final PreparedStatement pstmt;
+
+    private final String database;
+
+    private final int fixedColumnCount;
+
+    private final boolean isUpdate;
+
+    private final int batchRows;
+
+    private final long batchBytes;
+
+    private boolean dieOnError = true;
+
+    private DynamicColumnWriterPlan plan;
+
+    private final List<BatchFailure> failures = new ArrayList<BatchFailure>();
+
+    private long rowCount = 0;
+
+    // rows and estimated bytes of the batch being filled
+    private int pendingRows = 0;
+
+    private long pendingBytes = 0;
+
+    private long rowBytes = 0;
+
+    private long batchCount = 0;
+
+    private long updateCount = 0;
+
+    public DynamicBatchWriter(PreparedStatement pstmt, String database, int fixedColumnCount) {
+        this(pstmt, database, fixedColumnCount, false, DEFAULT_BATCH_ROWS, 0);
+    }
+
+    /**
+     * @param database the dbms id of the database, to bind the null values
+     * @param fixedColumnCount the number of parameters bound by the caller before the dynamic columns
+     * @param isUpdate true to skip the key columns, which are in the where clause of an update
+     * @param batchRows execute the batch at this number of rows, 0 for no limit
+     * @param batchBytes execute the batch at about this size of the dynamic values, 0 for no limit
+     */
+    public DynamicBatchWriter(PreparedStatement pstmt, String database, int fixedColumnCount, boolean isUpdate,
+            int batchRows, long batchBytes) {
+        if (batchRows < 0 || batchBytes < 0) {
+            throw new IllegalArgumentException("Invalid batch size: " + batchRows + " rows, " + batchBytes + " bytes"); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+        }
+        this.pstmt = pstmt;
+        this.database = database;
+        this.fixedColumnCount = fixedColumnCount;
+        this.isUpdate = isUpdate;
+        this.batchRows = batchRows;
+        this.batchBytes = batchBytes;
+    }
+
+    /**
+     * @param dieOnError true (default) to throw the exception of a failed batch once recorded, false to go on with
+     * the next rows
+     */
+    public void setDieOnError(boolean dieOnError) {
+        this.dieOnError = dieOnError;
+    }
+
+    /**
+     * bind the dynamic columns of the row after the fixed columns, without adding the row to the batch.
+     *
+     * @return the number of parameters bound, as DynamicUtils.writeColumnsToDatabse
+     */
+    public int bind(Dynamic row) throws SQLException {
+        if (plan == null || !plan.matches(row, database, isUpdate)) {
+            plan = DynamicColumnWriterPlan.of(row, database, isUpdate);
+        }
+        rowBytes = plan.bind(row, pstmt, fixedColumnCount);
+        return plan.getParameterCount();
+    }
+
+    /**
+     * add the bound parameters to the batch, and execute it if it is full.
+     */
+    public void addBatch() throws SQLException {
+        pstmt.addBatch();
+        rowCount++;
+        pendingRows++;
+        pendingBytes += rowBytes;
+        rowBytes = 0;
+        if ((batchRows > 0 && pendingRows >= batchRows) || (batchBytes > 0 && pendingBytes >= batchBytes)) {
+            flush();
+        }
+    }
+
+    /**
+     * bind the dynamic columns of the row and add it to the batch.
+     */
+    public void addRow(Dynamic row) throws SQLException {
+        bind(row);
+        addBatch();
+    }
+
+    /**
+     * execute the rows in the batch.
+     *
+     * @return the number of rows updated by the batch
+     */
+    public int flush() throws SQLException {
+        if (pendingRows == 0) {
+            return 0;
+        }
+        int rows = pendingRows;
+        long firstRow = rowCount - rows;
+        pendingRows = 0;
+        pendingBytes = 0;
+        batchCount++;
+        try {
+            int updated = countUpdates(pstmt.executeBatch());
+            updateCount += updated;
+            return updated;
+        } catch (BatchUpdateException e) {
+            int[] counts = e.getUpdateCounts();
+            updateCount += countUpdates(counts);
+            recordFailure(new BatchFailure(firstRow, rows, failedRows(firstRow, rows, counts), e));
+            return 0;
+        } catch (SQLException e) {
+            recordFailure(new BatchFailure(firstRow, rows, failedRows(firstRow, rows, null), e));
+            return 0;
+        }
+    }
+
+    private void recordFailure(BatchFailure failure) throws SQLException {
+        failures.add(failure);
+        try {
+            pstmt.clearBatch();
+        } catch (SQLException e) {
+            // the driver may have cleared it already
+        }
+        if (dieOnError) {
+            throw failure.getException();
+        }
+    }
+
+    private static int countUpdates(int[] counts) {
+        int updated = 0;
+        if (counts != null) {
+            for (int count : counts) {
+                if (count > 0) {
+                    updated += count;
+                } else if (count == Statement.SUCCESS_NO_INFO) {
+                    updated++;
+                }
+            }
+        }
+        return updated;
+    }
+
+    // the drivers which stop at the first error return fewer counts than rows, the extra counts are ignored
+    private static long[] failedRows(long firstRow, int rows, int[] counts) {
+        if (counts == null) {
+            counts = new int[0];
+        }
+        int executed = Math.min(rows, counts.length);
+        int failed = Math.max(0, rows - counts.length);
+        for (int i = 0; i < executed; i++) {
+            if (counts[i] == Statement.EXECUTE_FAILED) {
+                failed++;
+            }
+        }
+        long[] failedRows = new long[failed];
+        int n = 0;
+        for (int i = 0; i < rows; i++) {
+            if (i >= counts.length || counts[i] == Statement.EXECUTE_FAILED) {
+                failedRows[n++] = firstRow + i;
+            }
+        }
+        return failedRows;
+    }
+
+    /**
+     * @return the failed batches, in order
+     */
+    public List<BatchFailure> getFailures() {
+        return Collections.unmodifiableList(failures);
+    }
+
+    /**
+     * @return the number of rows added
+     */
+    public long getRowCount() {
+        return rowCount;
+    }
+
+    /**
+     * @return the number of batches executed
+     */
+    public long getBatchCount() {
+        return batchCount;
+    }
+
+    /**
+     * @return the number of rows updated, a row without update count counts as one
+     */
+    public long getUpdateCount() {
+        return updateCount;
+    }
+
+    /**
+     * execute the last batch, the statement isn't closed.
+     */
+    public void close() throws SQLException {
+        flush();
+    }
+}
@@ -0,0 +1,385 @@
+// ============================================================================
+//
+// Copyright (C) 2006-2019 Talend Inc. - www.talend.com
+//
+// This source code is available under agreement available at
+// %InstallDIR%\features\org.talend.rcp.branding.%PRODUCTNAME%\%PRODUCTNAME%license.txt
+//
+// You should have received a copy of the agreement
+// along with this program; if not, write to Talend SA
+// 9 rue Pages 92150 Suresnes, France
+//
+// ============================================================================
+package routines.system;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.List;
+
+/**
+ * The column readers of a {@link Dynamic} schema, resolved once from the {@link DynamicMetadata} types and the DBMS,
+ * used by the DynamicUtils.readColumnsFromDatabase methods.
+ *
+ * The plan is kept in the Dynamic and compiled again when its metadata or DBMS changes.
+ */
+final class DynamicColumnReaderPlan {
+
+    static final int DEFAULT = 0;
+
+    static final int ACCESS = 1;
+
+    static final int MSSQL = 2;
+
+    /**
+     * read one column of the current row, index starts at 1. list holds the pre-read MSSQL NTEXT values.
+     */
+    enum Extractor {
+
+        STRING {
+
+            Object read(ResultSet rs, int index, boolean trim, List<String> list) throws SQLException {
+                String value = rs.getString(index);
+                return (trim && (value != null)) ? value.trim() : value;
+            }
+        },
+
+        NTEXT {
+
+            Object read(ResultSet rs, int index, boolean trim, List<String> list) throws SQLException {
+                String value = list.get(0);
+                list.remove(0);
+                return (trim && (value != null)) ? value.trim() : value;
+            }
+        },
+
+        DATE_AS_STRING {
+
+            Object read(ResultSet rs, int index, boolean trim, List<String> list) throws SQLException {
+                return rs.getString(index);
+            }
+        },
+
+        TIME {
+
+            Object read(ResultSet rs, int index, boolean trim, List<String> list) throws SQLException {
+                return rs.getTime(index);
+            }
+        },
+
+        TIMESTAMP {
+
+            Object read(ResultSet rs, int index, boolean trim, List<String> list) throws SQLException {
+                return rs.getTimestamp(index);
+            }
+        },
+
+        // one getter then wasNull(), the column is only read once
+        INTEGER {
+
+            Object read(ResultSet rs, int index, boolean trim, List<String> list) throws SQLException {
+                int value = rs.getInt(index);
+                return rs.wasNull() ? null : Integer.valueOf(value);
+            }
+
+            void readInto(Dynamic column, ResultSet rs, int index, boolean trim, List<String> list) throws SQLException {
+                int value = rs.getInt(index);
+                if (rs.wasNull()) {
+                    column.addColumnValue(null);
+                } else {
+                    column.addIntColumnValue(value);
+                }
+            }
+        },
+
+        LONG {
+
+            Object read(ResultSet rs, int index, boolean trim, List<String> list) throws SQLException {
+                long value = rs.getLong(index);
+                return rs.wasNull() ? null : Long.valueOf(value);
+            }
+
+            void readInto(Dynamic column, ResultSet rs, int index, boolean trim, List<String> list) throws SQLException {
+                long value = rs.getLong(index);
+                if (rs.wasNull()) {
+                    column.addColumnValue(null);
+                } else {
+                    column.addLongColumnValue(value);
+                }
+            }
+        },
+
+        DOUBLE {
+
+            Object read(ResultSet rs, int index, boolean trim, List<String> list) throws SQLException {
+                double value = rs.getDouble(index);
+                return rs.wasNull() ? null : Double.valueOf(value);
+            }
+
+            void readInto(Dynamic column, ResultSet rs, int index, boolean trim, List<String> list) throws SQLException {
+                double value = rs.getDouble(index);
+                if (rs.wasNull()) {
+                    column.addColumnValue(null);
+                } else {
+                    column.addDoubleColumnValue(value);
+                }
+            }
+        },
+
+        BYTE {
+
+            Object read(ResultSet rs, int index, boolean trim, List<String> list) throws SQLException {
+                byte value = rs.getByte(index);
+                return rs.wasNull() ? null : Byte.valueOf(value);
+            }
+
+            void readInto(Dynamic column, ResultSet rs, int index, boolean trim, List<String> list) throws SQLException {
+                byte value = rs.getByte(index);
+                if (rs.wasNull()) {
+                    column.addColumnValue(null);
+                } else {
+                    column.addByteColumnValue(value);
+                }
+            }
+        },
+
+        BYTES {
+
+            Object read(ResultSet rs, int index, boolean trim, List<String> list) throws SQLException {
+                byte[] value = rs.getBytes(index);
+                return rs.wasNull() ? null : value;
+            }
+        },
+
+        BOOLEAN {
+
+            Object read(ResultSet rs, int index, boolean trim, List<String> list) throws SQLException {
+                boolean value = rs.getBoolean(index);
+                return rs.wasNull() ? null : Boolean.valueOf(value);
+            }
+
+            void readInto(Dynamic column, ResultSet rs, int index, boolean trim, List<String> list) throws SQLException {
+                boolean value = rs.getBoolean(index);
+                if (rs.wasNull()) {
+                    column.addColumnValue(null);
+                } else {
+                    column.addBooleanColumnValue(value);
+                }
+            }
+        },
+
+        // the access driver returns other types, the value is parsed from its string
+        ACCESS_BYTE {
+
+            Object read(ResultSet rs, int index, boolean trim, List<String> list) throws SQLException {
+                Object obj = rs.getObject(index);
+                return obj == null ? null : Byte.valueOf(Byte.parseByte(obj.toString()));
+            }
+        },
+
+        ACCESS_SHORT {
+
+            Object read(ResultSet rs, int index, boolean trim, List<String> list) throws SQLException {
+                Object obj = rs.getObject(index);
+                return obj == null ? null : Short.valueOf(Short.parseShort(obj.toString()));
+            }
+        },
+
+        ACCESS_INTEGER {
+
+            Object read(ResultSet rs, int index, boolean trim, List<String> list) throws SQLException {
+                Object obj = rs.getObject(index);
+                return obj == null ? null : Integer.valueOf(Integer.parseInt(obj.toString()));
+            }
+        },
+
+        ACCESS_LONG {
+
+            Object read(ResultSet rs, int index, boolean trim, List<String> list) throws SQLException {
+                Object obj = rs.getObject(index);
+                return obj == null ? null : Long.valueOf(Long.parseLong(obj.toString()));
+            }
+        },
+
+        ACCESS_FLOAT {
+
+            Object read(ResultSet rs, int index, boolean trim, List<String> list) throws SQLException {
+                Object obj = rs.getObject(index);
+                return obj == null ? null : Float.valueOf(Float.parseFloat(obj.toString()));
+            }
+        },
+
+        ACCESS_DOUBLE {
+
+            Object read(ResultSet rs, int index, boolean trim, List<String> list) throws SQLException {
+                Object obj = rs.getObject(index);
+                return obj == null ? null : Double.valueOf(Double.parseDouble(obj.toString()));
+            }
+        },
+
+        OBJECT {
+
+            Object read(ResultSet rs, int index, boolean trim, List<String> list) throws SQLException {
+                return rs.getObject(index);
+            }
+        };
+
+        abstract Object read(ResultSet rs, int index, boolean trim, List<String> list) throws SQLException;
+
+        // add the value to the Dynamic, the primitive readers don't box it
+        void readInto(Dynamic column, ResultSet rs, int index, boolean trim, List<String> list) throws SQLException {
+            column.addColumnValue(read(rs, index, trim, list));
+        }
+    }
+
+    private final int mode;
+
+    private final List<DynamicMetadata> metadatas;
+
+    private final String dbmsId;
+
+    // what the plan was compiled from, checked by reference
+    private final DynamicMetadata[] columns;
+
+    private final String[] types;
+
+    private final String[] dbTypes;
+
+    private final Extractor[] extractors;
+
+    private DynamicColumnReaderPlan(Dynamic column, int mode) {
+        this.mode = mode;
+        this.metadatas = column.metadatas;
+        this.dbmsId = column.getDbmsId();
+        int count = column.getColumnCount();
+        this.columns = new DynamicMetadata[count];
+        this.types = new String[count];
+        this.dbTypes = new String[count];
+        this.extractors = new Extractor[count];
+        boolean mssql = DBMSConstants.MSSQL.getDBmsId().equalsIgnoreCase(dbmsId);
+        boolean netezza = DBMSConstants.NETEZZA.getDBmsId().equalsIgnoreCase(dbmsId);
+        for (int i = 0; i < count; i++) {
+            DynamicMetadata dcm = column.getColumnMetadata(i);
+            columns[i] = dcm;
+            types[i] = dcm.getType();
+            dbTypes[i] = dcm.getDbType();
+            switch (mode) {
+            case ACCESS:
+                extractors[i] = accessExtractor(dcm.getType());
+                break;
+            case MSSQL:
+                extractors[i] = mssqlExtractor(dcm, mssql);
+                break;
+            default:
+                extractors[i] = defaultExtractor(dcm, mssql, netezza);
+            }
+        }
+    }
+
+    private static Extractor defaultExtractor(DynamicMetadata dcm, boolean mssql, boolean netezza) {
+        String type = dcm.getType();
+        if ("id_String".equals(type)) {
+            return Extractor.STRING;
+        } else if ("id_Date".equals(type)) {
+            if (mssql && !(dcm.getDbType().toLowerCase().indexOf("timestamp") < 0)) {
+                return Extractor.DATE_AS_STRING;
+            } else if (netezza && "time".equalsIgnoreCase(dcm.getDbType())) {
+                return Extractor.TIME;
+            }
+            return Extractor.TIMESTAMP;
+        } else if ("id_Integer".equals(type)) {
+            return Extractor.INTEGER;
+        } else if ("id_Long".equals(type)) {
+            return Extractor.LONG;
+        } else if ("id_Double".equals(type)) {
+            return Extractor.DOUBLE;
+        } else if ("id_Byte".equals(type)) {
+            return Extractor.BYTE;
+        } else if ("id_byte[]".equals(type)) {
+            return Extractor.BYTES;
+        } else if ("id_Boolean".equals(type)) {
+            return Extractor.BOOLEAN;
+        }
+        return Extractor.OBJECT;
+    }
+
+    private static Extractor accessExtractor(String type) {
+        if ("id_String".equals(type)) {
+            return Extractor.STRING;
+        } else if ("id_Date".equals(type)) {
+            return Extractor.TIMESTAMP;
+        } else if ("id_Byte".equals(type)) {
+            return Extractor.ACCESS_BYTE;
+        } else if ("id_Short".equals(type)) {
+            return Extractor.ACCESS_SHORT;
+        } else if ("id_Integer".equals(type)) {
+            return Extractor.ACCESS_INTEGER;
+        } else if ("id_Long".equals(type)) {
+            return Extractor.ACCESS_LONG;
+        } else if ("id_Float".equals(type)) {
+            return Extractor.ACCESS_FLOAT;
+        } else if ("id_Double".equals(type)) {
+            return Extractor.ACCESS_DOUBLE;
+        }
+        return Extractor.OBJECT;
+    }
+
+    private static Extractor mssqlExtractor(DynamicMetadata dcm, boolean mssql) {
+        String type = dcm.getType();
+        if ("id_String".equals(type)) {
+            if (mssql && "NTEXT".equals(dcm.getDbType().toUpperCase())) {
+                return Extractor.NTEXT;
+            }
+            return Extractor.STRING;
+        } else if ("id_Date".equals(type)) {
+            if (mssql && !(dcm.getDbType().toLowerCase().indexOf("timestamp") < 0)) {
+                return Extractor.DATE_AS_STRING;
+            }
+            return Extractor.TIMESTAMP;
+        } else if ("id_Integer".equals(type)) {
+            return Extractor.INTEGER;
+        } else if ("id_Long".equals(type)) {
+            return Extractor.LONG;
+        } else if ("id_Double".equals(type)) {
+            return Extractor.DOUBLE;
+        }
+        return Extractor.OBJECT;
+    }
+
+    /**
+     * @return the plan kept in the Dynamic if it is still valid, or a new one kept for the next rows
+     */
+    static DynamicColumnReaderPlan of(Dynamic column, int mode) {
+        DynamicColumnReaderPlan plan = column.readerPlan;
+        if (plan == null || !plan.matches(column, mode)) {
+            plan = new DynamicColumnReaderPlan(column, mode);
+            column.readerPlan = plan;
+        }
+        return plan;
+    }
+
+    // only reference checks, the metadata of a Dynamic is rarely changed once the rows are read
+    private boolean matches(Dynamic column, int mode) {
+        if (this.mode != mode || this.metadatas != column.metadatas || this.dbmsId != column.getDbmsId()
+                || columns.length != column.getColumnCount()) {
+            return false;
+        }
+        for (int i = 0; i < columns.length; i++) {
+            DynamicMetadata dcm = column.getColumnMetadata(i);
+            if (dcm != columns[i] || dcm.getType() != types[i] || dcm.getDbType() != dbTypes[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * read the columns of the current row into the Dynamic, the first one is at fixedColumnCount + 1.
+     */
+    void read(Dynamic column, ResultSet rs, int fixedColumnCount, boolean trim, List<String> list)
+            throws SQLException {
+        column.clearColumnValues();
+        for (int i = 0; i < extractors.length; i++) {
+            extractors[i].readInto(column, rs, fixedColumnCount + i + 1, trim, list);
+        }
+    }
+}
@@ -0,0 +1,375 @@
+// ============================================================================
+//
+// Copyright (C) 2006-2019 Talend Inc. - www.talend.com
+//
+// This source code is available under agreement available at
+// %InstallDIR%\features\org.talend.rcp.branding.%PRODUCTNAME%\%PRODUCTNAME%license.txt
+//
+// You should have received a copy of the agreement
+// along with this program; if not, write to Talend SA
+// 9 rue Pages 92150 Suresnes, France
+//
+// ============================================================================
+package routines.system;
+
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Types;
+
+/**
+ * The parameter binders of a {@link Dynamic} schema, resolved once from the {@link DynamicMetadata} types and the
+ * database, used by DynamicUtils.writeColumnsToDatabse and {@link DynamicBatchWriter}.
+ *
+ * A value is bound like DynamicUtils.insertValueIntoPreparedStatement does, null values with the SQL type of the
+ * database. The plan is kept in the Dynamic and compiled again when its metadata changes.
+ */
+final class DynamicColumnWriterPlan {
+
+    // the null binding of id_BigDecimal on some databases
+    private static final int NULL_BIG_DECIMAL = Integer.MIN_VALUE;
+
+    /**
+     * bind one not null value, index starts at 1.
+     *
+     * @return an estimation of the size of the value in bytes
+     */
+    enum Binder {
+
+        INTEGER {
+
+            int bind(PreparedStatement pstmt, int index, Object value) throws SQLException {
+                pstmt.setInt(index, value instanceof Integer ? (Integer) value : Integer.valueOf(value.toString()));
+                return 4;
+            }
+        },
+
+        STRING {
+
+            int bind(PreparedStatement pstmt, int index, Object value) throws SQLException {
+                String string = String.valueOf(value);
+                pstmt.setString(index, string);
+                return string.length() * 2;
+            }
+        },
+
+        DOUBLE {
+
+            int bind(PreparedStatement pstmt, int index, Object value) throws SQLException {
+                pstmt.setDouble(index, value instanceof Double ? (Double) value : Double.valueOf(value.toString()));
+                return 8;
+            }
+        },
+
+        FLOAT {
+
+            int bind(PreparedStatement pstmt, int index, Object value) throws SQLException {
+                pstmt.setFloat(index, value instanceof Float ? (Float) value : Float.valueOf(value.toString()));
+                return 4;
+            }
+        },
+
+        LONG {
+
+            int bind(PreparedStatement pstmt, int index, Object value) throws SQLException {
+                pstmt.setLong(index, value instanceof Long ? (Long) value : Long.valueOf(value.toString()));
+                return 8;
+            }
+        },
+
+        BIG_DECIMAL {
+
+            int bind(PreparedStatement pstmt, int index, Object value) throws SQLException {
+                java.math.BigDecimal decimal = value instanceof java.math.BigDecimal ? (java.math.BigDecimal) value
+                        : new java.math.BigDecimal(value.toString());
+                pstmt.setBigDecimal(index, decimal);
+                return 16;
+            }
+        },
+
+        BOOLEAN {
+
+            int bind(PreparedStatement pstmt, int index, Object value) throws SQLException {
+                pstmt.setBoolean(index, value instanceof Boolean ? (Boolean) value : Boolean.valueOf(value.toString()));
+                return 1;
+            }
+        },
+
+        BYTE {
+
+            int bind(PreparedStatement pstmt, int index, Object value) throws SQLException {
+                pstmt.setByte(index, value instanceof Byte ? (Byte) value : Byte.valueOf(value.toString()));
+                return 1;
+            }
+        },
+
+        SHORT {
+
+            int bind(PreparedStatement pstmt, int index, Object value) throws SQLException {
+                pstmt.setShort(index, value instanceof Short ? (Short) value : Short.valueOf(value.toString()));
+                return 2;
+            }
+        },
+
+        TIMESTAMP {
+
+            int bind(PreparedStatement pstmt, int index, Object value) throws SQLException {
+                if (value instanceof java.sql.Timestamp) {
+                    pstmt.setTimestamp(index, (java.sql.Timestamp) value);
+                } else {
+                    String formatValue = DynamicUtils.formatDate(value, "yyyy-MM-dd HH:mm:ss.SSS");
+                    pstmt.setTimestamp(index, java.sql.Timestamp.valueOf(formatValue));
+                }
+                return 12;
+            }
+        },
+
+        BLOB {
+
+            int bind(PreparedStatement pstmt, int index, Object value) throws SQLException {
+                pstmt.setBlob(index, (java.sql.Blob) value);
+                return 8;
+            }
+        },
+
+        CLOB {
+
+            int bind(PreparedStatement pstmt, int index, Object value) throws SQLException {
+                pstmt.setClob(index, (java.sql.Clob) value);
+                return 8;
+            }
+        },
+
+        CHARACTER_MYSQL {
+
+            int bind(PreparedStatement pstmt, int index, Object value) throws SQLException {
+                String stringValue = ((Character) value) == '\0' ? "" : String.valueOf(value);
+                pstmt.setString(index, stringValue);
+                return 2;
+            }
+        },
+
+        CHARACTER {
+
+            int bind(PreparedStatement pstmt, int index, Object value) throws SQLException {
+                try {
+                    pstmt.setObject(index, value);
+                } catch (java.sql.SQLException e) {
+                    pstmt.setString(index, String.valueOf(value));
+                }
+                return 2;
+            }
+        },
+
+        OBJECT {
+
+            int bind(PreparedStatement pstmt, int index, Object value) throws SQLException {
+                pstmt.setObject(index, value);
+                if (value instanceof byte[]) {
+                    return ((byte[]) value).length;
+                } else if (value instanceof String) {
+                    return ((String) value).length() * 2;
+                }
+                return 8;
+            }
+        };
+
+        abstract int bind(PreparedStatement pstmt, int index, Object value) throws SQLException;
+    }
+
+    private final String database;
+
+    private final boolean isUpdate;
+
+    // what the plan was compiled from, checked by reference
+    private final DynamicMetadata[] columns;
+
+    private final String[] types;
+
+    private final String[] names;
+
+    private final boolean[] keys;
+
+    // for each bound parameter: the index of its value in the Dynamic, its binder and its null SQL type
+    private final int[] valueIndexes;
+
+    private final Binder[] binders;
+
+    private final int[] nullTypes;
+
+    private DynamicColumnWriterPlan(Dynamic column, String database, boolean isUpdate) {
+        this.database = database;
+        this.isUpdate = isUpdate;
+        int count = column.getColumnCount();
+        this.columns = new DynamicMetadata[count];
+        this.types = new String[count];
+        this.names = new String[count];
+        this.keys = new boolean[count];
+        int parameterCount = 0;
+        for (int i = 0; i < count; i++) {
+            DynamicMetadata dcm = column.getColumnMetadata(i);
+            columns[i] = dcm;
+            types[i] = dcm.getType();
+            names[i] = dcm.getName();
+            keys[i] = dcm.isKey();
+            if (!(isUpdate && keys[i])) {
+                parameterCount++;
+            }
+        }
+        this.valueIndexes = new int[parameterCount];
+        this.binders = new Binder[parameterCount];
+        this.nullTypes = new int[parameterCount];
+        int position = 0;
+        for (int i = 0; i < count; i++) {
+            if (isUpdate && keys[i]) {
+                continue;
+            }
+            // the values are read by name, so the first column of a name wins
+            valueIndexes[position] = column.getIndex(names[i]);
+            binders[position] = binder(types[i], database);
+            nullTypes[position] = nullType(types[i], database);
+            position++;
+        }
+    }
+
+    private static Binder binder(String type, String database) {
+        if ("id_Integer".equals(type)) {
+            return Binder.INTEGER;
+        } else if ("id_String".equals(type)) {
+            return Binder.STRING;
+        } else if ("id_Double".equals(type)) {
+            return Binder.DOUBLE;
+        } else if ("id_Float".equals(type)) {
+            return Binder.FLOAT;
+        } else if ("id_Long".equals(type)) {
+            return Binder.LONG;
+        } else if ("id_BigDecimal".equals(type)) {
+            return Binder.BIG_DECIMAL;
+        } else if ("id_Boolean".equals(type)) {
+            return Binder.BOOLEAN;
+        } else if ("id_Byte".equals(type)) {
+            return Binder.BYTE;
+        } else if ("id_Short".equals(type)) {
+            return Binder.SHORT;
+        } else if ("id_Date".equals(type) || "id_Time".equals(type) || "id_Timestamp".equals(type)) {
+            return Binder.TIMESTAMP;
+        } else if ("id_Blob".equals(type)) {
+            return Binder.BLOB;
+        } else if ("id_Clob".equals(type)) {
+            return Binder.CLOB;
+        } else if ("id_Character".equals(type)) {
+            return DBMSConstants.MYSQL.getDBmsId().equalsIgnoreCase(database) ? Binder.CHARACTER_MYSQL : Binder.CHARACTER;
+        }
+        return Binder.OBJECT;
+    }
+
+    private static int nullType(String type, String database) {
+        if (DBMSConstants.SYBASE.getDBmsId().equalsIgnoreCase(database)) {
+            return Types.VARCHAR;
+        } else if (DBMSConstants.MSSQL.getDBmsId().equalsIgnoreCase(database) && "id_byte[]".equals(type)) {
+            return Types.BINARY;
+        } else if (DBMSConstants.TERADATA.getDBmsId().equalsIgnoreCase(database)
+                || DBMSConstants.MSSQL.getDBmsId().equalsIgnoreCase(database)
+                || DBMSConstants.REDSHIFT.getDBmsId().equalsIgnoreCase(database)) {
+            if ("id_String".equals(type)) {
+                return Types.VARCHAR;
+            } else if ("id_Integer".equals(type)) {
+                return Types.INTEGER;
+            } else if ("id_Long".equals(type)) {
+                return Types.BIGINT;
+            } else if ("id_Short".equals(type)) {
+                return Types.SMALLINT;
+            } else if ("id_Byte".equals(type)) {
+                return Types.TINYINT;
+            } else if ("id_Date".equals(type) || "id_Time".equals(type) || "id_Timestamp".equals(type)) {
+                return Types.TIMESTAMP;
+            } else if ("id_Float".equals(type)) {
+                return Types.FLOAT;
+            } else if ("id_Double".equals(type)) {
+                return Types.DOUBLE;
+            } else if ("id_BigDecimal".equals(type)) {
+                return NULL_BIG_DECIMAL;
+            } else if ("id_Boolean".equals(type)) {
+                return Types.BOOLEAN;
+            } else if ("id_Character".equals(type)) {
+                return Types.CHAR;
+            }
+            return Types.NULL;
+        } else if (DBMSConstants.DB2.getDBmsId().equalsIgnoreCase(database)) {
+            if ("id_String".equals(type)) {
+                return Types.VARCHAR;
+            } else if ("id_Long".equals(type) || "id_Integer".equals(type) || "id_Short".equals(type)
+                    || "id_Byte".equals(type)) {
+                return Types.INTEGER;
+            } else if ("id_Date".equals(type)) {
+                return Types.DATE;
+            } else if ("id_Float".equals(type)) {
+                return Types.FLOAT;
+            } else if ("id_Double".equals(type)) {
+                return Types.DOUBLE;
+            } else if ("id_BigDecimal".equals(type)) {
+                return NULL_BIG_DECIMAL;
+            }
+            return Types.NULL;
+        }
+        return Types.NULL;
+    }
+
+    /**
+     * @return the plan kept in the Dynamic if it is still valid, or a new one kept for the next rows
+     */
+    static DynamicColumnWriterPlan of(Dynamic column, String database, boolean isUpdate) {
+        DynamicColumnWriterPlan plan = column.writerPlan;
+        if (plan == null || !plan.matches(column, database, isUpdate)) {
+            plan = new DynamicColumnWriterPlan(column, database, isUpdate);
+            column.writerPlan = plan;
+        }
+        return plan;
+    }
+
+    // the columns are checked by reference, so that the clones of a Dynamic share the plan
+    boolean matches(Dynamic column, String database, boolean isUpdate) {
+        if (this.isUpdate != isUpdate || columns.length != column.getColumnCount()
+                || !(this.database == database || (this.database != null && this.database.equals(database)))) {
+            return false;
+        }
+        for (int i = 0; i < columns.length; i++) {
+            DynamicMetadata dcm = column.getColumnMetadata(i);
+            if (dcm != columns[i] || dcm.getType() != types[i] || dcm.getName() != names[i]
+                    || dcm.isKey() != keys[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return the number of parameters bound for each row
+     */
+    int getParameterCount() {
+        return binders.length;
+    }
+
+    /**
+     * bind the values of the Dynamic, the first one at fixedColumnCount + 1.
+     *
+     * @return an estimation of the size of the values in bytes
+     */
+    long bind(Dynamic column, PreparedStatement pstmt, int fixedColumnCount) throws SQLException {
+        long size = 0;
+        for (int i = 0; i < binders.length; i++) {
+            int index = fixedColumnCount + i + 1;
+            Object value = valueIndexes[i] < 0 ? null : column.getColumnValue(valueIndexes[i]);
+            if (value == null) {
+                if (nullTypes[i] == NULL_BIG_DECIMAL) {
+                    pstmt.setBigDecimal(index, null);
+                } else {
+                    pstmt.setNull(index, nullTypes[i]);
+                }
+                size++;
+            } else {
+                size += binders[i].bind(pstmt, index, value);
+            }
+        }
+        return size;
+    }
+}
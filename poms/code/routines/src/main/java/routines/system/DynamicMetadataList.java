@@ -0,0 +1,136 @@
+// ============================================================================
+//
+// Copyright (C) 2006-2019 Talend Inc. - www.talend.com
+//
+// This source code is available under agreement available at
+// %InstallDIR%\features\org.talend.rcp.branding.%PRODUCTNAME%\%PRODUCTNAME%license.txt
+//
+// You should have received a copy of the agreement
+// along with this program; if not, write to Talend SA
+// 9 rue Pages 92150 Suresnes, France
+//
+// ============================================================================
+package routines.system;
+
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.RandomAccess;
+
+/**
+ * The metadata list of a {@link Dynamic}, which shares its array with the lists of the clones of the Dynamic.
+ *
+ * A shared array is never modified, a list copies it before its first change.
+ */
+final class DynamicMetadataList extends AbstractList<DynamicMetadata> implements RandomAccess, java.io.Serializable {
+
+    private static final long serialVersionUID = -3186305386927143553L;
+
+    private DynamicMetadata[] elements;
+
+    private int size;
+
+    // elements is also used by other lists
+    private boolean shared = false;
+
+    DynamicMetadataList() {
+        this.elements = new DynamicMetadata[10];
+    }
+
+    private DynamicMetadataList(DynamicMetadata[] elements, int size) {
+        this.elements = elements;
+        this.size = size;
+        this.shared = true;
+    }
+
+    /**
+     * @return a list with the same elements, both lists copy the array on change
+     */
+    DynamicMetadataList share() {
+        shared = true;
+        return new DynamicMetadataList(elements, size);
+    }
+
+    /**
+     * @return a list with the elements of the given list, sharing its array if possible
+     */
+    static DynamicMetadataList copyOf(List<DynamicMetadata> metadatas) {
+        if (metadatas instanceof DynamicMetadataList) {
+            return ((DynamicMetadataList) metadatas).share();
+        }
+        DynamicMetadataList copy = new DynamicMetadataList();
+        copy.addAll(metadatas);
+        return copy;
+    }
+
+    private void beforeChange(int minCapacity) {
+        modCount++;
+        if (shared || minCapacity > elements.length) {
+            int capacity = Math.max(minCapacity, elements.length);
+            if (minCapacity > elements.length) {
+                capacity = Math.max(minCapacity, elements.length + (elements.length >> 1) + 1);
+            }
+            elements = Arrays.copyOf(elements, capacity);
+            shared = false;
+        }
+    }
+
+    private void checkIndex(int index) {
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size); //$NON-NLS-1$ //$NON-NLS-2$
+        }
+    }
+
+    @Override
+    public DynamicMetadata get(int index) {
+        checkIndex(index);
+        return elements[index];
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public DynamicMetadata set(int index, DynamicMetadata element) {
+        checkIndex(index);
+        beforeChange(size);
+        DynamicMetadata old = elements[index];
+        elements[index] = element;
+        return old;
+    }
+
+    @Override
+    public void add(int index, DynamicMetadata element) {
+        if (index < 0 || index > size) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size); //$NON-NLS-1$ //$NON-NLS-2$
+        }
+        beforeChange(size + 1);
+        System.arraycopy(elements, index, elements, index + 1, size - index);
+        elements[index] = element;
+        size++;
+    }
+
+    @Override
+    public DynamicMetadata remove(int index) {
+        checkIndex(index);
+        beforeChange(size);
+        DynamicMetadata old = elements[index];
+        System.arraycopy(elements, index + 1, elements, index, size - index - 1);
+        elements[--size] = null;
+        return old;
+    }
+
+    @Override
+    public void clear() {
+        modCount++;
+        if (shared) {
+            elements = new DynamicMetadata[10];
+            shared = false;
+        } else {
+            Arrays.fill(elements, 0, size, null);
+        }
+        size = 0;
+    }
+}
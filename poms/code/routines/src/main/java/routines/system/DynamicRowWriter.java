@@ -0,0 +1,210 @@
+// ============================================================================
+//
+// Copyright (C) 2006-2019 Talend Inc. - www.talend.com
+//
+// This source code is available under agreement available at
+// %InstallDIR%\features\org.talend.rcp.branding.%PRODUCTNAME%\%PRODUCTNAME%license.txt
+//
+// You should have received a copy of the agreement
+// along with this program; if not, write to Talend SA
+// 9 rue Pages 92150 Suresnes, France
+//
+// ============================================================================
+package routines.system;
+
+import java.io.Closeable;
+import java.io.Flushable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+
+/**
+ * Writes the values or the header of {@link Dynamic} rows to a stream, like Dynamic.writeValuesToStream and
+ * Dynamic.writeHeaderToStream, with an explicit encoding.
+ *
+ * The text is encoded into a reused buffer, which is only written to the stream when it is full, on flush() and on
+ * close(). The delimiter is encoded once. The characters which can't be encoded are replaced, as String.getBytes()
+ * does. With UTF-16 the byte order mark is only written at the start of the stream, the text is big endian.
+ *
+ * Not thread safe.
+ */
+public class DynamicRowWriter implements Closeable, Flushable {
+
+    private static final int DEFAULT_BUFFER_SIZE = 65536;
+
+    private final OutputStream out;
+
+    private final CharsetEncoder encoder;
+
+    // the chars below 0x80 are encoded as one byte of the same value
+    private final boolean asciiCompatible;
+
+    private final byte[] delimiter;
+
+    private final ByteBuffer buffer;
+
+    // UTF-16 byte order mark not written yet
+    private boolean writeByteOrderMark;
+
+    /**
+     * @param encoding the encoding of the text, null for the platform encoding
+     */
+    public DynamicRowWriter(OutputStream out, String encoding, String delimiter) {
+        this(out, encoding, delimiter, DEFAULT_BUFFER_SIZE);
+    }
+
+    public DynamicRowWriter(OutputStream out, String encoding, String delimiter, int bufferSize) {
+        if (bufferSize < 16) {
+            throw new IllegalArgumentException("Buffer size too small: " + bufferSize); //$NON-NLS-1$
+        }
+        Charset charset = encoding == null ? Charset.defaultCharset() : Charset.forName(encoding);
+        // the UTF-16 encoder writes a byte order mark each time
+        if ("UTF-16".equals(charset.name())) { //$NON-NLS-1$
+            charset = Charset.forName("UTF-16BE"); //$NON-NLS-1$
+            this.writeByteOrderMark = true;
+        }
+        this.out = out;
+        this.encoder = charset.newEncoder().onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE);
+        this.asciiCompatible = isAsciiCompatible(charset);
+        this.delimiter = delimiter.getBytes(charset);
+        this.buffer = ByteBuffer.allocate(bufferSize);
+    }
+
+    private static boolean isAsciiCompatible(Charset charset) {
+        char[] ascii = new char[128];
+        for (int i = 0; i < ascii.length; i++) {
+            ascii[i] = (char) i;
+        }
+        byte[] bytes = new String(ascii).getBytes(charset);
+        if (bytes.length != ascii.length) {
+            return false;
+        }
+        for (int i = 0; i < bytes.length; i++) {
+            if (bytes[i] != i) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * write the values of the row separated by the delimiter, without row separator.
+     */
+    public void writeValues(Dynamic column) throws IOException {
+        int count = column.getColumnCount();
+        for (int i = 0; i < count; i++) {
+            write(String.valueOf(column.getColumnValue(i)));
+            if (i != (count - 1)) {
+                writeDelimiter();
+            }
+        }
+    }
+
+    /**
+     * write the column names separated by the delimiter, without row separator.
+     */
+    public void writeHeader(Dynamic column) throws IOException {
+        int count = column.getColumnCount();
+        for (int i = 0; i < count; i++) {
+            write(String.valueOf(column.getColumnMetadata(i).getName()));
+            if (i != (count - 1)) {
+                writeDelimiter();
+            }
+        }
+    }
+
+    public void writeDelimiter() throws IOException {
+        write(delimiter, 0, delimiter.length);
+    }
+
+    /**
+     * write text as is, such as a row separator.
+     */
+    public void write(String text) throws IOException {
+        startText();
+        int length = text.length();
+        int i = 0;
+        if (asciiCompatible) {
+            byte[] array = buffer.array();
+            while (i < length) {
+                char c = text.charAt(i);
+                if (c >= 0x80) {
+                    break;
+                }
+                if (!buffer.hasRemaining()) {
+                    drain();
+                }
+                array[buffer.position()] = (byte) c;
+                buffer.position(buffer.position() + 1);
+                i++;
+            }
+        }
+        if (i < length) {
+            encode(CharBuffer.wrap(text, i, length));
+        }
+    }
+
+    private void startText() {
+        if (writeByteOrderMark) {
+            writeByteOrderMark = false;
+            // nothing written yet, the buffer is empty
+            buffer.put((byte) 0xFE).put((byte) 0xFF);
+        }
+    }
+
+    private void encode(CharBuffer chars) throws IOException {
+        encoder.reset();
+        CoderResult result;
+        do {
+            result = encoder.encode(chars, buffer, true);
+            if (result.isOverflow()) {
+                drain();
+            }
+        } while (result.isOverflow());
+        do {
+            result = encoder.flush(buffer);
+            if (result.isOverflow()) {
+                drain();
+            }
+        } while (result.isOverflow());
+    }
+
+    public void write(byte[] bytes, int offset, int length) throws IOException {
+        startText();
+        if (length > buffer.remaining()) {
+            drain();
+            if (length > buffer.capacity()) {
+                out.write(bytes, offset, length);
+                return;
+            }
+        }
+        buffer.put(bytes, offset, length);
+    }
+
+    // write the buffer to the stream, without flushing it
+    private void drain() throws IOException {
+        if (buffer.position() > 0) {
+            out.write(buffer.array(), 0, buffer.position());
+            buffer.clear();
+        }
+    }
+
+    public void flush() throws IOException {
+        drain();
+        out.flush();
+    }
+
+    public void close() throws IOException {
+        try {
+            drain();
+        } finally {
+            out.close();
+        }
+    }
+}
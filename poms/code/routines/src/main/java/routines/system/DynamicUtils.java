@@ -149,127 +149,17 @@ public class DynamicUtils {
     }
 
     public static void readColumnsFromDatabase(Dynamic column, java.sql.ResultSet rs, int fixedColumnCount, boolean trim) throws Exception {
-        column.clearColumnValues();
-        for (int i = 0; i < column.getColumnCount(); i++) {
-            DynamicMetadata dcm = column.getColumnMetadata(i);
-
-            if ("id_String".equals(dcm.getType())) {
-                String value = rs.getString(fixedColumnCount + i + 1);
-                column.addColumnValue((trim && (value!=null)) ? value.trim() : value);
-            } else if ("id_Date".equals(dcm.getType())) {
-                if (DBMSConstants.MSSQL.getDBmsId().equalsIgnoreCase(column.getDbmsId())
-                        && !(dcm.getDbType().toLowerCase().indexOf("timestamp") < 0)) {
-                    column.addColumnValue(rs.getString(fixedColumnCount + i + 1));
-                } else if (DBMSConstants.NETEZZA.getDBmsId().equalsIgnoreCase(column.getDbmsId())
-                        && "time".equalsIgnoreCase(dcm.getDbType())) {
-                    column.addColumnValue(rs.getTime(fixedColumnCount + i + 1));
-                } else {
-                    column.addColumnValue(rs.getTimestamp(fixedColumnCount + i + 1));
-                }
-            } else if ("id_Integer".equals(dcm.getType()) || "id_Long".equals(dcm.getType()) || "id_Double".equals(dcm.getType())
-                    || "id_Byte".equals(dcm.getType()) || "id_byte[]".equals(dcm.getType())) {
-                if (rs.getObject(fixedColumnCount + i + 1) == null) {
-                    column.addColumnValue(null);
-                    continue;
-                }
-                if ("id_Integer".equals(dcm.getType())) {
-                    column.addColumnValue(rs.getInt(fixedColumnCount + i + 1));
-                } else if ("id_Long".equals(dcm.getType())) {
-                    column.addColumnValue(rs.getLong(fixedColumnCount + i + 1));
-                } else if ("id_Double".equals(dcm.getType())) {
-                    column.addColumnValue(rs.getDouble(fixedColumnCount + i + 1));
-                } else if ("id_Byte".equals(dcm.getType())) {
-                    column.addColumnValue(rs.getByte(fixedColumnCount + i + 1));
-                } else if ("id_byte[]".equals(dcm.getType())) {
-                    column.addColumnValue(rs.getBytes(fixedColumnCount + i + 1));
-                }
-            }else  if ("id_Boolean".equals(dcm.getType())) {
-                if (rs.getObject(fixedColumnCount + i + 1) == null) {
-                    column.addColumnValue(null);
-                }else{
-                    column.addColumnValue(rs.getBoolean(fixedColumnCount + i + 1));
-                }
-            } else {
-                column.addColumnValue(rs.getObject(fixedColumnCount + i + 1));
-            }
-        }
+        DynamicColumnReaderPlan.of(column, DynamicColumnReaderPlan.DEFAULT).read(column, rs, fixedColumnCount, trim, null);
     }
 
     public static void readColumnsFromDatabase_Access(Dynamic column, java.sql.ResultSet rs, int fixedColumnCount, boolean trim)
             throws Exception {
-        column.clearColumnValues();
-        for (int i = 0; i < column.getColumnCount(); i++) {
-            DynamicMetadata dcm = column.getColumnMetadata(i);
-            if ("id_String".equals(dcm.getType())) {
-                String value = rs.getString(fixedColumnCount + i + 1);
-                column.addColumnValue((trim && (value!=null)) ? value.trim() : value);
-            } else if ("id_Date".equals(dcm.getType())) {
-                column.addColumnValue(rs.getTimestamp(fixedColumnCount + i + 1));
-            } else if ("id_Byte".equals(dcm.getType()) || "id_Short".equals(dcm.getType()) || "id_Integer".equals(dcm.getType())
-                    || "id_Long".equals(dcm.getType()) || "id_Float".equals(dcm.getType()) || "id_Double".equals(dcm.getType())) {
-                Object obj = rs.getObject(fixedColumnCount + i + 1);
-                if (obj == null) {
-                    column.addColumnValue(null);
-                    continue;
-                }
-                if ("id_Byte".equals(dcm.getType())) {
-                    column.addColumnValue(Byte.parseByte(obj.toString()));
-                } else if ("id_Short".equals(dcm.getType())) {
-                    column.addColumnValue(Short.parseShort(obj.toString()));
-                } else if ("id_Integer".equals(dcm.getType())) {
-                    column.addColumnValue(Integer.parseInt(obj.toString()));
-                } else if ("id_Long".equals(dcm.getType())) {
-                    column.addColumnValue(Long.parseLong(obj.toString()));
-                } else if ("id_Float".equals(dcm.getType())) {
-                    column.addColumnValue(Float.parseFloat(obj.toString()));
-                } else if ("id_Double".equals(dcm.getType())) {
-                    column.addColumnValue(Double.parseDouble(obj.toString()));
-                }
-            } else {
-                column.addColumnValue(rs.getObject(fixedColumnCount + i + 1));
-            }
-        }
+        DynamicColumnReaderPlan.of(column, DynamicColumnReaderPlan.ACCESS).read(column, rs, fixedColumnCount, trim, null);
     }
 
     public static void readColumnsFromDatabase_Mssql(Dynamic column, java.sql.ResultSet rs, int fixedColumnCount,
             java.util.List<String> list, boolean trim) throws Exception {
-        column.clearColumnValues();
-        for (int i = 0; i < column.getColumnCount(); i++) {
-            DynamicMetadata dcm = column.getColumnMetadata(i);
-
-            if ("id_String".equals(dcm.getType())) {
-                if (DBMSConstants.MSSQL.getDBmsId().equalsIgnoreCase(column.getDbmsId())
-                        && "NTEXT".equals(dcm.getDbType().toUpperCase())) {
-                    String value = list.get(0);
-                    column.addColumnValue((trim && (value!=null)) ? value.trim() : value);
-                    list.remove(0);
-                } else {
-                    String value = rs.getString(fixedColumnCount + i + 1);
-                    column.addColumnValue((trim && (value!=null)) ? value.trim() : value);
-                }
-            } else if ("id_Date".equals(dcm.getType())) {
-                if (DBMSConstants.MSSQL.getDBmsId().equalsIgnoreCase(column.getDbmsId())
-                        && !(dcm.getDbType().toLowerCase().indexOf("timestamp") < 0)) {
-                    column.addColumnValue(rs.getString(fixedColumnCount + i + 1));
-                } else {
-                    column.addColumnValue(rs.getTimestamp(fixedColumnCount + i + 1));
-                }
-            } else if ("id_Integer".equals(dcm.getType()) || "id_Long".equals(dcm.getType()) || "id_Double".equals(dcm.getType())) {
-                if (rs.getObject(fixedColumnCount + i + 1) == null) {
-                    column.addColumnValue(null);
-                    continue;
-                }
-                if ("id_Integer".equals(dcm.getType())) {
-                    column.addColumnValue(rs.getInt(fixedColumnCount + i + 1));
-                } else if ("id_Long".equals(dcm.getType())) {
-                    column.addColumnValue(rs.getLong(fixedColumnCount + i + 1));
-                } else if ("id_Double".equals(dcm.getType())) {
-                    column.addColumnValue(rs.getDouble(fixedColumnCount + i + 1));
-                }
-            } else {
-                column.addColumnValue(rs.getObject(fixedColumnCount + i + 1));
-            }
-        }
+        DynamicColumnReaderPlan.of(column, DynamicColumnReaderPlan.MSSQL).read(column, rs, fixedColumnCount, trim, list);
     }
 
     public static int writeColumnsToDatabse(Dynamic column, java.sql.PreparedStatement pstmt, int fixedColumnCount,
@@ -279,15 +169,9 @@ public class DynamicUtils {
 
     public static int writeColumnsToDatabse(Dynamic column, java.sql.PreparedStatement pstmt, int fixedColumnCount,
             String database, boolean isUpdate) throws Exception {
-        int position = 0;
-        for (DynamicMetadata dynamicMetadata : column.metadatas) {
-            if (isUpdate && dynamicMetadata.isKey()) {
-                continue;
-            }
-            position++;
-            insertValueIntoPreparedStatement(dynamicMetadata.getType(), pstmt, fixedColumnCount + position, database, column.getColumnValue(dynamicMetadata.getName()));
-        }
-        return position;
+        DynamicColumnWriterPlan plan = DynamicColumnWriterPlan.of(column, database, isUpdate);
+        plan.bind(column, pstmt, fixedColumnCount);
+        return plan.getParameterCount();
     }
 
     private static void insertValueIntoPreparedStatement(String type, PreparedStatement pstmt, int index,
@@ -0,0 +1,348 @@
+// ============================================================================
+//
+// Copyright (C) 2006-2019 Talend Inc. - www.talend.com
+//
+// This source code is available under agreement available at
+// %InstallDIR%\features\org.talend.rcp.branding.%PRODUCTNAME%\%PRODUCTNAME%license.txt
+//
+// You should have received a copy of the agreement
+// along with this program; if not, write to Talend SA
+// 9 rue Pages 92150 Suresnes, France
+//
+// ============================================================================
+package routines.system;
+
+import java.util.Arrays;
+
+/**
+ * The values of a {@link Dynamic}, one slot per column.
+ *
+ * A slot holds either an object or a primitive value in its bits, with its kind, and the null values are in a bitmap.
+ * The primitive values are only boxed when they are read as objects. The arrays are shared with the clones and copied
+ * before the first change.
+ */
+final class DynamicValues implements java.io.Serializable {
+
+    private static final long serialVersionUID = -5528361957294640437L;
+
+    static final byte OBJECT = 0;
+
+    static final byte INT = 1;
+
+    static final byte LONG = 2;
+
+    static final byte DOUBLE = 3;
+
+    static final byte FLOAT = 4;
+
+    static final byte BOOLEAN = 5;
+
+    static final byte BYTE = 6;
+
+    static final byte SHORT = 7;
+
+    private int size = 0;
+
+    private byte[] kinds;
+
+    // one bit per slot, set for null
+    private long[] nulls;
+
+    // allocated with the first primitive value
+    private long[] bits;
+
+    // allocated with the first object value
+    private Object[] refs;
+
+    // the arrays are also used by other values
+    private boolean shared = false;
+
+    DynamicValues(int capacity) {
+        this.kinds = new byte[Math.max(capacity, 1)];
+        this.nulls = new long[(kinds.length + 63) >>> 6];
+    }
+
+    private DynamicValues(DynamicValues values) {
+        this.size = values.size;
+        this.kinds = values.kinds;
+        this.nulls = values.nulls;
+        this.bits = values.bits;
+        this.refs = values.refs;
+        this.shared = true;
+    }
+
+    /**
+     * @return values with the same slots, both copy the arrays on change
+     */
+    DynamicValues share() {
+        shared = true;
+        return new DynamicValues(this);
+    }
+
+    int size() {
+        return size;
+    }
+
+    private void checkIndex(int index) {
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size); //$NON-NLS-1$ //$NON-NLS-2$
+        }
+    }
+
+    boolean isNull(int index) {
+        checkIndex(index);
+        return (nulls[index >>> 6] & (1L << index)) != 0;
+    }
+
+    byte getKind(int index) {
+        checkIndex(index);
+        return kinds[index];
+    }
+
+    Object get(int index) {
+        if (isNull(index)) {
+            return null;
+        }
+        switch (kinds[index]) {
+        case INT:
+            return Integer.valueOf((int) bits[index]);
+        case LONG:
+            return Long.valueOf(bits[index]);
+        case DOUBLE:
+            return Double.valueOf(Double.longBitsToDouble(bits[index]));
+        case FLOAT:
+            return Float.valueOf(Float.intBitsToFloat((int) bits[index]));
+        case BOOLEAN:
+            return Boolean.valueOf(bits[index] != 0);
+        case BYTE:
+            return Byte.valueOf((byte) bits[index]);
+        case SHORT:
+            return Short.valueOf((short) bits[index]);
+        default:
+            return refs[index];
+        }
+    }
+
+    /**
+     * @return the bits of a primitive slot
+     */
+    long getBits(int index) {
+        checkIndex(index);
+        return bits == null ? 0 : bits[index];
+    }
+
+    // copy the shared arrays and grow them to hold capacity slots
+    private void beforeChange(int capacity) {
+        if (shared || capacity > kinds.length) {
+            int length = kinds.length;
+            if (capacity > length) {
+                length = Math.max(capacity, length + (length >> 1) + 1);
+            }
+            kinds = Arrays.copyOf(kinds, length);
+            nulls = Arrays.copyOf(nulls, (length + 63) >>> 6);
+            if (bits != null) {
+                bits = Arrays.copyOf(bits, length);
+            }
+            if (refs != null) {
+                refs = Arrays.copyOf(refs, length);
+            }
+            shared = false;
+        }
+    }
+
+    private void setNullBit(int index, boolean isNull) {
+        if (isNull) {
+            nulls[index >>> 6] |= 1L << index;
+        } else {
+            nulls[index >>> 6] &= ~(1L << index);
+        }
+    }
+
+    private void store(int index, Object value) {
+        kinds[index] = OBJECT;
+        if (value == null) {
+            setNullBit(index, true);
+            if (refs != null) {
+                refs[index] = null;
+            }
+        } else {
+            setNullBit(index, false);
+            if (refs == null) {
+                refs = new Object[kinds.length];
+            }
+            refs[index] = value;
+        }
+    }
+
+    private void store(int index, byte kind, long value) {
+        kinds[index] = kind;
+        setNullBit(index, false);
+        if (bits == null) {
+            bits = new long[kinds.length];
+        }
+        bits[index] = value;
+        if (refs != null) {
+            refs[index] = null;
+        }
+    }
+
+    void add(Object value) {
+        beforeChange(size + 1);
+        store(size++, value);
+    }
+
+    void add(byte kind, long value) {
+        beforeChange(size + 1);
+        store(size++, kind, value);
+    }
+
+    void set(int index, Object value) {
+        checkIndex(index);
+        beforeChange(size);
+        store(index, value);
+    }
+
+    void set(int index, byte kind, long value) {
+        checkIndex(index);
+        beforeChange(size);
+        store(index, kind, value);
+    }
+
+    /**
+     * insert a slot at index, the next slots are shifted.
+     */
+    void insert(int index, Object value) {
+        if (index < 0 || index > size) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size); //$NON-NLS-1$ //$NON-NLS-2$
+        }
+        beforeChange(size + 1);
+        move(index, index + 1, size - index);
+        size++;
+        store(index, value);
+    }
+
+    void remove(int index) {
+        checkIndex(index);
+        beforeChange(size);
+        move(index + 1, index, size - index - 1);
+        size--;
+        store(size, null);
+        setNullBit(size, false);
+    }
+
+    private void move(int from, int to, int length) {
+        System.arraycopy(kinds, from, kinds, to, length);
+        if (bits != null) {
+            System.arraycopy(bits, from, bits, to, length);
+        }
+        if (refs != null) {
+            System.arraycopy(refs, from, refs, to, length);
+        }
+        if (from < to) {
+            for (int i = length - 1; i >= 0; i--) {
+                setNullBit(to + i, (nulls[(from + i) >>> 6] & (1L << (from + i))) != 0);
+            }
+        } else {
+            for (int i = 0; i < length; i++) {
+                setNullBit(to + i, (nulls[(from + i) >>> 6] & (1L << (from + i))) != 0);
+            }
+        }
+    }
+
+    void clear() {
+        if (shared) {
+            kinds = new byte[kinds.length];
+            nulls = new long[nulls.length];
+            bits = null;
+            refs = null;
+            shared = false;
+        } else {
+            Arrays.fill(nulls, 0L);
+            if (refs != null) {
+                // don't keep the values alive
+                Arrays.fill(refs, 0, size, null);
+            }
+        }
+        size = 0;
+    }
+
+    private int hashCode(int index) {
+        if (isNull(index)) {
+            return 0;
+        }
+        long value = bits == null ? 0 : bits[index];
+        switch (kinds[index]) {
+        case INT:
+        case BYTE:
+        case SHORT:
+            return (int) value;
+        case LONG:
+            return Long.hashCode(value);
+        case DOUBLE:
+            return Double.hashCode(Double.longBitsToDouble(value));
+        case FLOAT:
+            return Float.hashCode(Float.intBitsToFloat((int) value));
+        case BOOLEAN:
+            return Boolean.hashCode(value != 0);
+        default:
+            return refs[index].hashCode();
+        }
+    }
+
+    /**
+     * the same hash code as a list of the values.
+     */
+    @Override
+    public int hashCode() {
+        int hashCode = 1;
+        for (int i = 0; i < size; i++) {
+            hashCode = 31 * hashCode + hashCode(i);
+        }
+        return hashCode;
+    }
+
+    /**
+     * equal like two lists of the values.
+     */
+    @Override
+    public boolean equals(Object obj) {
+        if (obj == this) {
+            return true;
+        }
+        if (!(obj instanceof DynamicValues)) {
+            return false;
+        }
+        DynamicValues other = (DynamicValues) obj;
+        if (size != other.size) {
+            return false;
+        }
+        for (int i = 0; i < size; i++) {
+            boolean isNull = isNull(i);
+            if (isNull != other.isNull(i)) {
+                return false;
+            }
+            if (isNull) {
+                continue;
+            }
+            byte kind = kinds[i];
+            if (kind != OBJECT && kind == other.kinds[i]) {
+                long value = bits[i];
+                long otherValue = other.bits[i];
+                // like Double.equals and Float.equals, which compare the canonical NaN
+                if (kind == DOUBLE) {
+                    value = Double.doubleToLongBits(Double.longBitsToDouble(value));
+                    otherValue = Double.doubleToLongBits(Double.longBitsToDouble(otherValue));
+                } else if (kind == FLOAT) {
+                    value = Float.floatToIntBits(Float.intBitsToFloat((int) value));
+                    otherValue = Float.floatToIntBits(Float.intBitsToFloat((int) otherValue));
+                }
+                if (value != otherValue) {
+                    return false;
+                }
+            } else if (!get(i).equals(other.get(i))) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,371 @@
+// ============================================================================
+//
+// Copyright (C) 2006-2019 Talend Inc. - www.talend.com
+//
+// This source code is available under agreement available at
+// %InstallDIR%\features\org.talend.rcp.branding.%PRODUCTNAME%\%PRODUCTNAME%license.txt
+//
+// You should have received a copy of the agreement
+// along with this program; if not, write to Talend SA
+// 9 rue Pages 92150 Suresnes, France
+//
+// ============================================================================
+package routines.system;
+
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Like {@link BufferedOutput}, but the chars are encoded directly into a byte buffer written to the file in one call,
+ * without OutputStreamWriter.
+ *
+ * As with BufferedOutput, a String which fits in the buffer is never split between two writes to the file. With
+ * asyncFlush, a full buffer is written by a background thread while the next one is filled, so the writing thread only
+ * waits for the disk when both buffers are full. An error of the background write is thrown by the next call.
+ *
+ * The buffers are written to the stream, not to its FileChannel: a FileChannel is closed when a thread writing to it
+ * is interrupted, as the threads of a job stopped by ParallelThreadPool or TalendThreadPool are, and the output would
+ * be lost.
+ */
+public class EncodingBufferedOutput extends Writer {
+
+    private static final int DEFAULT_BUFFER_SIZE = 1 << 20;
+
+    private static final AtomicInteger nextThreadID = new AtomicInteger();
+
+    // shared by all the outputs, a thread only lives while there are writes to do
+    private static final ExecutorService writerExecutor = new ThreadPoolExecutor(0, Integer.MAX_VALUE, 60L,
+            TimeUnit.SECONDS, new SynchronousQueue<Runnable>(), new ThreadFactory() {
+
+                public Thread newThread(Runnable r) {
+                    Thread thread = new Thread(r, "EncodingBufferedOutput-writer-" + nextThreadID.getAndIncrement()); //$NON-NLS-1$
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+
+    private OutputStream out;
+
+    private final CharsetEncoder encoder;
+
+    // the chars below 0x80 are one byte of the same value, whatever the encoder state
+    private final boolean asciiFastPath;
+
+    private final boolean asyncFlush;
+
+    private final String lineSeparator;
+
+    // the buffer being filled, and the one being written in async mode
+    private ByteBuffer current;
+
+    private ByteBuffer spare;
+
+    private Future<?> pendingWrite;
+
+    // a high surrogate waiting for the next char
+    private boolean haveLeftoverChar = false;
+
+    private char leftoverChar;
+
+    private final char[] charChunk = new char[8192];
+
+    private final byte[] byteChunk = new byte[8192];
+
+    public EncodingBufferedOutput(String fileName, boolean append, String encoding) throws IOException {
+        this(fileName, append, encoding, DEFAULT_BUFFER_SIZE, false);
+    }
+
+    /**
+     * @param encoding null for the platform encoding
+     * @param bufferSize the size of each buffer in bytes
+     * @param asyncFlush true to write the full buffers from a background thread
+     */
+    public EncodingBufferedOutput(String fileName, boolean append, String encoding, int bufferSize, boolean asyncFlush)
+            throws IOException {
+        this(new FileOutputStream(fileName, append), encoding, bufferSize, asyncFlush);
+    }
+
+    /**
+     * @param out closed with this output
+     */
+    public EncodingBufferedOutput(OutputStream out, String encoding, int bufferSize, boolean asyncFlush) {
+        super();
+        if (bufferSize < 16) {
+            throw new IllegalArgumentException("Buffer size < 16"); //$NON-NLS-1$
+        }
+        Charset charset = encoding == null ? Charset.defaultCharset() : Charset.forName(encoding);
+        this.out = out;
+        this.encoder = charset.newEncoder().onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE);
+        String name = charset.name();
+        this.asciiFastPath = "UTF-8".equals(name) || "US-ASCII".equals(name) || "ISO-8859-1".equals(name) //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+                || "windows-1252".equals(name); //$NON-NLS-1$
+        this.asyncFlush = asyncFlush;
+        this.current = ByteBuffer.allocate(bufferSize);
+        this.spare = asyncFlush ? ByteBuffer.allocate(bufferSize) : null;
+        this.lineSeparator = System.getProperty("line.separator"); //$NON-NLS-1$
+    }
+
+    private void ensureOpen() throws IOException {
+        if (out == null)
+            throw new IOException("Stream closed"); //$NON-NLS-1$
+    }
+
+    /**
+     * write the buffer being filled, from a background thread in async mode.
+     */
+    private void flushBuffer() throws IOException {
+        if (current.position() == 0) {
+            return;
+        }
+        if (!asyncFlush) {
+            writeFully(out, current);
+            return;
+        }
+        waitForPendingWrite();
+        final ByteBuffer full = current;
+        final OutputStream target = out;
+        current = spare;
+        spare = full;
+        pendingWrite = writerExecutor.submit(new java.util.concurrent.Callable<Void>() {
+
+            public Void call() throws IOException {
+                writeFully(target, full);
+                return null;
+            }
+        });
+    }
+
+    private static void writeFully(OutputStream out, ByteBuffer buffer) throws IOException {
+        buffer.flip();
+        try {
+            out.write(buffer.array(), buffer.arrayOffset(), buffer.limit());
+        } finally {
+            buffer.clear();
+        }
+    }
+
+    private void waitForPendingWrite() throws IOException {
+        if (pendingWrite == null) {
+            return;
+        }
+        // an interrupt doesn't stop the wait, the buffer being written would be lost
+        boolean interrupted = false;
+        try {
+            while (true) {
+                try {
+                    pendingWrite.get();
+                    return;
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            throw new IOException(cause);
+        } finally {
+            pendingWrite = null;
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    private void encode(CharBuffer chars) throws IOException {
+        while (true) {
+            CoderResult result = encoder.encode(chars, current, false);
+            if (result.isOverflow()) {
+                flushBuffer();
+                continue;
+            }
+            // a high surrogate at the end is kept for the next write
+            if (chars.hasRemaining()) {
+                leftoverChar = chars.get();
+                haveLeftoverChar = true;
+            }
+            return;
+        }
+    }
+
+    // encode the leftover high surrogate with the next char
+    private void encodeLeftover(char next) throws IOException {
+        haveLeftoverChar = false;
+        encode(CharBuffer.wrap(new char[] { leftoverChar, next }));
+    }
+
+    /**
+     * Write a single character.
+     *
+     * @exception IOException If an I/O error occurs
+     */
+    public void write(int c) throws IOException {
+        synchronized (lock) {
+            ensureOpen();
+            if (haveLeftoverChar) {
+                encodeLeftover((char) c);
+            } else if (asciiFastPath && c >= 0 && c < 0x80) {
+                if (!current.hasRemaining()) {
+                    flushBuffer();
+                }
+                current.put((byte) c);
+            } else {
+                encode(CharBuffer.wrap(new char[] { (char) c }));
+            }
+        }
+    }
+
+    /**
+     * Write a portion of an array of characters.
+     *
+     * @exception IOException If an I/O error occurs
+     */
+    public void write(char cbuf[], int off, int len) throws IOException {
+        synchronized (lock) {
+            ensureOpen();
+            if ((off < 0) || (off > cbuf.length) || (len < 0) || ((off + len) > cbuf.length) || ((off + len) < 0)) {
+                throw new IndexOutOfBoundsException();
+            } else if (len == 0) {
+                return;
+            }
+            startChars(len);
+            writeChars(cbuf, off, off + len);
+        }
+    }
+
+    /**
+     * Write a portion of a String, which isn't split if it fits in the buffer.
+     *
+     * @exception IOException If an I/O error occurs
+     */
+    public void write(String s, int off, int len) throws IOException {
+        synchronized (lock) {
+            ensureOpen();
+            if (len <= 0) {
+                return;
+            }
+            startChars(len);
+            // copied by chunks, String.getChars is faster than reading the chars one by one
+            while (len > 0) {
+                int n = Math.min(len, charChunk.length);
+                s.getChars(off, off + n, charChunk, 0);
+                writeChars(charChunk, 0, n);
+                off += n;
+                len -= n;
+            }
+        }
+    }
+
+    // start a new buffer if len chars may not fit in this one
+    private void startChars(int len) throws IOException {
+        long maxBytes = (long) Math.ceil(encoder.maxBytesPerChar() * (double) (len + 1));
+        if (maxBytes > current.remaining() && maxBytes <= current.capacity()) {
+            flushBuffer();
+        }
+    }
+
+    private void writeChars(char[] cbuf, int off, int end) throws IOException {
+        while (off < end) {
+            if (haveLeftoverChar) {
+                encodeLeftover(cbuf[off++]);
+                continue;
+            }
+            int runEnd = end;
+            if (asciiFastPath) {
+                // copy the ascii chars, then bulk put them in the buffer
+                int max = Math.min(Math.min(end - off, byteChunk.length), current.remaining());
+                if (max == 0) {
+                    flushBuffer();
+                    continue;
+                }
+                int n = 0;
+                while (n < max && cbuf[off + n] < 0x80) {
+                    byteChunk[n] = (byte) cbuf[off + n];
+                    n++;
+                }
+                if (n > 0) {
+                    current.put(byteChunk, 0, n);
+                    off += n;
+                    continue;
+                }
+                // the encoder only gets the chars up to the next ascii one
+                runEnd = off + 1;
+                while (runEnd < end && cbuf[runEnd] >= 0x80) {
+                    runEnd++;
+                }
+            }
+            encode(CharBuffer.wrap(cbuf, off, runEnd - off));
+            off = runEnd;
+        }
+    }
+
+    /**
+     * Write a line separator, the value of the line.separator property.
+     *
+     * @exception IOException If an I/O error occurs
+     */
+    public void newLine() throws IOException {
+        write(lineSeparator);
+    }
+
+    /**
+     * Write the buffers to the file and wait for the end of the writes.
+     *
+     * @exception IOException If an I/O error occurs
+     */
+    public void flush() throws IOException {
+        synchronized (lock) {
+            ensureOpen();
+            flushBuffer();
+            waitForPendingWrite();
+            out.flush();
+        }
+    }
+
+    /**
+     * Close the stream.
+     *
+     * @exception IOException If an I/O error occurs
+     */
+    public void close() throws IOException {
+        synchronized (lock) {
+            if (out == null)
+                return;
+            try {
+                CharBuffer end = CharBuffer.wrap(haveLeftoverChar ? new char[] { leftoverChar } : new char[0]);
+                haveLeftoverChar = false;
+                while (encoder.encode(end, current, true).isOverflow()) {
+                    flushBuffer();
+                }
+                while (encoder.flush(current).isOverflow()) {
+                    flushBuffer();
+                }
+                flushBuffer();
+                waitForPendingWrite();
+            } finally {
+                out.close();
+                out = null;
+                current = null;
+                spare = null;
+            }
+        }
+    }
+}
@@ -0,0 +1,372 @@
+// ============================================================================
+//
+// Copyright (C) 2006-2019 Talend Inc. - www.talend.com
+//
+// This source code is available under agreement available at
+// %InstallDIR%\features\org.talend.rcp.branding.%PRODUCTNAME%\%PRODUCTNAME%license.txt
+//
+// You should have received a copy of the agreement
+// along with this program; if not, write to Talend SA
+// 9 rue Pages 92150 Suresnes, France
+//
+// ============================================================================
+package routines.system;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * External sort of {@link IPersistableComparableLookupRow}.
+ *
+ * Rows are copied into a bounded buffer. Each time the buffer is full, it is sorted and written to a run file.
+ * After endAdd(), the rows are read back in order by a k-way merge of the runs on a binary heap. If there are more
+ * runs than MAX_FAN_IN, they are first merged into bigger runs. The sort is stable: equal rows come back in the
+ * order they were added.
+ *
+ * usage:
+ *
+ * <pre>
+ * sorter.add(row); // for every row
+ * sorter.endAdd();
+ * while (sorter.hasNext()) {
+ *     R sorted = sorter.next(); // valid until the next call of next()
+ * }
+ * sorter.close();
+ * </pre>
+ */
+public class ExternalSorter<R extends IPersistableComparableLookupRow<R>> {
+
+    public static final int DEFAULT_BUFFER_SIZE = 1000000;
+
+    static final int MAX_FAN_IN = 64;
+
+    private static final int IO_BUFFER_SIZE = 64 * 1024;
+
+    private final IRowCreator<R> rowCreator;
+
+    private final File tempDirectory;
+
+    private final LookupRowCodec<R> codec = new LookupRowCodec<R>();
+
+    private final int bufferSize;
+
+    private R[] buffer;
+
+    private int bufferCount = 0;
+
+    private final List<File> runFiles = new ArrayList<File>();
+
+    private boolean addEnded = false;
+
+    // in memory iteration, when nothing was spilled
+    private int bufferCursor = 0;
+
+    private RunMerger merger;
+
+    /**
+     * @param rowCreator creates the row instances of the buffer
+     * @param bufferSize max number of rows kept in memory
+     * @param tempDirectory where the run files are created, java.io.tmpdir if null
+     */
+    @SuppressWarnings({ "unchecked", "rawtypes" })
+    public ExternalSorter(IRowCreator<R> rowCreator, int bufferSize, String tempDirectory) {
+        if (bufferSize <= 0) {
+            throw new IllegalArgumentException("Buffer size <= 0"); //$NON-NLS-1$
+        }
+        this.rowCreator = rowCreator;
+        this.bufferSize = bufferSize;
+        // grows up to bufferSize
+        this.buffer = (R[]) new IPersistableComparableLookupRow[Math.min(bufferSize, 1024)];
+        this.tempDirectory = new File(tempDirectory != null ? tempDirectory : System.getProperty("java.io.tmpdir")); //$NON-NLS-1$
+    }
+
+    public ExternalSorter(IRowCreator<R> rowCreator) {
+        this(rowCreator, DEFAULT_BUFFER_SIZE, null);
+    }
+
+    /**
+     * add a copy of the row, the caller can reuse its instance.
+     */
+    public void add(R row) throws IOException {
+        if (addEnded) {
+            throw new IllegalStateException("endAdd() already called"); //$NON-NLS-1$
+        }
+        if (bufferCount == buffer.length) {
+            if (buffer.length < bufferSize) {
+                buffer = Arrays.copyOf(buffer, (int) Math.min(bufferSize, 2L * buffer.length));
+            } else {
+                spill();
+            }
+        }
+        R copy = buffer[bufferCount];
+        if (copy == null) {
+            copy = rowCreator.createRowInstance();
+            buffer[bufferCount] = copy;
+        }
+        row.copyDataTo(copy);
+        bufferCount++;
+    }
+
+    public void endAdd() throws IOException {
+        if (addEnded) {
+            return;
+        }
+        addEnded = true;
+        if (runFiles.isEmpty()) {
+            Arrays.sort(buffer, 0, bufferCount);
+            return;
+        }
+        if (bufferCount > 0) {
+            spill();
+        }
+        // the buffer isn't needed anymore, keep the memory for the merge
+        buffer = null;
+        while (runFiles.size() > MAX_FAN_IN) {
+            List<File> merged = new ArrayList<File>();
+            for (int from = 0; from < runFiles.size(); from += MAX_FAN_IN) {
+                List<File> group = runFiles.subList(from, Math.min(from + MAX_FAN_IN, runFiles.size()));
+                merged.add(mergeToRun(group));
+            }
+            runFiles.clear();
+            runFiles.addAll(merged);
+        }
+        merger = new RunMerger(runFiles);
+    }
+
+    public boolean hasNext() throws IOException {
+        if (!addEnded) {
+            throw new IllegalStateException("endAdd() not called"); //$NON-NLS-1$
+        }
+        if (merger == null) {
+            return bufferCursor < bufferCount;
+        }
+        return merger.hasNext();
+    }
+
+    /**
+     * @return the next row in order, the instance is only valid until the next call of next()
+     */
+    public R next() throws IOException {
+        if (!hasNext()) {
+            throw new java.util.NoSuchElementException();
+        }
+        if (merger == null) {
+            return buffer[bufferCursor++];
+        }
+        return merger.next();
+    }
+
+    /**
+     * @return the number of run files written, 0 if all the rows fit in the buffer
+     */
+    public int getRunCount() {
+        return runFiles.size();
+    }
+
+    public void close() throws IOException {
+        buffer = null;
+        if (merger != null) {
+            merger.close();
+            merger = null;
+        }
+        for (File file : runFiles) {
+            file.delete();
+        }
+        runFiles.clear();
+    }
+
+    private void spill() throws IOException {
+        Arrays.sort(buffer, 0, bufferCount);
+        File file = newRunFile();
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), IO_BUFFER_SIZE));
+        try {
+            for (int i = 0; i < bufferCount; i++) {
+                writeRecord(out, buffer[i]);
+            }
+        } finally {
+            out.close();
+        }
+        runFiles.add(file);
+        bufferCount = 0;
+    }
+
+    private File mergeToRun(List<File> group) throws IOException {
+        File file = newRunFile();
+        RunMerger groupMerger = new RunMerger(group);
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), IO_BUFFER_SIZE));
+        try {
+            while (groupMerger.hasNext()) {
+                writeRecord(out, groupMerger.next());
+            }
+        } finally {
+            out.close();
+            groupMerger.close();
+        }
+        for (File merged : group) {
+            merged.delete();
+        }
+        return file;
+    }
+
+    private File newRunFile() throws IOException {
+        return File.createTempFile("talend_sort_", ".run", tempDirectory); //$NON-NLS-1$ //$NON-NLS-2$
+    }
+
+    private void writeRecord(DataOutputStream out, R row) throws IOException {
+        codec.encode(row);
+        out.writeInt(codec.keyLength());
+        out.writeInt(codec.dataLength());
+        out.writeInt(codec.objectLength());
+        out.write(codec.keyBuffer(), 0, codec.keyLength());
+        out.write(codec.dataBuffer(), 0, codec.dataLength());
+        out.write(codec.objectBuffer(), 0, codec.objectLength());
+    }
+
+    /**
+     * reads one run file sequentially, keeping its current row as head.
+     */
+    private class RunReader {
+
+        private final DataInputStream in;
+
+        private byte[] record = new byte[1024];
+
+        private ByteBuffer recordBuffer = ByteBuffer.wrap(record);
+
+        private R head = rowCreator.createRowInstance();
+
+        private boolean exhausted = false;
+
+        RunReader(File file) throws IOException {
+            in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), IO_BUFFER_SIZE));
+            advance();
+        }
+
+        void advance() throws IOException {
+            int keyLength;
+            try {
+                keyLength = in.readInt();
+            } catch (EOFException e) {
+                exhausted = true;
+                in.close();
+                return;
+            }
+            int dataLength = in.readInt();
+            int objectLength = in.readInt();
+            int length = keyLength + dataLength + objectLength;
+            if (length > record.length) {
+                record = new byte[Math.max(length, record.length * 2)];
+                recordBuffer = ByteBuffer.wrap(record);
+            }
+            in.readFully(record, 0, length);
+            codec.decode(head, recordBuffer, 0, keyLength, dataLength, objectLength);
+        }
+    }
+
+    /**
+     * k-way merge of run files on a binary heap of readers. Equal rows are ordered by run index, which keeps the
+     * sort stable as runs are written in insertion order.
+     */
+    private class RunMerger {
+
+        private final List<RunReader> readers = new ArrayList<RunReader>();
+
+        private final int[] heap;
+
+        private int heapSize = 0;
+
+        private R current = rowCreator.createRowInstance();
+
+        RunMerger(List<File> files) throws IOException {
+            heap = new int[files.size()];
+            for (File file : files) {
+                RunReader reader = new RunReader(file);
+                readers.add(reader);
+                if (!reader.exhausted) {
+                    heap[heapSize++] = readers.size() - 1;
+                    siftUp(heapSize - 1);
+                }
+            }
+        }
+
+        boolean hasNext() {
+            return heapSize > 0;
+        }
+
+        R next() throws IOException {
+            RunReader reader = readers.get(heap[0]);
+            // swap instances instead of copying: the returned row stays valid until the next call
+            R row = reader.head;
+            reader.head = current;
+            current = row;
+            reader.advance();
+            if (reader.exhausted) {
+                heap[0] = heap[--heapSize];
+            }
+            if (heapSize > 0) {
+                siftDown(0);
+            }
+            return row;
+        }
+
+        void close() throws IOException {
+            for (RunReader reader : readers) {
+                if (!reader.exhausted) {
+                    reader.in.close();
+                }
+            }
+        }
+
+        private int compare(int left, int right) {
+            int cmp = readers.get(left).head.compareTo(readers.get(right).head);
+            return cmp != 0 ? cmp : left - right;
+        }
+
+        private void siftUp(int i) {
+            while (i > 0) {
+                int parent = (i - 1) >>> 1;
+                if (compare(heap[i], heap[parent]) >= 0) {
+                    return;
+                }
+                swap(i, parent);
+                i = parent;
+            }
+        }
+
+        private void siftDown(int i) {
+            while (true) {
+                int smallest = i;
+                int left = 2 * i + 1;
+                int right = left + 1;
+                if (left < heapSize && compare(heap[left], heap[smallest]) < 0) {
+                    smallest = left;
+                }
+                if (right < heapSize && compare(heap[right], heap[smallest]) < 0) {
+                    smallest = right;
+                }
+                if (smallest == i) {
+                    return;
+                }
+                swap(i, smallest);
+                i = smallest;
+            }
+        }
+
+        private void swap(int i, int j) {
+            int tmp = heap[i];
+            heap[i] = heap[j];
+            heap[j] = tmp;
+        }
+    }
+}
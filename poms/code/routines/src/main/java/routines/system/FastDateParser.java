@@ -12,10 +12,49 @@
 // ============================================================================
 package routines.system;
 
+import java.text.DateFormat;
+import java.text.ParseException;
+import java.text.ParsePosition;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.time.zone.ZoneOffsetTransition;
+import java.time.zone.ZoneRules;
+import java.util.Date;
+import java.util.LinkedHashMap;
 import java.util.Locale;
-
+import java.util.Map;
+import java.util.TimeZone;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Caches the DateFormat instances by pattern and locale.
+ *
+ * getInstance() returns a DateFormat owned by the calling thread, taken from a small per-thread LRU cache and set to
+ * the current default time zone. The patterns are compiled once in a global bounded LRU cache of
+ * {@link CompiledDateFormat}, and the DateFormat instances parse/format the common numeric patterns (yyyy-MM-dd,
+ * dd-MM-yyyy, ISO date times...) without a Calendar.
+ */
 public class FastDateParser {
 
+    private static final int DEFAULT_CACHE_CAPACITY = 256;
+
+    // per thread, the DateFormat instances are mutable
+    private static final int THREAD_CACHE_CAPACITY = 64;
+
+    private static final ConcurrentHashMap<DateFormatKey, CompiledDateFormat> compiledCache = new ConcurrentHashMap<DateFormatKey, CompiledDateFormat>();
+
+    private static volatile int cacheCapacity = DEFAULT_CACHE_CAPACITY;
+
+    // approximate clock of the LRU, races only make the eviction order a bit less exact
+    private static volatile long accessClock = 0;
+
+    private static final LongAdder cacheHitCount = new LongAdder();
+
+    private static final LongAdder cacheMissCount = new LongAdder();
+
+    private static final LongAdder cacheEvictionCount = new LongAdder();
+
     private static FastDateParser instance;
 
     public static FastDateParser getInstance() {
@@ -33,7 +72,15 @@ public class FastDateParser {
 
 		@Override
 		protected java.util.HashMap<DateFormatKey, java.text.DateFormat> initialValue() {
-			return new java.util.HashMap<DateFormatKey, java.text.DateFormat>();
+			return new LinkedHashMap<DateFormatKey, java.text.DateFormat>(16, 0.75f, true) {
+
+				private static final long serialVersionUID = 1L;
+
+				@Override
+				protected boolean removeEldestEntry(Map.Entry<DateFormatKey, java.text.DateFormat> eldest) {
+					return size() > THREAD_CACHE_CAPACITY;
+				}
+			};
 		}
 
     };
@@ -62,40 +109,571 @@ public class FastDateParser {
     }
 
     public static java.text.DateFormat getInstance(String pattern, Locale locale, boolean lenient) {
-    	localDateFormatKey.get().pattern = pattern;
-    	localDateFormatKey.get().locale = locale;
-        java.text.DateFormat format = localCache.get().get(localDateFormatKey.get());
+        DateFormatKey key = localDateFormatKey.get();
+        key.pattern = pattern;
+        key.locale = locale;
+        // the leniency is set on the instance of the thread
+        key.lenient = true;
+        java.util.HashMap<DateFormatKey, java.text.DateFormat> cache = localCache.get();
+        java.text.DateFormat format = cache.get(key);
+        TimeZone timeZone = TimeZone.getDefault();
         if (format == null) {
-            if (pattern.equals("yyyy-MM-dd")) { //$NON-NLS-1$
-                format = new DateParser();
-            } else if (pattern.equals("yyyy-MM-dd HH:mm:ss")) { //$NON-NLS-1$
-                format = new DateTimeParser();
+            format = getCompiledInstance(pattern, locale, true).newDateFormat();
+            cache.put(getInstance().new DateFormatKey(pattern, locale, true), format);
+        } else if (!timeZone.equals(format.getTimeZone())) {
+            // the default time zone may have changed since the previous call
+            format.setTimeZone(timeZone);
+        }
+        if (format.isLenient() != lenient) {
+            format.setLenient(lenient);
+        }
+        return format;
+    }
+
+    /**
+     * @return the thread safe compiled pattern, from the global cache
+     */
+    public static CompiledDateFormat getCompiledInstance(String pattern, Locale locale, boolean lenient) {
+        DateFormatKey key = localDateFormatKey.get();
+        key.pattern = pattern;
+        key.locale = locale;
+        key.lenient = lenient;
+        CompiledDateFormat compiled = compiledCache.get(key);
+        if (compiled != null) {
+            cacheHitCount.increment();
+        } else {
+            cacheMissCount.increment();
+            compiled = new CompiledDateFormat(pattern, locale, lenient);
+            CompiledDateFormat existing = compiledCache.putIfAbsent(getInstance().new DateFormatKey(pattern, locale,
+                    lenient), compiled);
+            if (existing != null) {
+                compiled = existing;
+            } else if (compiledCache.size() > cacheCapacity) {
+                evictLeastRecentlyUsed(compiled);
+            }
+        }
+        compiled.lastAccess = ++accessClock;
+        return compiled;
+    }
+
+    private static void evictLeastRecentlyUsed(CompiledDateFormat keep) {
+        while (compiledCache.size() > cacheCapacity) {
+            Map.Entry<DateFormatKey, CompiledDateFormat> eldest = null;
+            for (Map.Entry<DateFormatKey, CompiledDateFormat> entry : compiledCache.entrySet()) {
+                if (entry.getValue() != keep
+                        && (eldest == null || entry.getValue().lastAccess < eldest.getValue().lastAccess)) {
+                    eldest = entry;
+                }
+            }
+            if (eldest == null) {
+                return;
+            }
+            if (compiledCache.remove(eldest.getKey(), eldest.getValue())) {
+                cacheEvictionCount.increment();
+            }
+        }
+    }
+
+    public static void setCacheCapacity(int capacity) {
+        cacheCapacity = Math.max(1, capacity);
+    }
+
+    public static int getCacheCapacity() {
+        return cacheCapacity;
+    }
+
+    public static int getCacheSize() {
+        return compiledCache.size();
+    }
+
+    public static long getCacheHitCount() {
+        return cacheHitCount.sum();
+    }
+
+    public static long getCacheMissCount() {
+        return cacheMissCount.sum();
+    }
+
+    public static long getCacheEvictionCount() {
+        return cacheEvictionCount.sum();
+    }
+
+    /**
+     * A compiled pattern, immutable and thread safe.
+     *
+     * The patterns only made of fixed width numeric fields (yyyy, MM, dd, HH, mm, ss, SSS) and separators get a fast
+     * path: the DateFormat instances of newDateFormat() parse and format them directly in their current time zone,
+     * and leave the input which doesn't have the exact layout, has out of range values or can't be checked
+     * without a Calendar to the usual DateFormat code, so the result is always the one of SimpleDateFormat.
+     */
+    public static final class CompiledDateFormat {
+
+        private static final int YEAR = 0, MONTH = 1, DAY = 2, HOUR = 3, MINUTE = 4, SECOND = 5, MILLISECOND = 6;
+
+        // the years for which Calendar and java.time agree on the calendar and the zone offsets
+        private static final int MIN_FAST_YEAR = 1900, MAX_FAST_YEAR = 9999;
+
+        private final String pattern;
+
+        private final Locale locale;
+
+        private final boolean lenient;
+
+        // not used directly, only cloned
+        private final FastSimpleDateFormat prototype;
+
+        // fast path layout, null if the pattern has none
+        private final char[] layout;
+
+        private final int[] fieldTypes;
+
+        private final int[] fieldStarts;
+
+        private final int[] fieldWidths;
+
+        private volatile long lastAccess;
+
+        CompiledDateFormat(String pattern, Locale locale, boolean lenient) {
+            this.pattern = pattern;
+            this.locale = locale;
+            this.lenient = lenient;
+            if (isDateParserPattern(pattern)) {
+                this.prototype = null;
             } else {
-                if (locale != null) {
-                    format = new java.text.SimpleDateFormat(pattern, locale);
+                this.prototype = locale != null ? new FastSimpleDateFormat(pattern, locale)
+                        : new FastSimpleDateFormat(pattern);
+                this.prototype.setLenient(lenient);
+            }
+
+            // compile the fast path layout
+            char[] chars = new char[pattern.length()];
+            int[] types = new int[7];
+            int[] starts = new int[7];
+            int[] widths = new int[7];
+            int fieldCount = 0;
+            int length = 0;
+            int seen = 0;
+            boolean supported = true;
+            int i = 0;
+            while (supported && i < pattern.length()) {
+                char c = pattern.charAt(i);
+                int run = 1;
+                while (i + run < pattern.length() && pattern.charAt(i + run) == c) {
+                    run++;
+                }
+                int type = fieldType(c, run);
+                if (type >= 0) {
+                    if ((seen & (1 << type)) != 0) {
+                        supported = false;
+                        break;
+                    }
+                    seen |= 1 << type;
+                    types[fieldCount] = type;
+                    starts[fieldCount] = length;
+                    widths[fieldCount] = run;
+                    fieldCount++;
+                    for (int j = 0; j < run; j++) {
+                        chars[length++] = '0';
+                    }
+                    i += run;
+                } else if (c == '-' || c == '/' || c == ':' || c == '.' || c == ' ' || c == ',') {
+                    chars[length++] = c;
+                    i++;
+                } else if (c == '\'' && i + 2 < pattern.length() && pattern.charAt(i + 2) == '\''
+                        && Character.isLetter(pattern.charAt(i + 1))) {
+                    // quoted letter, like 'T'
+                    chars[length++] = pattern.charAt(i + 1);
+                    i += 3;
                 } else {
-                    format = new java.text.SimpleDateFormat(pattern);
+                    supported = false;
                 }
             }
-            localCache.get().put(getInstance().new DateFormatKey(pattern, locale), format);
+            // the date is mandatory, the time fields are optional
+            int dateFields = (1 << YEAR) | (1 << MONTH) | (1 << DAY);
+            if (supported && (seen & dateFields) == dateFields && isGregorianWithAsciiDigits()) {
+                this.layout = new char[length];
+                System.arraycopy(chars, 0, this.layout, 0, length);
+                this.fieldTypes = new int[fieldCount];
+                this.fieldStarts = new int[fieldCount];
+                this.fieldWidths = new int[fieldCount];
+                System.arraycopy(types, 0, this.fieldTypes, 0, fieldCount);
+                System.arraycopy(starts, 0, this.fieldStarts, 0, fieldCount);
+                System.arraycopy(widths, 0, this.fieldWidths, 0, fieldCount);
+            } else {
+                this.layout = null;
+                this.fieldTypes = null;
+                this.fieldStarts = null;
+                this.fieldWidths = null;
+            }
+            if (prototype != null) {
+                // copied by the clones
+                prototype.compiled = this;
+            }
         }
-        if (format.isLenient() != lenient) {
-            format.setLenient(lenient);
+
+        // some locales use another calendar (th_TH, ja_JP_JP) or other digits
+        private boolean isGregorianWithAsciiDigits() {
+            if (prototype == null) {
+                return java.util.Calendar.getInstance().getClass() == java.util.GregorianCalendar.class;
+            }
+            java.text.NumberFormat numberFormat = prototype.getNumberFormat();
+            return prototype.getCalendar().getClass() == java.util.GregorianCalendar.class
+                    && numberFormat instanceof java.text.DecimalFormat
+                    && ((java.text.DecimalFormat) numberFormat).getDecimalFormatSymbols().getZeroDigit() == '0';
+        }
+
+        private static int fieldType(char c, int run) {
+            switch (c) {
+            case 'y':
+                return run == 4 ? YEAR : -1;
+            case 'M':
+                return run == 2 ? MONTH : -1;
+            case 'd':
+                return run == 2 ? DAY : -1;
+            case 'H':
+                return run == 2 ? HOUR : -1;
+            case 'm':
+                return run == 2 ? MINUTE : -1;
+            case 's':
+                return run == 2 ? SECOND : -1;
+            case 'S':
+                return run == 3 ? MILLISECOND : -1;
+            default:
+                return -1;
+            }
+        }
+
+        public String getPattern() {
+            return pattern;
+        }
+
+        public boolean hasFastPath() {
+            return layout != null;
+        }
+
+        /**
+         * @return a new DateFormat for this pattern in the default time zone, not thread safe
+         */
+        public DateFormat newDateFormat() {
+            DateFormat format;
+            if (prototype != null) {
+                format = (DateFormat) prototype.clone();
+                format.setTimeZone(TimeZone.getDefault());
+            } else if (pattern.equals("yyyy-MM-dd")) { //$NON-NLS-1$
+                format = new DateParser(this);
+            } else {
+                format = new DateTimeParser(this);
+            }
+            if (format.isLenient() != lenient) {
+                format.setLenient(lenient);
+            }
+            return format;
+        }
+
+        /**
+         * @param rules the rules of the time zone of the format, null if they are unknown
+         * @return null if the source doesn't have the exact layout of the pattern, has out of range values, or falls
+         * in a gap of the time zone while not lenient
+         */
+        private Date parseFast(String source, ZoneRules rules, boolean lenientFormat) {
+            if (layout == null || rules == null || source == null || source.length() != layout.length) {
+                return null;
+            }
+            for (int i = 0; i < layout.length; i++) {
+                char c = source.charAt(i);
+                if (layout[i] == '0' ? (c < '0' || c > '9') : c != layout[i]) {
+                    return null;
+                }
+            }
+            int year = 0, month = 0, day = 0, hour = 0, minute = 0, second = 0, millis = 0;
+            for (int f = 0; f < fieldTypes.length; f++) {
+                int value = 0;
+                for (int i = fieldStarts[f], end = i + fieldWidths[f]; i < end; i++) {
+                    value = value * 10 + (source.charAt(i) - '0');
+                }
+                switch (fieldTypes[f]) {
+                case YEAR:
+                    year = value;
+                    break;
+                case MONTH:
+                    month = value;
+                    break;
+                case DAY:
+                    day = value;
+                    break;
+                case HOUR:
+                    hour = value;
+                    break;
+                case MINUTE:
+                    minute = value;
+                    break;
+                case SECOND:
+                    second = value;
+                    break;
+                default:
+                    millis = value;
+                    break;
+                }
+            }
+            // the lenient rolling and the strict errors are left to the DateFormat
+            if (year < MIN_FAST_YEAR || year > MAX_FAST_YEAR || month < 1 || month > 12 || day < 1
+                    || day > daysInMonth(year, month) || hour > 23 || minute > 59 || second > 59) {
+                return null;
+            }
+            LocalDateTime local = LocalDateTime.of(year, month, day, hour, minute, second);
+            ZoneOffset offset;
+            ZoneOffsetTransition transition = rules.getTransition(local);
+            if (transition == null) {
+                offset = rules.getOffset(local);
+            } else if (transition.isGap()) {
+                if (!lenientFormat) {
+                    // a strict Calendar rejects the time in the gap
+                    return null;
+                }
+                // same as Calendar: the time in the gap is moved forward
+                offset = transition.getOffsetBefore();
+            } else {
+                // same as Calendar: the second occurrence of the time in the overlap
+                offset = transition.getOffsetAfter();
+            }
+            return new Date(local.toEpochSecond(offset) * 1000L + millis);
+        }
+
+        /**
+         * @return null if the year is out of the fast range
+         */
+        private String formatFast(long time, TimeZone timeZone) {
+            long local = time + timeZone.getOffset(time);
+            long epochDay = Math.floorDiv(local, 86400000L);
+            int millisOfDay = (int) Math.floorMod(local, 86400000L);
+            java.time.LocalDate date = java.time.LocalDate.ofEpochDay(epochDay);
+            int year = date.getYear();
+            if (year < MIN_FAST_YEAR || year > MAX_FAST_YEAR) {
+                return null;
+            }
+            char[] chars = layout.clone();
+            for (int f = 0; f < fieldTypes.length; f++) {
+                int value;
+                switch (fieldTypes[f]) {
+                case YEAR:
+                    value = year;
+                    break;
+                case MONTH:
+                    value = date.getMonthValue();
+                    break;
+                case DAY:
+                    value = date.getDayOfMonth();
+                    break;
+                case HOUR:
+                    value = millisOfDay / 3600000;
+                    break;
+                case MINUTE:
+                    value = millisOfDay / 60000 % 60;
+                    break;
+                case SECOND:
+                    value = millisOfDay / 1000 % 60;
+                    break;
+                default:
+                    value = millisOfDay % 1000;
+                    break;
+                }
+                for (int i = fieldStarts[f] + fieldWidths[f] - 1; i >= fieldStarts[f]; i--) {
+                    chars[i] = (char) ('0' + value % 10);
+                    value /= 10;
+                }
+            }
+            return new String(chars);
+        }
+
+        private static int daysInMonth(int year, int month) {
+            switch (month) {
+            case 2:
+                return (year % 4 == 0 && (year % 100 != 0 || year % 400 == 0)) ? 29 : 28;
+            case 4:
+            case 6:
+            case 9:
+            case 11:
+                return 30;
+            default:
+                return 31;
+            }
+        }
+    }
+
+    /**
+     * The zone rules of the time zone of a format, looked up again when the time zone changes.
+     */
+    private static final class ZoneRulesCache {
+
+        private TimeZone zone;
+
+        private ZoneRules rules;
+
+        /**
+         * @return null if java.time doesn't have the same rules as the TimeZone (a custom SimpleTimeZone)
+         */
+        ZoneRules get(TimeZone timeZone) {
+            if (timeZone != zone) {
+                rules = null;
+                try {
+                    java.time.ZoneId zoneId = timeZone.toZoneId();
+                    if (timeZone.hasSameRules(TimeZone.getTimeZone(zoneId))) {
+                        rules = zoneId.getRules();
+                    }
+                } catch (java.time.DateTimeException e) {
+                    // no fast path for this zone
+                }
+                zone = timeZone;
+            }
+            return rules;
         }
-        return format;
+    }
+
+    /**
+     * The SimpleDateFormat of getInstance(), with the fast path of its compiled pattern. Changing the pattern, the
+     * calendar or the number format turns the fast path off.
+     */
+    private static final class FastSimpleDateFormat extends java.text.SimpleDateFormat {
+
+        private static final long serialVersionUID = 1L;
+
+        // set once the pattern is compiled, shared by the clones
+        private transient CompiledDateFormat compiled;
+
+        // no initializer, the constructor of SimpleDateFormat may call the setters below
+        private transient boolean customized;
+
+        private transient ZoneRulesCache zoneRules;
+
+        FastSimpleDateFormat(String pattern) {
+            super(pattern);
+        }
+
+        FastSimpleDateFormat(String pattern, Locale locale) {
+            super(pattern, locale);
+        }
+
+        private boolean hasFastPath() {
+            return compiled != null && compiled.layout != null && !customized;
+        }
+
+        @Override
+        public Date parse(String source, ParsePosition pos) {
+            if (pos.getIndex() == 0 && hasFastPath()) {
+                if (zoneRules == null) {
+                    zoneRules = new ZoneRulesCache();
+                }
+                Date date = compiled.parseFast(source, zoneRules.get(getTimeZone()), isLenient());
+                if (date != null) {
+                    pos.setIndex(source.length());
+                    return date;
+                }
+            }
+            return super.parse(source, pos);
+        }
+
+        @Override
+        public StringBuffer format(Date date, StringBuffer toAppendTo, java.text.FieldPosition pos) {
+            // the fast path doesn't report the field positions
+            if (hasFastPath() && pos.getField() == 0 && pos.getFieldAttribute() == null) {
+                String formatted = compiled.formatFast(date.getTime(), getTimeZone());
+                if (formatted != null) {
+                    return toAppendTo.append(formatted);
+                }
+            }
+            return super.format(date, toAppendTo, pos);
+        }
+
+        @Override
+        public Object clone() {
+            FastSimpleDateFormat clone = (FastSimpleDateFormat) super.clone();
+            clone.zoneRules = null;
+            return clone;
+        }
+
+        @Override
+        public void applyPattern(String pattern) {
+            customized = true;
+            super.applyPattern(pattern);
+        }
+
+        @Override
+        public void applyLocalizedPattern(String pattern) {
+            customized = true;
+            super.applyLocalizedPattern(pattern);
+        }
+
+        @Override
+        public void setCalendar(java.util.Calendar newCalendar) {
+            customized = true;
+            super.setCalendar(newCalendar);
+        }
+
+        @Override
+        public void setNumberFormat(java.text.NumberFormat newNumberFormat) {
+            customized = true;
+            super.setNumberFormat(newNumberFormat);
+        }
+    }
+
+    private static boolean isDateParserPattern(String pattern) {
+        return pattern.equals("yyyy-MM-dd") || pattern.equals("yyyy-MM-dd HH:mm:ss"); //$NON-NLS-1$ //$NON-NLS-2$
+    }
+
+    // the fast path of DateParser and DateTimeParser, their own code is the slow path
+    private abstract static class FixedDateFormat extends java.text.DateFormat {
+
+        private final CompiledDateFormat compiled;
+
+        private final ZoneRulesCache zoneRules = new ZoneRulesCache();
+
+        FixedDateFormat(CompiledDateFormat compiled) {
+            this.compiled = compiled;
+            calendar = java.util.Calendar.getInstance();
+        }
+
+        @Override
+        public final StringBuffer format(java.util.Date date, StringBuffer toAppendTo,
+                java.text.FieldPosition fieldPosition) {
+            if (compiled.layout != null) {
+                String formatted = compiled.formatFast(date.getTime(), calendar.getTimeZone());
+                if (formatted != null) {
+                    return toAppendTo.append(formatted);
+                }
+            }
+            return formatFields(date, toAppendTo, fieldPosition);
+        }
+
+        @Override
+        public final java.util.Date parse(String source, java.text.ParsePosition pos) {
+            if (pos.getIndex() == 0 && compiled.layout != null) {
+                Date date = compiled.parseFast(source, zoneRules.get(calendar.getTimeZone()), calendar.isLenient());
+                if (date != null) {
+                    pos.setIndex(source.length());
+                    return date;
+                }
+            }
+            return parseFields(source, pos);
+        }
+
+        protected abstract StringBuffer formatFields(java.util.Date date, StringBuffer toAppendTo,
+                java.text.FieldPosition fieldPosition);
+
+        protected abstract java.util.Date parseFields(String source, java.text.ParsePosition pos);
     }
 
     // Parse and format dates with yyyy-MM-dd format
-    private static class DateParser extends java.text.DateFormat {
+    private static class DateParser extends FixedDateFormat {
 
         private int year, month, day;
 
-        public DateParser() {
-            calendar = java.util.Calendar.getInstance();
+        public DateParser(CompiledDateFormat compiled) {
+            super(compiled);
         }
 
         @Override
-        public StringBuffer format(java.util.Date date, StringBuffer toAppendTo, java.text.FieldPosition fieldPosition) {
+        protected StringBuffer formatFields(java.util.Date date, StringBuffer toAppendTo,
+                java.text.FieldPosition fieldPosition) {
             calendar.setTime(date);
 
             // Year
@@ -121,7 +699,7 @@ public class FastDateParser {
         }
 
         @Override
-        public java.util.Date parse(String source, java.text.ParsePosition pos) {
+        protected java.util.Date parseFields(String source, java.text.ParsePosition pos) {
             int index = 0;
             try {
                 year = Integer.parseInt(source.substring(0, 4));
@@ -144,16 +722,17 @@ public class FastDateParser {
     }
 
     // Parse dates with yyyy-MM-dd HH:mm:ss format
-    private static class DateTimeParser extends java.text.DateFormat {
+    private static class DateTimeParser extends FixedDateFormat {
 
         private int year, month, day, hour, minute, second;
 
-        public DateTimeParser() {
-            calendar = java.util.Calendar.getInstance();
+        public DateTimeParser(CompiledDateFormat compiled) {
+            super(compiled);
         }
 
         @Override
-        public StringBuffer format(java.util.Date date, StringBuffer toAppendTo, java.text.FieldPosition fieldPosition) {
+        protected StringBuffer formatFields(java.util.Date date, StringBuffer toAppendTo,
+                java.text.FieldPosition fieldPosition) {
             calendar.setTime(date);
 
             // Year
@@ -200,7 +779,7 @@ public class FastDateParser {
         }
 
         @Override
-        public java.util.Date parse(String source, java.text.ParsePosition pos) {
+        protected java.util.Date parseFields(String source, java.text.ParsePosition pos) {
             int index = 0;
             try {
                 year = Integer.parseInt(source.substring(0, 4));
@@ -234,12 +813,15 @@ public class FastDateParser {
 
         private Locale locale;
 
+        private boolean lenient;
+
         public DateFormatKey() {
         }
 
-        public DateFormatKey(String pattern, Locale locale) {
+        public DateFormatKey(String pattern, Locale locale, boolean lenient) {
             this.pattern = pattern;
             this.locale = locale;
+            this.lenient = lenient;
         }
 
         /*
@@ -253,6 +835,7 @@ public class FastDateParser {
             int result = 1;
             result = prime * result + ((this.locale == null) ? 0 : this.locale.hashCode());
             result = prime * result + ((this.pattern == null) ? 0 : this.pattern.hashCode());
+            result = prime * result + (this.lenient ? 1231 : 1237);
             return result;
         }
 
@@ -270,6 +853,8 @@ public class FastDateParser {
             if (getClass() != obj.getClass())
                 return false;
             final DateFormatKey other = (DateFormatKey) obj;
+            if (this.lenient != other.lenient)
+                return false;
             if (this.locale == null) {
                 if (other.locale != null)
                     return false;
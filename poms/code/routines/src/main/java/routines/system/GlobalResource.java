@@ -12,30 +12,311 @@
 // ============================================================================
 package routines.system;
 
-import java.util.HashMap;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Iterator;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.BiFunction;
+import java.util.function.Function;
 
 public class GlobalResource {
 
+    // concurrent and reference counted, shared across parent and child jobs
+    public static final ResourceRegistry resourceRegistry = new ResourceRegistry();
+
     // let it support the top level Object
-    public static Map<Object, Object> resourceMap = new HashMap<Object, Object>();
+    public static Map<Object, Object> resourceMap = resourceRegistry;
 
     // when there is multiple threads wants to insert stats&logs&meta into DB, it is used as a locker. bug:22677
     public static TalendMultiThreadLockMap resourceLockMap = new TalendMultiThreadLockMap();
 
-    public static class TalendMultiThreadLockMap {
+    /**
+     * A concurrent map of the resources shared between jobs, which also accepts null keys and values like the
+     * HashMap it replaces.
+     *
+     * A resource can be reference counted: every job using it calls retain(key) when it starts and release(key) when
+     * it ends, RunStat does so for the statistics socket shared by the parent and child jobs. When the last one
+     * releases it, the resource is removed, and closed if it is AutoCloseable (a java.sql.Connection for example).
+     */
+    public static class ResourceRegistry extends AbstractMap<Object, Object> {
+
+        private static final Object NULL = new Object();
+
+        private final ConcurrentHashMap<Object, Object> resources = new ConcurrentHashMap<Object, Object>();
+
+        // updated with compute(), so a retain() and the last release() of a key never interleave
+        private final ConcurrentHashMap<Object, Integer> refCounts = new ConcurrentHashMap<Object, Integer>();
+
+        private final LongAdder hitCount = new LongAdder();
 
-        private Map<Object, Object> tMultiTheadLockMap = new HashMap<Object, Object>();
+        private final LongAdder missCount = new LongAdder();
+
+        private final LongAdder releaseCount = new LongAdder();
+
+        private static Object mask(Object o) {
+            return o == null ? NULL : o;
+        }
+
+        private static Object unmask(Object o) {
+            return o == NULL ? null : o;
+        }
 
+        @Override
         public Object get(Object key) {
-            if (tMultiTheadLockMap.get(key) == null) {
-                synchronized (TalendMultiThreadLockMap.this) {
-                    if (tMultiTheadLockMap.get(key) == null) {
-                        tMultiTheadLockMap.put(key, new Object());
+            Object value = resources.get(mask(key));
+            if (value == null) {
+                missCount.increment();
+                return null;
+            }
+            hitCount.increment();
+            return unmask(value);
+        }
+
+        @Override
+        public boolean containsKey(Object key) {
+            return resources.containsKey(mask(key));
+        }
+
+        @Override
+        public Object put(Object key, Object value) {
+            return unmask(resources.put(mask(key), mask(value)));
+        }
+
+        @Override
+        public Object remove(Object key) {
+            refCounts.remove(mask(key));
+            return unmask(resources.remove(mask(key)));
+        }
+
+        @Override
+        public int size() {
+            return resources.size();
+        }
+
+        @Override
+        public boolean isEmpty() {
+            return resources.isEmpty();
+        }
+
+        @Override
+        public void clear() {
+            resources.clear();
+            refCounts.clear();
+        }
+
+        @Override
+        public Set<Map.Entry<Object, Object>> entrySet() {
+            return new AbstractSet<Map.Entry<Object, Object>>() {
+
+                @Override
+                public Iterator<Map.Entry<Object, Object>> iterator() {
+                    final Iterator<Map.Entry<Object, Object>> it = resources.entrySet().iterator();
+                    return new Iterator<Map.Entry<Object, Object>>() {
+
+                        public boolean hasNext() {
+                            return it.hasNext();
+                        }
+
+                        public Map.Entry<Object, Object> next() {
+                            final Map.Entry<Object, Object> entry = it.next();
+                            return new AbstractMap.SimpleEntry<Object, Object>(unmask(entry.getKey()),
+                                    unmask(entry.getValue())) {
+
+                                private static final long serialVersionUID = 1L;
+
+                                @Override
+                                public Object setValue(Object value) {
+                                    super.setValue(value);
+                                    return unmask(entry.setValue(mask(value)));
+                                }
+                            };
+                        }
+
+                        public void remove() {
+                            it.remove();
+                        }
+                    };
+                }
+
+                @Override
+                public int size() {
+                    return resources.size();
+                }
+            };
+        }
+
+        /**
+         * Put the resource if there is none for the key yet.
+         *
+         * @return the resource of the key, the given one or the one already there
+         */
+        public Object putShared(Object key, Object value) {
+            Object previous = resources.putIfAbsent(mask(key), mask(value));
+            return previous == null ? value : unmask(previous);
+        }
+
+        /**
+         * Take a reference on the resource of the key, to be called by a job which starts using it.
+         *
+         * @return the resource
+         */
+        public Object retain(Object key) {
+            final Object[] resource = new Object[1];
+            refCounts.compute(mask(key), new BiFunction<Object, Integer, Integer>() {
+
+                public Integer apply(Object maskedKey, Integer count) {
+                    resource[0] = resources.get(maskedKey);
+                    return count == null ? 1 : count + 1;
+                }
+            });
+            return unmask(resource[0]);
+        }
+
+        /**
+         * Drop a reference on the resource of the key, to be called by a job which ends. The last one removes the
+         * resource and closes it if it is AutoCloseable.
+         *
+         * @return true if the resource has been released
+         */
+        public boolean release(Object key) {
+            final Object[] released = new Object[1];
+            refCounts.computeIfPresent(mask(key), new BiFunction<Object, Integer, Integer>() {
+
+                public Integer apply(Object maskedKey, Integer count) {
+                    if (count > 1) {
+                        return count - 1;
                     }
+                    // removed while the count is locked, a concurrent retain() comes before or after
+                    released[0] = resources.remove(maskedKey);
+                    return null;
+                }
+            });
+            if (released[0] == null) {
+                return false;
+            }
+            releaseCount.increment();
+            Object resource = unmask(released[0]);
+            if (resource instanceof AutoCloseable) {
+                try {
+                    ((AutoCloseable) resource).close();
+                } catch (Exception e) {
+                    e.printStackTrace();
                 }
             }
-            return tMultiTheadLockMap.get(key);
+            return true;
+        }
+
+        /**
+         * @return the number of jobs holding the resource of the key
+         */
+        public int getRefCount(Object key) {
+            Integer count = refCounts.get(mask(key));
+            return count == null ? 0 : count;
+        }
+
+        public long getHitCount() {
+            return hitCount.sum();
+        }
+
+        public long getMissCount() {
+            return missCount.sum();
+        }
+
+        /**
+         * @return the number of resources removed by their last release()
+         */
+        public long getReleaseCount() {
+            return releaseCount.sum();
+        }
+    }
+
+    /**
+     * One lock per key, created on first use, so two keys never block each other.
+     *
+     * get(key) gives the monitor of the key to synchronize on, as before. lock(key) and unlock(key) take a
+     * ReentrantLock of the key and count the acquisitions which had to wait. They don't exclude the synchronized
+     * blocks on get(key), so a key must always be guarded the same way. A synchronized block can't be measured, only
+     * the calls of get(key) are counted.
+     */
+    public static class TalendMultiThreadLockMap {
+
+        private static final Object NULL_KEY = new Object();
+
+        // the monitor of the key, and its lock for lock(key)
+        private static final class KeyLock {
+
+            private final ReentrantLock lock = new ReentrantLock();
+        }
+
+        private final ConcurrentHashMap<Object, KeyLock> locks = new ConcurrentHashMap<Object, KeyLock>();
+
+        private final Function<Object, KeyLock> newLock = new Function<Object, KeyLock>() {
+
+            public KeyLock apply(Object key) {
+                return new KeyLock();
+            }
+        };
+
+        private final LongAdder monitorCount = new LongAdder();
+
+        private final LongAdder lockCount = new LongAdder();
+
+        private final LongAdder contentionCount = new LongAdder();
+
+        private KeyLock lockOf(Object key) {
+            Object maskedKey = key == null ? NULL_KEY : key;
+            KeyLock lock = locks.get(maskedKey);
+            return lock != null ? lock : locks.computeIfAbsent(maskedKey, newLock);
+        }
+
+        /**
+         * @return the monitor of the key, always the same for a key
+         */
+        public Object get(Object key) {
+            monitorCount.increment();
+            return lockOf(key);
+        }
+
+        public void lock(Object key) {
+            ReentrantLock lock = lockOf(key).lock;
+            lockCount.increment();
+            if (!lock.tryLock()) {
+                contentionCount.increment();
+                lock.lock();
+            }
+        }
+
+        public void unlock(Object key) {
+            lockOf(key).lock.unlock();
+        }
+
+        /**
+         * @return the number of monitors given by get(key)
+         */
+        public long getMonitorCount() {
+            return monitorCount.sum();
+        }
+
+        public long getLockCount() {
+            return lockCount.sum();
+        }
+
+        /**
+         * @return the number of lock(key) calls which had to wait for another thread
+         */
+        public long getContentionCount() {
+            return contentionCount.sum();
+        }
+
+        /**
+         * @return the number of keys
+         */
+        public int size() {
+            return locks.size();
         }
     }
 }
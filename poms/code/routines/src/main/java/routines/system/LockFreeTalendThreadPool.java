@@ -0,0 +1,280 @@
+// ============================================================================
+//
+// Copyright (C) 2006-2019 Talend Inc. - www.talend.com
+//
+// This source code is available under agreement available at
+// %InstallDIR%\features\org.talend.rcp.branding.%PRODUCTNAME%\%PRODUCTNAME%license.txt
+//
+// You should have received a copy of the agreement
+// along with this program; if not, write to Talend SA
+// 9 rue Pages 92150 Suresnes, France
+//
+// ============================================================================
+package routines.system;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * A {@link TalendThreadPool} without monitors: the workers take the TalendThreads from a bounded lock-free queue
+ * and park when there is nothing to do, instead of handing them off through synchronized ThreadQueues.
+ *
+ * The contract is the same: execute() waits until a worker is free, so no more than numberOfThreads threads are
+ * running or queued at once, waitForEndOfQueue() waits until every thread has run then stops the workers,
+ * stopAllWorkers() drops the remaining threads.
+ */
+public class LockFreeTalendThreadPool extends TalendThreadPool {
+
+    private static final AtomicInteger nextWorkerID = new AtomicInteger();
+
+    // spins on an empty queue before parking
+    private static final int IDLE_SPINS = 64;
+
+    private static final long WAIT_PARK_NANOS = 100000000L;
+
+    private volatile boolean stopAllWorkers = false;
+
+    private volatile boolean shutdown = false;
+
+    private final AtomicReference<TalendThread> errorThread = new AtomicReference<TalendThread>();
+
+    private final BoundedMpmcQueue<TalendThread> queue;
+
+    private final Thread[] workers;
+
+    // 1 when the worker is parked or about to park
+    private final AtomicIntegerArray parked;
+
+    // threads offered to the queue and not taken yet, the volatile counterpart of the lazy queue
+    private final AtomicInteger queued = new AtomicInteger();
+
+    // threads given to execute() and not finished yet
+    private final AtomicInteger pending = new AtomicInteger();
+
+    // the threads in execute() waiting for a free worker
+    private final ConcurrentLinkedQueue<Thread> submitters = new ConcurrentLinkedQueue<Thread>();
+
+    // the size of submitters, for getQueueSize()
+    private final AtomicInteger waitingSubmitters = new AtomicInteger();
+
+    private volatile Thread endWaiter;
+
+    public LockFreeTalendThreadPool(int numberOfThreads) {
+        super();
+        numberOfThreads = Math.max(1, numberOfThreads);
+        queue = new BoundedMpmcQueue<TalendThread>(numberOfThreads);
+        parked = new AtomicIntegerArray(numberOfThreads);
+        workers = new Thread[numberOfThreads];
+        for (int i = 0; i < workers.length; i++) {
+            final int index = i;
+            workers[i] = new Thread(new Runnable() {
+
+                public void run() {
+                    try {
+                        runWork(index);
+                    } catch (Exception x) {
+                        // in case ANY exception slips through
+                        x.printStackTrace();
+                    }
+                }
+            }, "TalendThreadPool-worker-" + nextWorkerID.getAndIncrement()); //$NON-NLS-1$
+            workers[i].start();
+        }
+    }
+
+    @Override
+    public void execute(TalendThread target) throws InterruptedException {
+        if (stopAllWorkers) {
+            return;
+        }
+        target.talendThreadPool = this;
+        if (!acquireWorker()) {
+            return;
+        }
+        // there is room for every pending thread, a slot may only be still in release by a worker
+        while (!queue.offer(target)) {
+            Thread.yield();
+        }
+        // the volatile write orders the offer before the read of the parked flags
+        queued.incrementAndGet();
+        wakeOneWorker();
+    }
+
+    /**
+     * wait until less than numberOfThreads threads are pending, and count the new one.
+     *
+     * @return false if the pool was stopped meanwhile
+     */
+    private boolean acquireWorker() throws InterruptedException {
+        Thread current = Thread.currentThread();
+        while (true) {
+            int count = pending.get();
+            if (count < workers.length) {
+                if (pending.compareAndSet(count, count + 1)) {
+                    return true;
+                }
+                continue;
+            }
+            submitters.add(current);
+            waitingSubmitters.incrementAndGet();
+            try {
+                // taskDone() decrements then unparks the submitters, checking again after add() can't miss it
+                if (!stopAllWorkers && pending.get() >= workers.length) {
+                    LockSupport.park(this);
+                }
+            } finally {
+                waitingSubmitters.decrementAndGet();
+                submitters.remove(current);
+            }
+            if (stopAllWorkers) {
+                return false;
+            }
+            if (Thread.interrupted()) {
+                throw new InterruptedException();
+            }
+        }
+    }
+
+    @Override
+    public void waitForEndOfQueue() {
+        endWaiter = Thread.currentThread();
+        while (!stopAllWorkers && pending.get() > 0) {
+            LockSupport.parkNanos(this, WAIT_PARK_NANOS);
+            if (Thread.interrupted()) {
+                break;
+            }
+        }
+        endWaiter = null;
+        shutdown = true;
+        joinWorkers();
+    }
+
+    @Override
+    public void stopAllWorkers() {
+        if (!stopAllWorkers) {
+            stopAllWorkers = true;
+            shutdown = true;
+            // the threads not started yet won't run
+            while (queue.poll() != null) {
+                queued.decrementAndGet();
+                taskDone();
+            }
+            for (Thread submitter : submitters) {
+                LockSupport.unpark(submitter);
+            }
+            for (int i = 0; i < workers.length; i++) {
+                workers[i].interrupt();
+            }
+            joinWorkers();
+        }
+    }
+
+    @Override
+    public TalendThread getErrorThread() {
+        return errorThread.get();
+    }
+
+    // only keep the first ErrorThread
+    @Override
+    public void setErrorThread(TalendThread errorThread) {
+        this.errorThread.compareAndSet(null, errorThread);
+    }
+
+    /**
+     * @return the number of threads waiting for a worker in execute(), as for TalendThreadPool. The threads already
+     * queued for a worker are in {@link #getPendingCount()}.
+     */
+    @Override
+    public int getQueueSize() {
+        return waitingSubmitters.get();
+    }
+
+    /**
+     * @return the number of threads given to execute() and not finished yet
+     */
+    public int getPendingCount() {
+        return pending.get();
+    }
+
+    private void runWork(int index) {
+        int spins = 0;
+        while (true) {
+            TalendThread target = queue.poll();
+            if (target != null) {
+                queued.decrementAndGet();
+                spins = 0;
+                runIt(target);
+                continue;
+            }
+            if (shutdown) {
+                return;
+            }
+            if (spins < IDLE_SPINS) {
+                spins++;
+                Thread.yield();
+                continue;
+            }
+            // announce the park before checking the queue again: either execute() sees the flag and unparks this
+            // worker, or this worker sees the count of execute()
+            parked.set(index, 1);
+            if (queued.get() == 0 && !shutdown) {
+                LockSupport.park(this);
+            }
+            parked.set(index, 0);
+        }
+    }
+
+    private void runIt(TalendThread target) {
+        try {
+            if (!stopAllWorkers) {
+                target.run();
+            }
+        } catch (Exception runex) {
+            runex.printStackTrace();
+        } finally {
+            Thread.interrupted();
+            taskDone();
+        }
+    }
+
+    private void taskDone() {
+        if (pending.decrementAndGet() == 0) {
+            Thread waiter = endWaiter;
+            if (waiter != null) {
+                LockSupport.unpark(waiter);
+            }
+        }
+        for (Thread submitter : submitters) {
+            LockSupport.unpark(submitter);
+        }
+    }
+
+    private void wakeOneWorker() {
+        for (int i = 0; i < workers.length; i++) {
+            if (parked.get(i) == 1 && parked.compareAndSet(i, 1, 0)) {
+                LockSupport.unpark(workers[i]);
+                return;
+            }
+        }
+    }
+
+    private void joinWorkers() {
+        Thread current = Thread.currentThread();
+        for (int i = 0; i < workers.length; i++) {
+            // stopAllWorkers() is called from a worker when its TalendThread fails
+            if (workers[i] == current) {
+                continue;
+            }
+            LockSupport.unpark(workers[i]);
+            try {
+                workers[i].join();
+            } catch (InterruptedException x) {
+                current.interrupt();
+                return;
+            }
+        }
+    }
+}
@@ -84,9 +84,62 @@ public class LogCatcherUtils {
     java.util.List<LogCatcherMessage> messages = java.util.Collections
             .synchronizedList(new java.util.ArrayList<LogCatcherMessage>());
 
+    // the bounded mode, instead of messages: a ring for the messages of each thread, see setCapacity
+    private volatile int capacity = Integer.getInteger(MessageRing.CAPACITY_PROPERTY, 0);
+
+    private volatile MessageRing.OverflowPolicy policy = MessageRing.configuredPolicy();
+
+    // only the thread itself adds to its ring, which is removed when getMessages() empties it
+    private final java.util.concurrent.ConcurrentHashMap<Long, MessageRing<LogCatcherMessage>> threadRings = new java.util.concurrent.ConcurrentHashMap<Long, MessageRing<LogCatcherMessage>>();
+
+    // the messages dropped by the removed rings
+    private final java.util.concurrent.atomic.LongAdder droppedByRemovedRings = new java.util.concurrent.atomic.LongAdder();
+
     public void addMessage(String type, String origin, int priority, String message, int code) {
         LogCatcherMessage lcm = new LogCatcherMessage(type, origin, priority, message, code);
-        messages.add(lcm);
+        if (capacity > 0) {
+            getThreadRing(lcm.getThreadId()).add(lcm);
+        } else {
+            messages.add(lcm);
+        }
+    }
+
+    private MessageRing<LogCatcherMessage> getThreadRing(Long threadId) {
+        MessageRing<LogCatcherMessage> ring = threadRings.get(threadId);
+        if (ring == null) {
+            ring = new MessageRing<LogCatcherMessage>(capacity, policy);
+            MessageRing<LogCatcherMessage> old = threadRings.putIfAbsent(threadId, ring);
+            if (old != null) {
+                ring = old;
+            }
+        }
+        return ring;
+    }
+
+    /**
+     * keep at most capacity messages of each thread until getMessages(), see {@link MessageRing}. The rings of the
+     * threads which already have messages are resized too.
+     */
+    public synchronized void setCapacity(int capacity, MessageRing.OverflowPolicy policy) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("Capacity < 1"); //$NON-NLS-1$
+        }
+        this.policy = policy;
+        this.capacity = capacity;
+        for (MessageRing<LogCatcherMessage> ring : threadRings.values()) {
+            ring.setCapacity(capacity, policy);
+        }
+    }
+
+    /**
+     * @return the number of messages dropped in the bounded mode
+     */
+    public long getDroppedMessages() {
+        long dropped = droppedByRemovedRings.sum();
+        for (MessageRing<LogCatcherMessage> ring : threadRings.values()) {
+            dropped += ring.getDroppedCount();
+        }
+        return dropped;
     }
 
     public java.util.List<LogCatcherMessage> getMessages() {
@@ -100,6 +153,15 @@ public class LogCatcherUtils {
             	}
             }
         }
+        Long threadId = Thread.currentThread().getId();
+        MessageRing<LogCatcherMessage> ring = threadRings.get(threadId);
+        if (ring != null) {
+            ring.drainTo(messagesToSend);
+            // the next message of the thread creates a new ring
+            if (ring.size() == 0 && threadRings.remove(threadId, ring)) {
+                droppedByRemovedRings.add(ring.getDroppedCount());
+            }
+        }
 
         return messagesToSend;
     }
@@ -0,0 +1,245 @@
+// ============================================================================
+//
+// Copyright (C) 2006-2019 Talend Inc. - www.talend.com
+//
+// This source code is available under agreement available at
+// %InstallDIR%\features\org.talend.rcp.branding.%PRODUCTNAME%\%PRODUCTNAME%license.txt
+//
+// You should have received a copy of the agreement
+// along with this program; if not, write to Talend SA
+// 9 rue Pages 92150 Suresnes, France
+//
+// ============================================================================
+package routines.system;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * Serializes {@link IPersistableLookupRow} keys and values into reusable byte arrays and reads them back from
+ * arbitrary regions of a {@link ByteBuffer}, so that lookup stores never keep a row object per entry.
+ *
+ * The object streams are created once and reused for every row. Each encoded object region starts with a
+ * TC_RESET marker, so the reading side clears its handle table before each row exactly like the writing side.
+ */
+class LookupRowCodec<R extends IPersistableLookupRow<R>> {
+
+    private final ExposedByteArrayOutputStream keyBytes = new ExposedByteArrayOutputStream();
+
+    private final ExposedByteArrayOutputStream dataBytes = new ExposedByteArrayOutputStream();
+
+    private final ExposedByteArrayOutputStream objectBytes = new ExposedByteArrayOutputStream();
+
+    private final ObjectOutputStream keysOut;
+
+    private final DataOutputStream dataOut;
+
+    private final ObjectOutputStream objectOut;
+
+    private final RegionInputStream keysRegion = new RegionInputStream();
+
+    private final RegionInputStream dataRegion = new RegionInputStream();
+
+    private final RegionInputStream objectRegion = new RegionInputStream();
+
+    private final ObjectInputStream keysIn;
+
+    private final DataInputStream dataIn;
+
+    private final ObjectInputStream objectIn;
+
+    LookupRowCodec() {
+        try {
+            keysOut = new NoHeaderObjectOutputStream(keyBytes);
+            dataOut = new DataOutputStream(dataBytes);
+            objectOut = new NoHeaderObjectOutputStream(objectBytes);
+            keysIn = new NoHeaderObjectInputStream(keysRegion);
+            dataIn = new DataInputStream(dataRegion);
+            objectIn = new NoHeaderObjectInputStream(objectRegion);
+        } catch (IOException e) {
+            // streams over memory can't fail here
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * encode only the keys of the row, used to build a probe.
+     */
+    void encodeKeys(R row) throws IOException {
+        keyBytes.reset();
+        keysOut.reset();
+        row.writeKeysData(keysOut);
+        keysOut.flush();
+    }
+
+    /**
+     * encode keys and values of the row.
+     */
+    void encode(R row) throws IOException {
+        encodeKeys(row);
+        dataBytes.reset();
+        objectBytes.reset();
+        objectOut.reset();
+        row.writeValuesData(dataOut, objectOut);
+        dataOut.flush();
+        objectOut.flush();
+    }
+
+    byte[] keyBuffer() {
+        return keyBytes.buffer();
+    }
+
+    int keyLength() {
+        return keyBytes.size();
+    }
+
+    byte[] dataBuffer() {
+        return dataBytes.buffer();
+    }
+
+    int dataLength() {
+        return dataBytes.size();
+    }
+
+    byte[] objectBuffer() {
+        return objectBytes.buffer();
+    }
+
+    int objectLength() {
+        return objectBytes.size();
+    }
+
+    int keyHash() {
+        return hash(keyBytes.buffer(), 0, keyBytes.size());
+    }
+
+    /**
+     * fill the row from an encoded record laid out as key, data and object regions starting at offset.
+     */
+    void decode(R row, ByteBuffer source, int offset, int keyLength, int dataLength, int objectLength)
+            throws IOException {
+        keysRegion.reset(source, offset, keyLength);
+        row.readKeysData(keysIn);
+        offset += keyLength;
+        dataRegion.reset(source, offset, dataLength);
+        objectRegion.reset(source, offset + dataLength, objectLength);
+        row.readValuesData(dataIn, objectIn);
+    }
+
+    /**
+     * fill only the keys of the row.
+     */
+    void decodeKeys(R row, ByteBuffer source, int offset, int keyLength) throws IOException {
+        keysRegion.reset(source, offset, keyLength);
+        row.readKeysData(keysIn);
+    }
+
+    static int hash(byte[] bytes, int offset, int length) {
+        // FNV-1a, then a final avalanche so that low bits are usable as a table index
+        int h = 0x811c9dc5;
+        for (int i = offset; i < offset + length; i++) {
+            h ^= bytes[i];
+            h *= 0x01000193;
+        }
+        h ^= h >>> 16;
+        h *= 0x85ebca6b;
+        h ^= h >>> 13;
+        return h;
+    }
+
+    /**
+     * compare the bytes of the region against the probe, as unsigned bytes.
+     */
+    static int compare(ByteBuffer source, int offset, int length, byte[] probe, int probeLength) {
+        int n = Math.min(length, probeLength);
+        for (int i = 0; i < n; i++) {
+            int cmp = (source.get(offset + i) & 0xff) - (probe[i] & 0xff);
+            if (cmp != 0) {
+                return cmp;
+            }
+        }
+        return length - probeLength;
+    }
+
+    static int compare(ByteBuffer left, int leftOffset, int leftLength, ByteBuffer right, int rightOffset,
+            int rightLength) {
+        int n = Math.min(leftLength, rightLength);
+        for (int i = 0; i < n; i++) {
+            int cmp = (left.get(leftOffset + i) & 0xff) - (right.get(rightOffset + i) & 0xff);
+            if (cmp != 0) {
+                return cmp;
+            }
+        }
+        return leftLength - rightLength;
+    }
+
+    static class ExposedByteArrayOutputStream extends ByteArrayOutputStream {
+
+        ExposedByteArrayOutputStream() {
+            super(256);
+        }
+
+        byte[] buffer() {
+            return buf;
+        }
+    }
+
+    /**
+     * an InputStream over a region of a ByteBuffer, which can be moved to another region without allocation.
+     */
+    static class RegionInputStream extends InputStream {
+
+        private ByteBuffer source;
+
+        private ByteBuffer view;
+
+        private int position;
+
+        private int limit;
+
+        void reset(ByteBuffer source, int offset, int length) {
+            if (this.source != source) {
+                this.source = source;
+                this.view = source.duplicate();
+                this.view.clear();
+            }
+            this.position = offset;
+            this.limit = offset + length;
+        }
+
+        @Override
+        public int read() {
+            if (position >= limit) {
+                return -1;
+            }
+            return source.get(position++) & 0xff;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) {
+            if (len == 0) {
+                return 0;
+            }
+            int n = Math.min(len, limit - position);
+            if (n <= 0) {
+                return -1;
+            }
+            view.limit(position + n);
+            view.position(position);
+            view.get(b, off, n);
+            position += n;
+            return n;
+        }
+
+        @Override
+        public int available() {
+            return limit - position;
+        }
+    }
+}
@@ -29,6 +29,9 @@ public class MRRunStat implements Runnable {
 
     protected java.io.PrintWriter pred;
 
+    // the binary protocol, instead of pred
+    protected StatsCodec codec;
+
     private boolean jobIsFinished = false;
 
     private List<StatBean> messages = new ArrayList<>();
@@ -124,6 +127,15 @@ public class MRRunStat implements Runnable {
             return this.groupID + "|" + this.mrJobID + "|" + this.mapProgress + "|" + this.reduceProgress;
         }
 
+        void encode(StatsCodec codec) {
+            codec.beginRecord(StatsCodec.MR_PROGRESS, null);
+            codec.writeLong(this.groupID);
+            codec.writeLong(this.mrJobID);
+            codec.writeFloat(this.mapProgress);
+            codec.writeFloat(this.reduceProgress);
+            codec.endRecord();
+        }
+
     }
 
     public StatBean createStatBean() {
@@ -151,7 +163,20 @@ public class MRRunStat implements Runnable {
         if (debug) {
             output = System.out;
         }
-        pred = new java.io.PrintWriter(new java.io.BufferedWriter(new java.io.OutputStreamWriter(output)), true);
+        if (isConnect && !debug && StatsCodec.isEnabled()) {
+            codec = new StatsCodec(new StatsSink.StreamSink(output));
+        } else {
+            pred = new java.io.PrintWriter(new java.io.BufferedWriter(new java.io.OutputStreamWriter(output)));
+        }
+        Thread t = new Thread(this);
+        t.start();
+    }
+
+    /**
+     * send the statistics to the sink with the binary protocol of {@link StatsCodec}.
+     */
+    public void startThreadStat(StatsSink sink) {
+        codec = new StatsCodec(sink);
         Thread t = new Thread(this);
         t.start();
     }
@@ -176,6 +201,9 @@ public class MRRunStat implements Runnable {
         jobIsFinished = true;
         try {
             sendMessages();
+            if (codec != null) {
+                codec.close();
+            }
             if (pred != null) {
                 pred.close();
             }
@@ -189,9 +217,29 @@ public class MRRunStat implements Runnable {
 
     public void sendMessages() {
         for (StatBean message : messages) {
-            pred.println(message.toStatFormat());
+            if (codec != null) {
+                message.encode(codec);
+            } else {
+                pred.println(message.toStatFormat());
+            }
         }
         messages.clear();
+        flushMessages();
+    }
+
+    /**
+     * send the messages of this tick at once.
+     */
+    protected void flushMessages() {
+        if (codec != null) {
+            try {
+                codec.flush();
+            } catch (java.io.IOException e) {
+                // ignored, as the PrintWriter of the text messages does
+            }
+        } else {
+            pred.flush();
+        }
     }
 
     public synchronized void updateMRProgress(StatBean message) {
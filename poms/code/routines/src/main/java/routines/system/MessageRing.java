@@ -0,0 +1,151 @@
+// ============================================================================
+//
+// Copyright (C) 2006-2019 Talend Inc. - www.talend.com
+//
+// This source code is available under agreement available at
+// %InstallDIR%\features\org.talend.rcp.branding.%PRODUCTNAME%\%PRODUCTNAME%license.txt
+//
+// You should have received a copy of the agreement
+// along with this program; if not, write to Talend SA
+// 9 rue Pages 92150 Suresnes, France
+//
+// ============================================================================
+package routines.system;
+
+import java.util.List;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * The bounded mode of the catchers (StatCatcherUtils, MetterCatcherUtils and LogCatcherUtils): the messages are kept
+ * in a lock-free ring until they are read, and the ring never holds more than its capacity.
+ *
+ * When it is full, a new message is dropped, or replaces the oldest one, and counted as dropped. The catchers use this
+ * mode when the system property "talend.catcher.capacity" is set, with the policy of "talend.catcher.overflow" ("drop"
+ * by default, or "overwrite"), or after setCapacity.
+ */
+public final class MessageRing<E> {
+
+    public static final String CAPACITY_PROPERTY = "talend.catcher.capacity"; //$NON-NLS-1$
+
+    public static final String OVERFLOW_PROPERTY = "talend.catcher.overflow"; //$NON-NLS-1$
+
+    public enum OverflowPolicy {
+        DROP_NEWEST,
+        OVERWRITE_OLDEST
+    }
+
+    private volatile BoundedMpmcQueue<E> queue;
+
+    // the queue replaced by setCapacity, for the messages added to it while it was replaced
+    private volatile BoundedMpmcQueue<E> previousQueue;
+
+    private volatile OverflowPolicy policy;
+
+    private final LongAdder dropped = new LongAdder();
+
+    /**
+     * @param capacity rounded up to a power of 2
+     */
+    public MessageRing(int capacity, OverflowPolicy policy) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("Capacity < 1"); //$NON-NLS-1$
+        }
+        this.queue = new BoundedMpmcQueue<E>(capacity);
+        this.policy = policy;
+    }
+
+    /**
+     * @return the ring configured by the system properties, null if the catchers are not bounded
+     */
+    static <E> MessageRing<E> fromSystemProperties() {
+        int capacity = Integer.getInteger(CAPACITY_PROPERTY, 0);
+        if (capacity <= 0) {
+            return null;
+        }
+        return new MessageRing<E>(capacity, configuredPolicy());
+    }
+
+    static OverflowPolicy configuredPolicy() {
+        return "overwrite".equalsIgnoreCase(System.getProperty(OVERFLOW_PROPERTY)) ? OverflowPolicy.OVERWRITE_OLDEST //$NON-NLS-1$
+                : OverflowPolicy.DROP_NEWEST;
+    }
+
+    public void add(E message) {
+        BoundedMpmcQueue<E> queue = this.queue;
+        if (queue.offer(message)) {
+            return;
+        }
+        if (policy == OverflowPolicy.DROP_NEWEST) {
+            dropped.increment();
+            return;
+        }
+        do {
+            if (queue.poll() != null) {
+                dropped.increment();
+            }
+        } while (!queue.offer(message));
+    }
+
+    /**
+     * move the messages to the list, the oldest first. The messages added meanwhile may be left for the next call.
+     */
+    public void drainTo(List<? super E> messages) {
+        BoundedMpmcQueue<E> previous = previousQueue;
+        if (previous != null) {
+            drainTo(previous, messages);
+        }
+        drainTo(queue, messages);
+    }
+
+    private static <E> void drainTo(BoundedMpmcQueue<E> queue, List<? super E> messages) {
+        for (int n = queue.capacity(); n > 0; n--) {
+            E message = queue.poll();
+            if (message == null) {
+                return;
+            }
+            messages.add(message);
+        }
+    }
+
+    /**
+     * change the capacity and the policy. The messages kept are added again to the new ring, the oldest first, so
+     * they are only dropped if they don't fit in it.
+     */
+    public synchronized void setCapacity(int capacity, OverflowPolicy policy) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("Capacity < 1"); //$NON-NLS-1$
+        }
+        BoundedMpmcQueue<E> older = previousQueue;
+        BoundedMpmcQueue<E> old = queue;
+        this.policy = policy;
+        queue = new BoundedMpmcQueue<E>(capacity);
+        previousQueue = old;
+        if (older != null) {
+            moveAll(older);
+        }
+        moveAll(old);
+    }
+
+    private void moveAll(BoundedMpmcQueue<E> from) {
+        E message;
+        while ((message = from.poll()) != null) {
+            add(message);
+        }
+    }
+
+    public int size() {
+        BoundedMpmcQueue<E> previous = previousQueue;
+        return queue.size() + (previous == null ? 0 : previous.size());
+    }
+
+    public int capacity() {
+        return queue.capacity();
+    }
+
+    /**
+     * @return the number of messages dropped or overwritten
+     */
+    public long getDroppedCount() {
+        return dropped.sum();
+    }
+}
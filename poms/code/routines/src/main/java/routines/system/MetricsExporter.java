@@ -0,0 +1,194 @@
+// ============================================================================
+//
+// Copyright (C) 2006-2019 Talend Inc. - www.talend.com
+//
+// This source code is available under agreement available at
+// %InstallDIR%\features\org.talend.rcp.branding.%PRODUCTNAME%\%PRODUCTNAME%license.txt
+//
+// You should have received a copy of the agreement
+// along with this program; if not, write to Talend SA
+// 9 rue Pages 92150 Suresnes, France
+//
+// ============================================================================
+package routines.system;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Publishes the metrics of a {@link MetricsRegistry} in the OpenMetrics text format, to a file rewritten periodically
+ * or on http://localhost:port/metrics.
+ */
+public class MetricsExporter implements Closeable {
+
+    public static final String CONTENT_TYPE = "application/openmetrics-text; version=1.0.0; charset=utf-8"; //$NON-NLS-1$
+
+    private Thread fileWriter;
+
+    private volatile boolean closed = false;
+
+    private HttpServer server;
+
+    private ExecutorService serverExecutor;
+
+    private MetricsExporter() {
+    }
+
+    /**
+     * rewrite the file with the metrics every periodMillis, and at close. The file is replaced at once when the file
+     * system can, a reader never sees half of it. A failed write is logged and tried again at the next period.
+     */
+    public static MetricsExporter toFile(final MetricsRegistry registry, String fileName, final long periodMillis) {
+        final MetricsExporter exporter = new MetricsExporter();
+        final File file = new File(fileName);
+        exporter.fileWriter = new Thread(new Runnable() {
+
+            public void run() {
+                try {
+                    while (!exporter.closed) {
+                        tryWriteFile(registry, file);
+                        synchronized (exporter) {
+                            if (!exporter.closed) {
+                                exporter.wait(periodMillis);
+                            }
+                        }
+                    }
+                } catch (InterruptedException e) {
+                    // stopped
+                }
+                tryWriteFile(registry, file);
+            }
+        }, "MetricsExporter-" + file.getName()); //$NON-NLS-1$
+        exporter.fileWriter.setDaemon(true);
+        exporter.fileWriter.start();
+        return exporter;
+    }
+
+    private static void tryWriteFile(MetricsRegistry registry, File file) {
+        try {
+            writeFile(registry, file);
+        } catch (IOException e) {
+            System.err.println("[metrics] " + e.getMessage()); //$NON-NLS-1$
+        }
+    }
+
+    private static void writeFile(MetricsRegistry registry, File file) throws IOException {
+        File directory = file.getAbsoluteFile().getParentFile();
+        File temp = File.createTempFile(file.getName(), ".tmp", directory); //$NON-NLS-1$
+        try {
+            OutputStream out = new FileOutputStream(temp);
+            try {
+                out.write(registry.toOpenMetrics().getBytes(StandardCharsets.UTF_8));
+            } finally {
+                out.close();
+            }
+            try {
+                Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                        StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            }
+        } finally {
+            temp.delete();
+        }
+    }
+
+    /**
+     * serve the metrics on the loopback address only, from a daemon thread which doesn't keep the job running.
+     *
+     * @param port 0 for any free port, see {@link #getPort()}
+     */
+    public static MetricsExporter toHttp(final MetricsRegistry registry, int port) throws IOException {
+        final MetricsExporter exporter = new MetricsExporter();
+        exporter.server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+        // the exchanges are handled by a daemon thread, which also starts the server: the dispatcher thread of the
+        // server is created by start() and is a daemon only if the thread calling it is one
+        exporter.serverExecutor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "MetricsExporter-http"); //$NON-NLS-1$
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        exporter.server.setExecutor(exporter.serverExecutor);
+        exporter.server.createContext("/metrics", new HttpHandler() { //$NON-NLS-1$
+
+            public void handle(HttpExchange exchange) throws IOException {
+                try {
+                    byte[] body = registry.toOpenMetrics().getBytes(StandardCharsets.UTF_8);
+                    exchange.getResponseHeaders().set("Content-Type", CONTENT_TYPE); //$NON-NLS-1$
+                    exchange.sendResponseHeaders(200, body.length);
+                    OutputStream out = exchange.getResponseBody();
+                    out.write(body);
+                    out.close();
+                } finally {
+                    exchange.close();
+                }
+            }
+        });
+        try {
+            exporter.serverExecutor.submit(new Callable<Void>() {
+
+                public Void call() {
+                    exporter.server.start();
+                    return null;
+                }
+            }).get();
+        } catch (InterruptedException e) {
+            exporter.serverExecutor.shutdown();
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while starting the server", e); //$NON-NLS-1$
+        } catch (ExecutionException e) {
+            exporter.serverExecutor.shutdown();
+            throw new IOException(e.getCause());
+        }
+        return exporter;
+    }
+
+    /**
+     * @return the port of the http server, -1 for a file
+     */
+    public int getPort() {
+        return server == null ? -1 : server.getAddress().getPort();
+    }
+
+    /**
+     * stop the export, the file is written a last time.
+     */
+    public void close() {
+        closed = true;
+        if (server != null) {
+            server.stop(0);
+            serverExecutor.shutdown();
+        }
+        if (fileWriter != null) {
+            synchronized (this) {
+                notifyAll();
+            }
+            try {
+                fileWriter.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+}
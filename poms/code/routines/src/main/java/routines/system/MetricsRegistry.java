@@ -0,0 +1,478 @@
+// ============================================================================
+//
+// Copyright (C) 2006-2019 Talend Inc. - www.talend.com
+//
+// This source code is available under agreement available at
+// %InstallDIR%\features\org.talend.rcp.branding.%PRODUCTNAME%\%PRODUCTNAME%license.txt
+//
+// You should have received a copy of the agreement
+// along with this program; if not, write to Talend SA
+// 9 rue Pages 92150 Suresnes, France
+//
+// ============================================================================
+package routines.system;
+
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.DoubleSupplier;
+
+/**
+ * The metrics of a job: counters, latency timers and gauges, written in the OpenMetrics text format by
+ * {@link #writeOpenMetrics(StringBuilder)}, see {@link MetricsExporter}.
+ *
+ * A metric is a family of series with the same name and at most one label, such as the rows of each connection. The
+ * counters are also written as a rate per second since the previous export. The timers keep a log-linear histogram of
+ * the durations, like HdrHistogram with 16 sub-buckets per power of 2, and are written as summaries with percentiles.
+ *
+ * Getting a metric takes a lock, the returned Counter or Timer should be kept: counting and timing don't lock.
+ */
+public final class MetricsRegistry {
+
+    private static final MetricsRegistry DEFAULT = new MetricsRegistry();
+
+    private static final String COUNTER = "counter"; //$NON-NLS-1$
+
+    private static final String GAUGE = "gauge"; //$NON-NLS-1$
+
+    private static final String SUMMARY = "summary"; //$NON-NLS-1$
+
+    private static final double[] QUANTILES = { 0.5, 0.9, 0.99, 0.999 };
+
+    private final Map<String, Family> families = new LinkedHashMap<String, Family>();
+
+    /**
+     * @return the registry of the JVM
+     */
+    public static MetricsRegistry getDefault() {
+        return DEFAULT;
+    }
+
+    private static class Family {
+
+        private final String name;
+
+        private final String help;
+
+        private final String type;
+
+        private final String labelName;
+
+        private final Map<String, Series> series = new LinkedHashMap<String, Series>();
+
+        Family(String name, String help, String type, String labelName) {
+            this.name = name;
+            this.help = help;
+            this.type = type;
+            this.labelName = labelName;
+        }
+    }
+
+    private abstract static class Series {
+
+        private final String labelValue;
+
+        // the value and the time of the previous export, for the rates
+        private double lastValue = 0;
+
+        private long lastTime = System.nanoTime();
+
+        Series(String labelValue) {
+            this.labelValue = labelValue;
+        }
+
+        abstract double getValue();
+    }
+
+    public static final class Counter extends Series {
+
+        private final LongAdder count = new LongAdder();
+
+        private Counter(String labelValue) {
+            super(labelValue);
+        }
+
+        public void increment() {
+            count.increment();
+        }
+
+        public void add(long n) {
+            count.add(n);
+        }
+
+        public long get() {
+            return count.sum();
+        }
+
+        @Override
+        double getValue() {
+            return count.sum();
+        }
+    }
+
+    private static final class FunctionSeries extends Series {
+
+        private final DoubleSupplier value;
+
+        FunctionSeries(String labelValue, DoubleSupplier value) {
+            super(labelValue);
+            this.value = value;
+        }
+
+        @Override
+        double getValue() {
+            return value.getAsDouble();
+        }
+    }
+
+    /**
+     * The durations of a task, such as the processing of a row by a component, in nanoseconds.
+     */
+    public static final class Timer extends Series {
+
+        // the values below 16 have their own bucket, then 16 buckets for each power of 2
+        private static final int SUB_BUCKET_BITS = 4;
+
+        private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+
+        private final AtomicLongArray buckets = new AtomicLongArray((64 - SUB_BUCKET_BITS + 1) * SUB_BUCKETS);
+
+        private final LongAdder totalNanos = new LongAdder();
+
+        private Timer(String labelValue) {
+            super(labelValue);
+        }
+
+        /**
+         * @return the start time to give to stop()
+         */
+        public long start() {
+            return System.nanoTime();
+        }
+
+        public void stop(long startTime) {
+            record(System.nanoTime() - startTime);
+        }
+
+        public void record(long nanos) {
+            if (nanos < 0) {
+                nanos = 0;
+            }
+            buckets.incrementAndGet(bucketIndex(nanos));
+            totalNanos.add(nanos);
+        }
+
+        static int bucketIndex(long value) {
+            if (value < SUB_BUCKETS) {
+                return (int) value;
+            }
+            int exponent = 63 - Long.numberOfLeadingZeros(value);
+            int subBucket = (int) (value >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+            return (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + subBucket;
+        }
+
+        // the middle of the values of the bucket
+        static long bucketValue(int index) {
+            if (index < SUB_BUCKETS) {
+                return index;
+            }
+            int shift = index / SUB_BUCKETS - 1;
+            long lowest = (long) (SUB_BUCKETS + index % SUB_BUCKETS) << shift;
+            return lowest + ((1L << shift) >>> 1);
+        }
+
+        public long getCount() {
+            long count = 0;
+            for (int i = 0; i < buckets.length(); i++) {
+                count += buckets.get(i);
+            }
+            return count;
+        }
+
+        public long getTotalNanos() {
+            return totalNanos.sum();
+        }
+
+        /**
+         * @param quantile between 0 and 1
+         * @return the duration at the quantile, 0 without durations
+         */
+        public long getPercentile(double quantile) {
+            return getPercentiles(new double[] { quantile })[0];
+        }
+
+        long[] getPercentiles(double[] quantiles) {
+            long[] counts = new long[buckets.length()];
+            long count = 0;
+            for (int i = 0; i < counts.length; i++) {
+                counts[i] = buckets.get(i);
+                count += counts[i];
+            }
+            long[] values = new long[quantiles.length];
+            if (count == 0) {
+                return values;
+            }
+            for (int q = 0; q < quantiles.length; q++) {
+                long rank = Math.max(1, (long) Math.ceil(quantiles[q] * count));
+                long seen = 0;
+                for (int i = 0; i < counts.length; i++) {
+                    seen += counts[i];
+                    if (seen >= rank) {
+                        values[q] = bucketValue(i);
+                        break;
+                    }
+                }
+            }
+            return values;
+        }
+
+        @Override
+        double getValue() {
+            return getCount();
+        }
+    }
+
+    /**
+     * @param labelName null for a metric without label
+     */
+    public synchronized Counter counter(String name, String help, String labelName, String labelValue) {
+        Family family = getFamily(name, help, COUNTER, labelName);
+        Series series = family.series.get(labelValue);
+        if (series == null) {
+            series = new Counter(labelValue);
+            family.series.put(labelValue, series);
+        } else if (!(series instanceof Counter)) {
+            throw new IllegalArgumentException("Not a counter: " + name); //$NON-NLS-1$
+        }
+        return (Counter) series;
+    }
+
+    public synchronized Timer timer(String name, String help, String labelName, String labelValue) {
+        Family family = getFamily(name, help, SUMMARY, labelName);
+        Series series = family.series.get(labelValue);
+        if (series == null) {
+            series = new Timer(labelValue);
+            family.series.put(labelValue, series);
+        }
+        return (Timer) series;
+    }
+
+    /**
+     * register a counter whose value is read at each export, such as the rows of a RunStat connection.
+     */
+    public synchronized void counter(String name, String help, String labelName, String labelValue,
+            DoubleSupplier value) {
+        getFamily(name, help, COUNTER, labelName).series.put(labelValue, new FunctionSeries(labelValue, value));
+    }
+
+    /**
+     * register a value read at each export.
+     */
+    public synchronized void gauge(String name, String help, String labelName, String labelValue, DoubleSupplier value) {
+        getFamily(name, help, GAUGE, labelName).series.put(labelValue, new FunctionSeries(labelValue, value));
+    }
+
+    public synchronized void remove(String name, String labelValue) {
+        Family family = families.get(name);
+        if (family != null) {
+            family.series.remove(labelValue);
+        }
+    }
+
+    private Family getFamily(String name, String help, String type, String labelName) {
+        Family family = families.get(name);
+        if (family == null) {
+            family = new Family(name, help, type, labelName);
+            families.put(name, family);
+        } else if (!family.type.equals(type)) {
+            throw new IllegalArgumentException("The metric " + name + " is a " + family.type); //$NON-NLS-1$ //$NON-NLS-2$
+        }
+        return family;
+    }
+
+    /**
+     * register the depth of the queue of a pool, see {@link TalendThreadPool#getQueueSize()}.
+     */
+    public void registerThreadPool(String poolName, final TalendThreadPool pool) {
+        gauge("talend_thread_pool_queue_depth", "Threads waiting for a worker of the pool", "pool", poolName, //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+                new DoubleSupplier() {
+
+                    public double getAsDouble() {
+                        return pool.getQueueSize();
+                    }
+                });
+    }
+
+    /**
+     * register the garbage collections, the heap and the bytes allocated by the live threads.
+     */
+    public void registerJvmMetrics() {
+        for (final GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+            counter("talend_jvm_gc_collections", "Garbage collections", "gc", gc.getName(), new DoubleSupplier() { //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+
+                public double getAsDouble() {
+                    return gc.getCollectionCount();
+                }
+            });
+            counter("talend_jvm_gc_seconds", "Time spent in garbage collections", "gc", gc.getName(), //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+                    new DoubleSupplier() {
+
+                        public double getAsDouble() {
+                            return gc.getCollectionTime() / 1000.0;
+                        }
+                    });
+        }
+        final MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+        gauge("talend_jvm_heap_used_bytes", "Used heap", null, null, new DoubleSupplier() { //$NON-NLS-1$ //$NON-NLS-2$
+
+            public double getAsDouble() {
+                return memory.getHeapMemoryUsage().getUsed();
+            }
+        });
+        final ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        if (threads instanceof com.sun.management.ThreadMXBean
+                && ((com.sun.management.ThreadMXBean) threads).isThreadAllocatedMemorySupported()) {
+            gauge("talend_jvm_allocated_bytes", "Bytes allocated by the live threads", null, null, //$NON-NLS-1$ //$NON-NLS-2$
+                    new DoubleSupplier() {
+
+                        public double getAsDouble() {
+                            long[] allocated = ((com.sun.management.ThreadMXBean) threads)
+                                    .getThreadAllocatedBytes(threads.getAllThreadIds());
+                            long total = 0;
+                            for (long bytes : allocated) {
+                                if (bytes > 0) {
+                                    total += bytes;
+                                }
+                            }
+                            return total;
+                        }
+                    });
+        }
+    }
+
+    /**
+     * write the metrics in the OpenMetrics text format, ended by "# EOF".
+     */
+    public void writeOpenMetrics(StringBuilder out) {
+        List<Family> snapshot;
+        synchronized (this) {
+            snapshot = new ArrayList<Family>(families.size());
+            for (Family family : families.values()) {
+                Family copy = new Family(family.name, family.help, family.type, family.labelName);
+                copy.series.putAll(family.series);
+                snapshot.add(copy);
+            }
+        }
+        long now = System.nanoTime();
+        for (Family family : snapshot) {
+            if (family.series.isEmpty()) {
+                continue;
+            }
+            writeHeader(out, family.name, family.type, family.help);
+            if (SUMMARY.equals(family.type)) {
+                writeSummary(out, family);
+                continue;
+            }
+            String sampleName = COUNTER.equals(family.type) ? family.name + "_total" : family.name; //$NON-NLS-1$
+            List<double[]> rates = new ArrayList<double[]>();
+            for (Series series : family.series.values()) {
+                double value = series.getValue();
+                writeSample(out, sampleName, family.labelName, series.labelValue, null, value);
+                if (COUNTER.equals(family.type)) {
+                    synchronized (series) {
+                        double seconds = (now - series.lastTime) / 1e9;
+                        rates.add(new double[] { seconds > 0 ? (value - series.lastValue) / seconds : 0 });
+                        series.lastValue = value;
+                        series.lastTime = now;
+                    }
+                }
+            }
+            if (!rates.isEmpty()) {
+                String rateName = family.name + "_per_second"; //$NON-NLS-1$
+                writeHeader(out, rateName, GAUGE, family.help + " per second, since the previous export"); //$NON-NLS-1$
+                int i = 0;
+                for (Series series : family.series.values()) {
+                    writeSample(out, rateName, family.labelName, series.labelValue, null, rates.get(i++)[0]);
+                }
+            }
+        }
+        out.append("# EOF\n"); //$NON-NLS-1$
+    }
+
+    public String toOpenMetrics() {
+        StringBuilder out = new StringBuilder();
+        writeOpenMetrics(out);
+        return out.toString();
+    }
+
+    private static void writeSummary(StringBuilder out, Family family) {
+        for (Series series : family.series.values()) {
+            Timer timer = (Timer) series;
+            long[] percentiles = timer.getPercentiles(QUANTILES);
+            for (int i = 0; i < QUANTILES.length; i++) {
+                writeSample(out, family.name, family.labelName, series.labelValue, String.valueOf(QUANTILES[i]),
+                        percentiles[i] / 1e9);
+            }
+            writeSample(out, family.name + "_sum", family.labelName, series.labelValue, null, timer.getTotalNanos() / 1e9); //$NON-NLS-1$
+            writeSample(out, family.name + "_count", family.labelName, series.labelValue, null, timer.getCount()); //$NON-NLS-1$
+        }
+    }
+
+    private static void writeHeader(StringBuilder out, String name, String type, String help) {
+        out.append("# TYPE ").append(name).append(' ').append(type).append('\n'); //$NON-NLS-1$
+        if (help != null) {
+            out.append("# HELP ").append(name).append(' '); //$NON-NLS-1$
+            escape(out, help, false);
+            out.append('\n');
+        }
+    }
+
+    private static void writeSample(StringBuilder out, String name, String labelName, String labelValue,
+            String quantile, double value) {
+        out.append(name);
+        if (labelName != null || quantile != null) {
+            out.append('{');
+            if (labelName != null) {
+                out.append(labelName).append("=\""); //$NON-NLS-1$
+                escape(out, String.valueOf(labelValue), true);
+                out.append('"');
+            }
+            if (quantile != null) {
+                if (labelName != null) {
+                    out.append(',');
+                }
+                out.append("quantile=\"").append(quantile).append('"'); //$NON-NLS-1$
+            }
+            out.append('}');
+        }
+        out.append(' ');
+        if (value == (long) value) {
+            out.append((long) value);
+        } else {
+            out.append(value);
+        }
+        out.append('\n');
+    }
+
+    private static void escape(StringBuilder out, String text, boolean quote) {
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (c == '\\') {
+                out.append("\\\\"); //$NON-NLS-1$
+            } else if (c == '\n') {
+                out.append("\\n"); //$NON-NLS-1$
+            } else if (c == '"' && quote) {
+                out.append("\\\""); //$NON-NLS-1$
+            } else {
+                out.append(c);
+            }
+        }
+    }
+}
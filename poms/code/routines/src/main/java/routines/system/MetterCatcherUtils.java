@@ -24,8 +24,8 @@ package routines.system;
 import java.lang.management.ManagementFactory;
 import java.lang.management.RuntimeMXBean;
 import java.util.Date;
-import java.util.HashMap;
-import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
 
 public class MetterCatcherUtils {
 
@@ -139,6 +139,9 @@ public class MetterCatcherUtils {
     java.util.List<MetterCatcherMessage> messages = java.util.Collections
             .synchronizedList(new java.util.ArrayList<MetterCatcherMessage>());
 
+    // the bounded mode, instead of messages, see setCapacity
+    private volatile MessageRing<MetterCatcherMessage> ring = MessageRing.fromSystemProperties();
+
     String jobId = ""; //$NON-NLS-1$
 
     String jobVersion = ""; //$NON-NLS-1$
@@ -152,7 +155,12 @@ public class MetterCatcherUtils {
 
         MetterCatcherMessage scm = new MetterCatcherMessage(label, count, referense, thresholds, origin, this.jobVersion,
                 this.jobId);
-        messages.add(scm);
+        MessageRing<MetterCatcherMessage> ring = this.ring;
+        if (ring != null) {
+            ring.add(scm);
+        } else {
+            messages.add(scm);
+        }
     }
 
     public java.util.List<MetterCatcherMessage> getMessages() {
@@ -164,26 +172,57 @@ public class MetterCatcherUtils {
             }
             messages.clear();
         }
+        MessageRing<MetterCatcherMessage> ring = this.ring;
+        if (ring != null) {
+            ring.drainTo(messagesToSend);
+        }
         return messagesToSend;
     }
 
-    private Map<String, Integer> connCountMap = java.util.Collections.synchronizedMap(new HashMap<String, Integer>());
+    /**
+     * keep at most capacity messages until getMessages(), see {@link MessageRing}. The messages already kept are not
+     * lost, unless they don't fit in the new capacity.
+     */
+    public synchronized void setCapacity(int capacity, MessageRing.OverflowPolicy policy) {
+        if (ring == null) {
+            ring = new MessageRing<MetterCatcherMessage>(capacity, policy);
+        } else {
+            ring.setCapacity(capacity, policy);
+        }
+    }
+
+    /**
+     * @return the number of messages dropped in the bounded mode
+     */
+    public long getDroppedMessages() {
+        MessageRing<MetterCatcherMessage> ring = this.ring;
+        return ring == null ? 0 : ring.getDroppedCount();
+    }
+
+    // the lines of each connection, counted without lock
+    private final ConcurrentHashMap<String, LongAdder> connCountMap = new ConcurrentHashMap<String, LongAdder>();
 
     public void clearConnCountMap() {
         connCountMap.clear();
     }
 
     public void addLineToRow(String connName) {
-        if (connCountMap.containsKey(connName)) {
-            Integer count = this.connCountMap.get(connName);
-            this.connCountMap.put(connName, new Integer(count.intValue() + 1));
-        } else {
-            this.connCountMap.put(connName, new Integer(1));
+        LongAdder count = this.connCountMap.get(connName);
+        if (count == null) {
+            count = this.connCountMap.computeIfAbsent(connName,
+                    new java.util.function.Function<String, LongAdder>() {
+
+                        public LongAdder apply(String name) {
+                            return new LongAdder();
+                        }
+                    });
         }
+        count.increment();
     }
 
     public Integer getConnLinesCount(String connName) {
-        return this.connCountMap.get(connName);
+        LongAdder count = this.connCountMap.get(connName);
+        return count == null ? null : Integer.valueOf(count.intValue());
     }
 
     public static long getPid() {
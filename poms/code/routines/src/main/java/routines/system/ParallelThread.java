@@ -91,6 +91,9 @@ public class ParallelThread extends Thread {
 
     public synchronized void clearBuffer() {
         clear();
+        if (batchBuffer != null) {
+            batchBuffer.clear();
+        }
     }
 
     /**
@@ -116,6 +119,69 @@ public class ParallelThread extends Thread {
         this.set(buffer);
     }
 
+    // batch mode: rows are handed off by batches through a ring instead of one buffer at a time
+    private RowBatchBuffer batchBuffer = null;
+
+    public static final int DEFAULT_BATCH_SIZE = 1000;
+
+    public static final int DEFAULT_BATCH_COUNT = 4;
+
+    /**
+     * Switch to batch mode, to be called before the thread is started.
+     *
+     * @param batchSize number of rows per batch
+     * @param batchCount number of batches the producer can publish ahead of the ParallelThread
+     */
+    public void enableBatchBuffer(int batchSize, int batchCount) {
+        this.batchBuffer = new RowBatchBuffer(batchSize, batchCount);
+    }
+
+    public boolean isBatchBufferEnabled() {
+        return this.batchBuffer != null;
+    }
+
+    /**
+     * @return the size of the array to give to pollRows()
+     */
+    public int getBatchSize() {
+        return this.batchBuffer.getBatchSize();
+    }
+
+    /**
+     * Add a row to the current batch, the batch is handed off when full. Be called by main thread.
+     *
+     * @param row
+     * @throws InterruptedException
+     */
+    public void putRow(Object row) throws InterruptedException {
+        this.batchBuffer.add(row);
+    }
+
+    /**
+     * Hand off the current batch even if not full. Be called by main thread.
+     */
+    public void flushRows() {
+        this.batchBuffer.flush();
+    }
+
+    /**
+     * Hand off the current batch and mark the end of the rows. Be called by main thread.
+     */
+    public void endRows() {
+        this.batchBuffer.end();
+    }
+
+    /**
+     * Waiting for a batch and copy its rows. Be called by ParallelThread.
+     *
+     * @param rows an array of getBatchSize() rows at least
+     * @return the number of rows copied, -1 when all the rows have been read
+     * @throws InterruptedException
+     */
+    public int pollRows(Object[] rows) throws InterruptedException {
+        return this.batchBuffer.drainTo(rows);
+    }
+
     // the id of thread for TOS
     private int threadID = 0;
 
@@ -127,33 +193,333 @@ public class ParallelThread extends Thread {
         this.threadID = threadID;
     }
 
+    /**
+     * The globalMap is not copied here: {@link ParallelThreadPool#execThread(ParallelThread)} gives the thread the
+     * copy shared by all the threads of the pool, a thread started otherwise copies it in start().
+     *
+     * @param globalMap the globalMap of the job, or a snapshot of it from {@link #snapshotGlobalMap(java.util.Map)}
+     * shared by all the threads
+     * @param lockWrite
+     */
     public ParallelThread(java.util.Map<String, Object> globalMap, Object[] lockWrite) {
         super();
         this.globalMap = new ThreadedMap(globalMap);
-        this.globalMap.myMap.put("PARALLEL_LOCK_WRITE", lockWrite); //$NON-NLS-1$
+        this.globalMap.putLocal("PARALLEL_LOCK_WRITE", lockWrite); //$NON-NLS-1$
     }
 
+    @Override
+    public synchronized void start() {
+        // the copy is taken by the thread which changes the globalMap, not by this one
+        if (globalMap != null) {
+            globalMap.parent();
+        }
+        super.start();
+    }
+
+    /**
+     * use the copy of the globalMap of the pool, if the globalMap of the thread was not copied yet.
+     */
+    void shareGlobalMapSnapshot(ParallelThreadPool pool) {
+        if (globalMap != null) {
+            globalMap.shareParent(pool);
+        }
+    }
+
+    /**
+     * Copy the globalMap once, to be given to all the ParallelThreads created after, so that the start of a thread
+     * doesn't copy the globalMap again.
+     *
+     * @param globalMap
+     * @return an immutable copy of globalMap
+     */
+    public static java.util.Map<String, Object> snapshotGlobalMap(java.util.Map<String, Object> globalMap) {
+        return new GlobalMapSnapshot(globalMap);
+    }
+
+    /**
+     * immutable copy of the parent globalMap, shared by the ThreadedMaps
+     */
+    static class GlobalMapSnapshot extends java.util.AbstractMap<String, Object> {
+
+        private final java.util.Map<String, Object> values;
+
+        GlobalMapSnapshot(java.util.Map<String, Object> globalMap) {
+            this.values = java.util.Collections.unmodifiableMap(new java.util.HashMap<String, Object>(globalMap));
+        }
+
+        @Override
+        public Object get(Object key) {
+            return values.get(key);
+        }
+
+        @Override
+        public boolean containsKey(Object key) {
+            return values.containsKey(key);
+        }
+
+        @Override
+        public java.util.Set<java.util.Map.Entry<String, Object>> entrySet() {
+            return values.entrySet();
+        }
+    }
+
+    // marks a key of the parent snapshot removed by the thread
+    private static final Object REMOVED = new Object();
+
+    /**
+     * The globalMap of the thread: reads fall through to the immutable snapshot of the parent globalMap, and only
+     * the entries put or removed by the thread are kept in this map. The snapshot is taken at the first read, unless
+     * a shared one is given before.
+     *
+     * The bulk views (entrySet, keySet, values) are merged copies, changing them doesn't change the map.
+     */
     protected class ThreadedMap extends java.util.HashMap<String, Object> {
 
-        java.util.Map<String, Object> myMap = new java.util.HashMap<String, Object>();
+        private static final long serialVersionUID = 1L;
+
+        // the parent globalMap until it is copied to the snapshot
+        private java.util.Map<String, Object> source;
 
-        private static final long serialVersionUID = 0L;
+        private GlobalMapSnapshot parent;
 
         public ThreadedMap(java.util.Map<String, Object> globalMap) {
-            for (String s : globalMap.keySet()) {
-                myMap.put(s, globalMap.get(s));
+            super();
+            if (globalMap instanceof GlobalMapSnapshot) {
+                this.parent = (GlobalMapSnapshot) globalMap;
+            } else {
+                this.source = globalMap;
             }
         }
 
+        GlobalMapSnapshot parent() {
+            if (parent == null) {
+                parent = new GlobalMapSnapshot(source);
+                source = null;
+            }
+            return parent;
+        }
+
+        void shareParent(ParallelThreadPool pool) {
+            if (parent == null) {
+                parent = pool.getGlobalMapSnapshot(source);
+                source = null;
+            }
+        }
+
+        // put without reading the parent
+        void putLocal(String key, Object value) {
+            super.put(key, value);
+        }
+
+        /**
+         * @return the keys put by the thread
+         */
+        java.util.Set<String> localKeySet() {
+            java.util.Set<String> keys = new java.util.HashSet<String>();
+            for (java.util.Map.Entry<String, Object> entry : super.entrySet()) {
+                if (entry.getValue() != REMOVED) {
+                    keys.add(entry.getKey());
+                }
+            }
+            return keys;
+        }
+
         @Override
         public Object get(Object key) {
-            return myMap.get(key);
+            Object value = super.get(key);
+            if (value != null) {
+                return value == REMOVED ? null : value;
+            }
+            if (super.containsKey(key)) {
+                return null;
+            }
+            return parent().get(key);
+        }
+
+        @Override
+        public Object getOrDefault(Object key, Object defaultValue) {
+            return containsKey(key) ? get(key) : defaultValue;
+        }
+
+        @Override
+        public boolean containsKey(Object key) {
+            if (super.containsKey(key)) {
+                return super.get(key) != REMOVED;
+            }
+            return parent().containsKey(key);
         }
 
         @Override
         public Object put(String key, Object value) {
-            return myMap.put(key, value);
-            // return ParallelDB.globalMap.put(key, value);
+            Object old = get(key);
+            super.put(key, value);
+            return old;
+        }
+
+        @Override
+        public Object putIfAbsent(String key, Object value) {
+            Object old = get(key);
+            if (old == null) {
+                put(key, value);
+            }
+            return old;
+        }
+
+        @Override
+        public void putAll(java.util.Map<? extends String, ? extends Object> m) {
+            for (java.util.Map.Entry<? extends String, ? extends Object> entry : m.entrySet()) {
+                put(entry.getKey(), entry.getValue());
+            }
+        }
+
+        @Override
+        public Object remove(Object key) {
+            Object old = get(key);
+            if (parent().containsKey(key)) {
+                super.put((String) key, REMOVED);
+            } else {
+                super.remove(key);
+            }
+            return old;
+        }
+
+        @Override
+        public void clear() {
+            super.clear();
+            for (String key : parent().keySet()) {
+                super.put(key, REMOVED);
+            }
+        }
+
+        @Override
+        public Object computeIfAbsent(String key,
+                java.util.function.Function<? super String, ? extends Object> mappingFunction) {
+            Object value = get(key);
+            if (value == null) {
+                value = mappingFunction.apply(key);
+                if (value != null) {
+                    put(key, value);
+                }
+            }
+            return value;
+        }
+
+        @Override
+        public Object computeIfPresent(String key,
+                java.util.function.BiFunction<? super String, ? super Object, ? extends Object> remappingFunction) {
+            Object old = get(key);
+            if (old == null) {
+                return null;
+            }
+            Object value = remappingFunction.apply(key, old);
+            if (value != null) {
+                put(key, value);
+            } else {
+                remove(key);
+            }
+            return value;
+        }
+
+        @Override
+        public Object compute(String key,
+                java.util.function.BiFunction<? super String, ? super Object, ? extends Object> remappingFunction) {
+            Object value = remappingFunction.apply(key, get(key));
+            if (value != null) {
+                put(key, value);
+            } else if (containsKey(key)) {
+                remove(key);
+            }
+            return value;
+        }
+
+        @Override
+        public Object merge(String key, Object value,
+                java.util.function.BiFunction<? super Object, ? super Object, ? extends Object> remappingFunction) {
+            Object old = get(key);
+            Object newValue = old == null ? value : remappingFunction.apply(old, value);
+            if (newValue != null) {
+                put(key, newValue);
+            } else {
+                remove(key);
+            }
+            return newValue;
+        }
+
+        @Override
+        public Object replace(String key, Object value) {
+            return containsKey(key) ? put(key, value) : null;
+        }
+
+        @Override
+        public boolean replace(String key, Object oldValue, Object newValue) {
+            if (containsKey(key) && java.util.Objects.equals(get(key), oldValue)) {
+                put(key, newValue);
+                return true;
+            }
+            return false;
+        }
+
+        @Override
+        public boolean remove(Object key, Object value) {
+            if (containsKey(key) && java.util.Objects.equals(get(key), value)) {
+                remove(key);
+                return true;
+            }
+            return false;
+        }
+
+        @Override
+        public void replaceAll(java.util.function.BiFunction<? super String, ? super Object, ? extends Object> function) {
+            for (java.util.Map.Entry<String, Object> entry : merged().entrySet()) {
+                put(entry.getKey(), function.apply(entry.getKey(), entry.getValue()));
+            }
+        }
+
+        @Override
+        public void forEach(java.util.function.BiConsumer<? super String, ? super Object> action) {
+            merged().forEach(action);
+        }
+
+        @Override
+        public int size() {
+            return merged().size();
+        }
+
+        @Override
+        public boolean isEmpty() {
+            return merged().isEmpty();
+        }
+
+        @Override
+        public boolean containsValue(Object value) {
+            return merged().containsValue(value);
+        }
+
+        @Override
+        public java.util.Set<String> keySet() {
+            return merged().keySet();
+        }
+
+        @Override
+        public java.util.Collection<Object> values() {
+            return merged().values();
+        }
+
+        @Override
+        public java.util.Set<java.util.Map.Entry<String, Object>> entrySet() {
+            return merged().entrySet();
+        }
+
+        private java.util.Map<String, Object> merged() {
+            java.util.Map<String, Object> merged = new java.util.HashMap<String, Object>(parent());
+            for (java.util.Map.Entry<String, Object> entry : super.entrySet()) {
+                if (entry.getValue() == REMOVED) {
+                    merged.remove(entry.getKey());
+                } else {
+                    merged.put(entry.getKey(), entry.getValue());
+                }
+            }
+            return java.util.Collections.unmodifiableMap(merged);
         }
     }
 }
@@ -29,19 +29,42 @@ public class ParallelThreadPool {
 
     private ParallelThread[] threads;
 
+    // the threads really running the ParallelThreads: themselves, or virtual threads
+    private Thread[] runners;
+
+    private final boolean useVirtualThreads;
+
     private int poolMaxSize = 0;
 
     private int poolCurrentSize = 0;
 
+    // the copy of the globalMap taken for the first thread, shared by the next ones
+    private Map<String, Object> snapshotSource;
+
+    private ParallelThread.GlobalMapSnapshot snapshot;
+
     /**
      * init the thread list
      *
      * @param poolSize the size of pool
      */
     public ParallelThreadPool(int poolSize) {
+        this(poolSize, false);
+    }
+
+    /**
+     * init the thread list
+     *
+     * @param poolSize the size of pool
+     * @param useVirtualThreads run the ParallelThreads in virtual threads instead of starting them, see
+     * {@link VirtualThreadSupport}
+     */
+    public ParallelThreadPool(int poolSize, boolean useVirtualThreads) {
         this.threadResult = new TalendThreadResult();
         this.poolMaxSize = Math.max(1, poolSize);
         this.threads = new ParallelThread[this.poolMaxSize];
+        this.runners = new Thread[this.poolMaxSize];
+        this.useVirtualThreads = useVirtualThreads;
     }
 
     /**
@@ -54,9 +77,23 @@ public class ParallelThreadPool {
 
         if (!stopAllWorkers) {
             pt.setThreadID(poolCurrentSize);
+            pt.shareGlobalMapSnapshot(this);
+            Thread runner = useVirtualThreads ? VirtualThreadSupport.newThread(pt, pt.getName()) : pt;
+            this.runners[poolCurrentSize] = runner;
             this.threads[poolCurrentSize++] = pt;
-            pt.start();
+            runner.start();
+        }
+    }
+
+    /**
+     * @return the copy of globalMap for the threads of the pool, taken once for all of them
+     */
+    ParallelThread.GlobalMapSnapshot getGlobalMapSnapshot(Map<String, Object> globalMap) {
+        if (globalMap != snapshotSource) {
+            snapshot = new ParallelThread.GlobalMapSnapshot(globalMap);
+            snapshotSource = globalMap;
         }
+        return snapshot;
     }
 
     public boolean isFull() {
@@ -98,7 +135,11 @@ public class ParallelThreadPool {
             if (!stopAllWorkers) {
                 for (ParallelThread tmp : this.threads) {
                     // if there's little rows, threads isn't full, tmp will be null.
-                    if (tmp != null) {
+                    if (tmp != null && tmp.isBatchBufferEnabled()) {
+                        // the parallel thread stops when it has read all the batches
+                        tmp.finish();
+                        tmp.endRows();
+                    } else if (tmp != null) {
                         // make sure the parallel thread is waiting for buffer
                         tmp.waitForFree();
                         // set finish
@@ -114,7 +155,7 @@ public class ParallelThreadPool {
             }
             while (!stopAllWorkers) {
                 boolean hasThreadWork = false;
-                for (ParallelThread tmp : this.threads) {
+                for (Thread tmp : this.runners) {
                     if (tmp != null && tmp.isAlive()) {
                         hasThreadWork = true;
                     }
@@ -145,7 +186,8 @@ public class ParallelThreadPool {
         Map<String, Object> aggregateMap = new HashMap<String, Object>();
         for (ParallelThread tmp : this.threads) {
             if (tmp != null) {
-                for (String key : tmp.globalMap.myMap.keySet()) {
+                // only the keys put by the thread, the other ones come from globalMap
+                for (String key : tmp.globalMap.localKeySet()) {
                     if (key.contains("_NB_LINE")) {
                         if (tmp.globalMap.get(key) instanceof Number) {
                             int tempValue = ((Number) tmp.globalMap.get(key)).intValue();
@@ -173,13 +215,14 @@ public class ParallelThreadPool {
         if (!stopAllWorkers) {
             try {
                 stopAllWorkers = true;
-                for (ParallelThread tmp : this.threads) {
+                for (int i = 0; i < this.threads.length; i++) {
+                    ParallelThread tmp = this.threads[i];
                     if (tmp != null) {
-                        tmp.interrupt();
+                        this.runners[i].interrupt();
                         tmp.clearBuffer();
                         tmp.setFree(true);
                         tmp.finish();
-                        while (tmp.isAlive()) {
+                        while (this.runners[i].isAlive()) {
                             Thread.sleep(100);
                         }
                     }
@@ -15,6 +15,8 @@ package routines.system;
 import java.io.IOException;
 import java.lang.reflect.Method;
 import java.math.BigDecimal;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
 import java.text.DateFormat;
 import java.text.ParsePosition;
 import java.util.ArrayList;
@@ -251,6 +253,344 @@ public class ParserUtils {
         }
     }
 
+    // The byte[] and CharSequence overloads parse plain ASCII numbers without creating a String, anything else goes
+    // to the String methods, so the values and the exceptions are always the same. The bytes must be in an ASCII
+    // compatible charset (UTF-8, ISO-8859-x...), which is only used to decode the other numbers for the String methods.
+
+    private static final double[] EXACT_POWERS_OF_TEN = { 1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+            1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22 };
+
+    private static final long[] LONG_POWERS_OF_TEN = { 1L, 10L, 100L, 1000L, 10000L, 100000L, 1000000L, 10000000L,
+            100000000L, 1000000000L, 10000000000L, 100000000000L, 1000000000000L, 10000000000000L, 100000000000000L,
+            1000000000000000L };
+
+    private static final long MAX_EXACT_DOUBLE_MANTISSA = 1L << 53;
+
+    private static final long NOT_PARSED = Long.MIN_VALUE;
+
+    private static int charAt(byte[] bytes, CharSequence chars, int index) {
+        return bytes != null ? bytes[index] : chars.charAt(index);
+    }
+
+    private static String toString(byte[] bytes, Charset charset, CharSequence chars, int start, int end) {
+        return bytes != null ? new String(bytes, start, end - start, charset)
+                : chars.subSequence(start, end).toString();
+    }
+
+    /**
+     * [+-]?[0-9]{1,18}
+     *
+     * @return NOT_PARSED for anything else
+     */
+    private static long parseAsciiLong(byte[] bytes, CharSequence chars, int start, int end) {
+        int i = start;
+        boolean negative = false;
+        if (i < end) {
+            int c = charAt(bytes, chars, i);
+            if (c == '-' || c == '+') {
+                negative = c == '-';
+                i++;
+            }
+        }
+        if (i == end || end - i > 18) {
+            return NOT_PARSED;
+        }
+        long value = 0;
+        for (; i < end; i++) {
+            int digit = charAt(bytes, chars, i) - '0';
+            if (digit < 0 || digit > 9) {
+                return NOT_PARSED;
+            }
+            value = value * 10 + digit;
+        }
+        return negative ? -value : value;
+    }
+
+    private static int parseInt(byte[] bytes, Charset charset, CharSequence chars, int start, int end) {
+        long value = parseAsciiLong(bytes, chars, start, end);
+        if (value != NOT_PARSED && value >= Integer.MIN_VALUE && value <= Integer.MAX_VALUE) {
+            return (int) value;
+        }
+        return parseTo_int(toString(bytes, charset, chars, start, end));
+    }
+
+    private static long parseLong(byte[] bytes, Charset charset, CharSequence chars, int start, int end) {
+        long value = parseAsciiLong(bytes, chars, start, end);
+        if (value != NOT_PARSED) {
+            return value;
+        }
+        return parseTo_long(toString(bytes, charset, chars, start, end));
+    }
+
+    /**
+     * [+-]?[0-9]*(.[0-9]*)?([eE][+-]?[0-9]+)? when the significant digits and the power of ten are exact doubles,
+     * then one multiplication or division is correctly rounded, like Double.parseDouble().
+     */
+    private static double parseDouble(byte[] bytes, Charset charset, CharSequence chars, int start, int end) {
+        int i = start;
+        boolean negative = false;
+        if (i < end) {
+            int c = charAt(bytes, chars, i);
+            if (c == '-' || c == '+') {
+                negative = c == '-';
+                i++;
+            }
+        }
+        long mantissa = 0;
+        int digits = 0;
+        int significantDigits = 0;
+        int exponent = 0;
+        boolean inFraction = false;
+        boolean parsed = true;
+        for (; i < end; i++) {
+            int c = charAt(bytes, chars, i);
+            if (c >= '0' && c <= '9') {
+                digits++;
+                if (mantissa != 0 || c != '0') {
+                    if (++significantDigits > 18) {
+                        parsed = false;
+                        break;
+                    }
+                }
+                mantissa = mantissa * 10 + (c - '0');
+                if (inFraction) {
+                    exponent--;
+                }
+            } else if (c == '.' && !inFraction) {
+                inFraction = true;
+            } else {
+                break;
+            }
+        }
+        if (parsed && digits > 0 && i < end) {
+            // exponent
+            int c = charAt(bytes, chars, i);
+            if (c == 'e' || c == 'E') {
+                i++;
+                boolean negativeExponent = false;
+                if (i < end) {
+                    c = charAt(bytes, chars, i);
+                    if (c == '-' || c == '+') {
+                        negativeExponent = c == '-';
+                        i++;
+                    }
+                }
+                if (i == end || end - i > 4) {
+                    parsed = false;
+                } else {
+                    int value = 0;
+                    for (; i < end && parsed; i++) {
+                        int digit = charAt(bytes, chars, i) - '0';
+                        if (digit < 0 || digit > 9) {
+                            parsed = false;
+                        }
+                        value = value * 10 + digit;
+                    }
+                    exponent += negativeExponent ? -value : value;
+                }
+            } else {
+                parsed = false;
+            }
+        }
+        if (parsed && digits > 0 && mantissa <= MAX_EXACT_DOUBLE_MANTISSA) {
+            double value = Double.NaN;
+            if (mantissa == 0) {
+                value = 0.0;
+            } else if (exponent >= 0 && exponent <= 22) {
+                value = (double) mantissa * EXACT_POWERS_OF_TEN[exponent];
+            } else if (exponent < 0 && exponent >= -22) {
+                value = (double) mantissa / EXACT_POWERS_OF_TEN[-exponent];
+            } else if (exponent > 22 && exponent - 22 < LONG_POWERS_OF_TEN.length) {
+                // move some of the power of ten in the mantissa if it stays exact
+                long scaled = mantissa * LONG_POWERS_OF_TEN[exponent - 22];
+                if (scaled / LONG_POWERS_OF_TEN[exponent - 22] == mantissa && scaled <= MAX_EXACT_DOUBLE_MANTISSA) {
+                    value = (double) scaled * 1e22;
+                }
+            }
+            if (!Double.isNaN(value)) {
+                return negative ? -value : value;
+            }
+        }
+        return parseTo_double(toString(bytes, charset, chars, start, end));
+    }
+
+    /**
+     * [+-]?[0-9]*(.[0-9]*)?([eE][+-]?[0-9]+)? with at most 18 significant digits, built from the unscaled value and
+     * the scale, like new BigDecimal(String).
+     */
+    private static BigDecimal parseBigDecimal(byte[] bytes, Charset charset, CharSequence chars, int start, int end) {
+        int i = start;
+        boolean negative = false;
+        if (i < end) {
+            int c = charAt(bytes, chars, i);
+            if (c == '-' || c == '+') {
+                negative = c == '-';
+                i++;
+            }
+        }
+        long unscaled = 0;
+        int digits = 0;
+        int significantDigits = 0;
+        long scale = 0;
+        boolean inFraction = false;
+        boolean parsed = true;
+        for (; i < end; i++) {
+            int c = charAt(bytes, chars, i);
+            if (c >= '0' && c <= '9') {
+                digits++;
+                if (unscaled != 0 || c != '0') {
+                    if (++significantDigits > 18) {
+                        parsed = false;
+                        break;
+                    }
+                }
+                unscaled = unscaled * 10 + (c - '0');
+                if (inFraction) {
+                    scale++;
+                }
+            } else if (c == '.' && !inFraction) {
+                inFraction = true;
+            } else {
+                break;
+            }
+        }
+        if (parsed && digits > 0 && i < end) {
+            int c = charAt(bytes, chars, i);
+            if (c == 'e' || c == 'E') {
+                i++;
+                boolean negativeExponent = false;
+                if (i < end) {
+                    c = charAt(bytes, chars, i);
+                    if (c == '-' || c == '+') {
+                        negativeExponent = c == '-';
+                        i++;
+                    }
+                }
+                if (i == end || end - i > 9) {
+                    parsed = false;
+                } else {
+                    long value = 0;
+                    for (; i < end && parsed; i++) {
+                        int digit = charAt(bytes, chars, i) - '0';
+                        if (digit < 0 || digit > 9) {
+                            parsed = false;
+                        }
+                        value = value * 10 + digit;
+                    }
+                    scale -= negativeExponent ? -value : value;
+                }
+            } else {
+                parsed = false;
+            }
+        }
+        if (parsed && digits > 0 && scale >= Integer.MIN_VALUE && scale <= Integer.MAX_VALUE) {
+            return BigDecimal.valueOf(negative ? -unscaled : unscaled, (int) scale);
+        }
+        return parseTo_BigDecimal(toString(bytes, charset, chars, start, end));
+    }
+
+    /**
+     * same as parseTo_int(String) on the UTF-8 bytes[offset, offset+length[
+     */
+    public static int parseTo_int(byte[] bytes, int offset, int length) {
+        return parseInt(bytes, StandardCharsets.UTF_8, null, offset, offset + length);
+    }
+
+    /**
+     * same as parseTo_int(String) on the bytes[offset, offset+length[, in an ASCII compatible charset
+     */
+    public static int parseTo_int(byte[] bytes, int offset, int length, Charset charset) {
+        return parseInt(bytes, charset, null, offset, offset + length);
+    }
+
+    /**
+     * same as parseTo_int(String) on the chars[start, end[
+     */
+    public static int parseTo_int(CharSequence chars, int start, int end) {
+        return parseInt(null, null, chars, start, end);
+    }
+
+    /**
+     * same as parseTo_long(String) on the UTF-8 bytes[offset, offset+length[
+     */
+    public static long parseTo_long(byte[] bytes, int offset, int length) {
+        return parseLong(bytes, StandardCharsets.UTF_8, null, offset, offset + length);
+    }
+
+    /**
+     * same as parseTo_long(String) on the bytes[offset, offset+length[, in an ASCII compatible charset
+     */
+    public static long parseTo_long(byte[] bytes, int offset, int length, Charset charset) {
+        return parseLong(bytes, charset, null, offset, offset + length);
+    }
+
+    /**
+     * same as parseTo_long(String) on the chars[start, end[
+     */
+    public static long parseTo_long(CharSequence chars, int start, int end) {
+        return parseLong(null, null, chars, start, end);
+    }
+
+    /**
+     * same as parseTo_short(String) on the UTF-8 bytes[offset, offset+length[
+     */
+    public static short parseTo_short(byte[] bytes, int offset, int length) {
+        return parseTo_short(bytes, offset, length, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * same as parseTo_short(String) on the bytes[offset, offset+length[, in an ASCII compatible charset
+     */
+    public static short parseTo_short(byte[] bytes, int offset, int length, Charset charset) {
+        long value = parseAsciiLong(bytes, null, offset, offset + length);
+        if (value != NOT_PARSED && value >= Short.MIN_VALUE && value <= Short.MAX_VALUE) {
+            return (short) value;
+        }
+        return parseTo_short(toString(bytes, charset, null, offset, offset + length));
+    }
+
+    /**
+     * same as parseTo_double(String) on the UTF-8 bytes[offset, offset+length[
+     */
+    public static double parseTo_double(byte[] bytes, int offset, int length) {
+        return parseDouble(bytes, StandardCharsets.UTF_8, null, offset, offset + length);
+    }
+
+    /**
+     * same as parseTo_double(String) on the bytes[offset, offset+length[, in an ASCII compatible charset
+     */
+    public static double parseTo_double(byte[] bytes, int offset, int length, Charset charset) {
+        return parseDouble(bytes, charset, null, offset, offset + length);
+    }
+
+    /**
+     * same as parseTo_double(String) on the chars[start, end[
+     */
+    public static double parseTo_double(CharSequence chars, int start, int end) {
+        return parseDouble(null, null, chars, start, end);
+    }
+
+    /**
+     * same as parseTo_BigDecimal(String) on the UTF-8 bytes[offset, offset+length[
+     */
+    public static BigDecimal parseTo_BigDecimal(byte[] bytes, int offset, int length) {
+        return parseBigDecimal(bytes, StandardCharsets.UTF_8, null, offset, offset + length);
+    }
+
+    /**
+     * same as parseTo_BigDecimal(String) on the bytes[offset, offset+length[, in an ASCII compatible charset
+     */
+    public static BigDecimal parseTo_BigDecimal(byte[] bytes, int offset, int length, Charset charset) {
+        return parseBigDecimal(bytes, charset, null, offset, offset + length);
+    }
+
+    /**
+     * same as parseTo_BigDecimal(String) on the chars[start, end[
+     */
+    public static BigDecimal parseTo_BigDecimal(CharSequence chars, int start, int end) {
+        return parseBigDecimal(null, null, chars, start, end);
+    }
+
     public static routines.system.Document parseTo_Document(String s) throws org.dom4j.DocumentException {
         return parseTo_Document(s, false);
     }
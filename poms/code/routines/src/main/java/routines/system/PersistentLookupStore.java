@@ -0,0 +1,561 @@
+// ============================================================================
+//
+// Copyright (C) 2006-2019 Talend Inc. - www.talend.com
+//
+// This source code is available under agreement available at
+// %InstallDIR%\features\org.talend.rcp.branding.%PRODUCTNAME%\%PRODUCTNAME%license.txt
+//
+// You should have received a copy of the agreement
+// along with this program; if not, write to Talend SA
+// 9 rue Pages 92150 Suresnes, France
+//
+// ============================================================================
+package routines.system;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * A lookup store for {@link IPersistableLookupRow} which keeps keys and values serialized outside of the java heap.
+ *
+ * Rows are appended to direct memory segments and indexed by a hash of their serialized keys. When the memory
+ * budget is reached, the in-memory rows are sorted by (hash, keys) and spilled to a run file, which is then
+ * memory-mapped and probed by binary search. No row object is kept per entry, the heap only holds primitive
+ * index arrays.
+ *
+ * usage:
+ *
+ * <pre>
+ * store.put(lookupRow); // for every lookup row
+ * store.lookup(mainKeyRow);
+ * while (store.hasNext()) {
+ *     store.next(reusedLookupRow);
+ * }
+ * store.close();
+ * </pre>
+ *
+ * The matching mode works like for {@link DocumentLookupCache}: "UNIQUE_MATCH" returns the last row put for a key,
+ * "FIRST_MATCH" the first one, "ALL_MATCHES" and "ALL_ROWS" all of them in insertion order.
+ */
+public class PersistentLookupStore<R extends IPersistableLookupRow<R>> {
+
+    public static final long DEFAULT_MEMORY_BUDGET = 64L * 1024 * 1024;
+
+    private static final int SEGMENT_SIZE = 1024 * 1024;
+
+    // a run, records and index, is mapped as a single buffer
+    private static final long MAX_MEMORY_BUDGET = 1024L * 1024 * 1024;
+
+    // hash, key length, data length, object length
+    private static final int RECORD_HEADER_SIZE = 16;
+
+    private static final int MEMORY_SOURCE = -1;
+
+    private static final int UNIQUE = 0;
+
+    private static final int FIRST = 1;
+
+    private static final int ALL = 2;
+
+    private final int matchingMode;
+
+    private final long memoryBudget;
+
+    private final File tempDirectory;
+
+    private final LookupRowCodec<R> codec = new LookupRowCodec<R>();
+
+    // ------- in memory part -------
+
+    private final List<ByteBuffer> segments = new ArrayList<ByteBuffer>();
+
+    private int currentSegment = -1;
+
+    private long memoryUsed = 0;
+
+    // per record: segment index << 32 | offset in segment
+    private long[] addresses = new long[1024];
+
+    private int[] hashes = new int[1024];
+
+    // per record: next record with the same keys, -1 at the end of the chain
+    private int[] nextInChain = new int[1024];
+
+    private int recordCount = 0;
+
+    private int keyCount = 0;
+
+    // open addressing table of chain heads and tails, -1 for an empty slot
+    private int[] heads = newTable(1024);
+
+    private int[] tails = new int[1024];
+
+    // ------- spilled part -------
+
+    private final List<File> runFiles = new ArrayList<File>();
+
+    private final List<MappedByteBuffer> runs = new ArrayList<MappedByteBuffer>();
+
+    private long size = 0;
+
+    // ------- current lookup -------
+
+    private int[] matchSources = new int[16];
+
+    private int[] matchPositions = new int[16];
+
+    private int matchCount = 0;
+
+    private int matchCursor = 0;
+
+    private boolean closed = false;
+
+    public PersistentLookupStore(String matchingMode) {
+        this(matchingMode, DEFAULT_MEMORY_BUDGET, null);
+    }
+
+    /**
+     * @param matchingMode UNIQUE_MATCH, FIRST_MATCH, ALL_MATCHES or ALL_ROWS
+     * @param memoryBudget the number of bytes kept off heap before spilling to a run file
+     * @param tempDirectory where the run files are created, java.io.tmpdir if null
+     */
+    public PersistentLookupStore(String matchingMode, long memoryBudget, String tempDirectory) {
+        if ("FIRST_MATCH".equals(matchingMode)) {
+            this.matchingMode = FIRST;
+        } else if ("ALL_MATCHES".equals(matchingMode) || "ALL_ROWS".equals(matchingMode)) {
+            this.matchingMode = ALL;
+        } else {
+            this.matchingMode = UNIQUE;
+        }
+        if (memoryBudget <= 0) {
+            throw new IllegalArgumentException("Memory budget <= 0"); //$NON-NLS-1$
+        }
+        this.memoryBudget = Math.min(memoryBudget, MAX_MEMORY_BUDGET);
+        this.tempDirectory = new File(tempDirectory != null ? tempDirectory : System.getProperty("java.io.tmpdir")); //$NON-NLS-1$
+    }
+
+    /**
+     * add a row, its keys and values are serialized immediately so the row can be reused by the caller.
+     */
+    public void put(R row) throws IOException {
+        ensureOpen();
+        codec.encode(row);
+        int keyLength = codec.keyLength();
+        int dataLength = codec.dataLength();
+        int objectLength = codec.objectLength();
+        int recordSize = RECORD_HEADER_SIZE + keyLength + dataLength + objectLength;
+
+        if (recordCount > 0 && memoryUsed + recordSize > memoryBudget) {
+            spill();
+        }
+
+        ByteBuffer segment = reserve(recordSize);
+        int offset = segment.position();
+        int hash = codec.keyHash();
+        segment.putInt(hash);
+        segment.putInt(keyLength);
+        segment.putInt(dataLength);
+        segment.putInt(objectLength);
+        segment.put(codec.keyBuffer(), 0, keyLength);
+        segment.put(codec.dataBuffer(), 0, dataLength);
+        segment.put(codec.objectBuffer(), 0, objectLength);
+        memoryUsed += recordSize;
+
+        addRecord(((long) currentSegment << 32) | offset, hash);
+        size++;
+    }
+
+    /**
+     * search the rows which have the same keys as the given row. Results are read with hasNext() and next(R).
+     */
+    public void lookup(R keyRow) throws IOException {
+        ensureOpen();
+        codec.encodeKeys(keyRow);
+        byte[] probe = codec.keyBuffer();
+        int probeLength = codec.keyLength();
+        int hash = codec.keyHash();
+
+        matchCount = 0;
+        matchCursor = 0;
+
+        // runs hold older rows than memory, keep the insertion order
+        for (int r = 0; r < runs.size(); r++) {
+            if (matchingMode == FIRST && matchCount > 0) {
+                return;
+            }
+            lookupInRun(r, hash, probe, probeLength);
+        }
+        if (matchingMode == FIRST && matchCount > 0) {
+            return;
+        }
+        int head = findHead(hash, probe, probeLength);
+        for (int record = head; record >= 0; record = nextInChain[record]) {
+            addMatch(MEMORY_SOURCE, record);
+            if (matchingMode == FIRST) {
+                return;
+            }
+        }
+    }
+
+    public boolean hasNext() {
+        return matchCursor < matchCount;
+    }
+
+    /**
+     * read the next matching row into the given instance.
+     *
+     * @return the given row filled with keys and values
+     */
+    public R next(R row) throws IOException {
+        if (matchCursor >= matchCount) {
+            throw new java.util.NoSuchElementException();
+        }
+        int source = matchSources[matchCursor];
+        int position = matchPositions[matchCursor];
+        matchCursor++;
+
+        ByteBuffer buffer;
+        int offset;
+        if (source == MEMORY_SOURCE) {
+            long address = addresses[position];
+            buffer = segments.get((int) (address >>> 32));
+            offset = (int) address;
+        } else {
+            buffer = runs.get(source);
+            offset = position;
+        }
+        codec.decode(row, buffer, offset + RECORD_HEADER_SIZE, buffer.getInt(offset + 4), buffer.getInt(offset + 8),
+                buffer.getInt(offset + 12));
+        return row;
+    }
+
+    /**
+     * @return the number of rows put into the store
+     */
+    public long size() {
+        return size;
+    }
+
+    /**
+     * @return the number of run files spilled to disk
+     */
+    public int getRunCount() {
+        return runs.size();
+    }
+
+    /**
+     * release memory segments and delete the run files.
+     */
+    public void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        segments.clear();
+        runs.clear();
+        addresses = null;
+        hashes = null;
+        nextInChain = null;
+        heads = null;
+        tails = null;
+        for (File file : runFiles) {
+            // a mapped file can't be deleted on some systems until the mapping is collected
+            if (!file.delete()) {
+                file.deleteOnExit();
+            }
+        }
+        runFiles.clear();
+    }
+
+    private void ensureOpen() throws IOException {
+        if (closed) {
+            throw new IOException("Lookup store closed"); //$NON-NLS-1$
+        }
+    }
+
+    private ByteBuffer reserve(int recordSize) {
+        if (currentSegment >= 0 && segments.get(currentSegment).remaining() >= recordSize) {
+            return segments.get(currentSegment);
+        }
+        currentSegment++;
+        if (currentSegment < segments.size() && segments.get(currentSegment).capacity() >= recordSize) {
+            // segment kept from before the last spill
+            return segments.get(currentSegment);
+        }
+        ByteBuffer segment = ByteBuffer.allocateDirect(Math.max(SEGMENT_SIZE, recordSize));
+        if (currentSegment < segments.size()) {
+            segments.set(currentSegment, segment);
+        } else {
+            segments.add(segment);
+        }
+        return segment;
+    }
+
+    private void addRecord(long address, int hash) {
+        if (recordCount == addresses.length) {
+            int newLength = addresses.length * 2;
+            addresses = Arrays.copyOf(addresses, newLength);
+            hashes = Arrays.copyOf(hashes, newLength);
+            nextInChain = Arrays.copyOf(nextInChain, newLength);
+        }
+        int record = recordCount++;
+        addresses[record] = address;
+        hashes[record] = hash;
+        nextInChain[record] = -1;
+
+        ByteBuffer segment = segments.get((int) (address >>> 32));
+        int keyOffset = (int) address + RECORD_HEADER_SIZE;
+        int keyLength = segment.getInt((int) address + 4);
+        int mask = heads.length - 1;
+        for (int slot = hash & mask;; slot = (slot + 1) & mask) {
+            int head = heads[slot];
+            if (head < 0) {
+                heads[slot] = record;
+                tails[slot] = record;
+                if (++keyCount * 2 > heads.length) {
+                    rehash();
+                }
+                return;
+            }
+            if (hashes[head] == hash && sameKeys(head, segment, keyOffset, keyLength)) {
+                nextInChain[tails[slot]] = record;
+                tails[slot] = record;
+                return;
+            }
+        }
+    }
+
+    private boolean sameKeys(int record, ByteBuffer other, int otherOffset, int otherLength) {
+        long address = addresses[record];
+        ByteBuffer segment = segments.get((int) (address >>> 32));
+        int offset = (int) address;
+        return LookupRowCodec.compare(segment, offset + RECORD_HEADER_SIZE, segment.getInt(offset + 4), other,
+                otherOffset, otherLength) == 0;
+    }
+
+    private int findHead(int hash, byte[] probe, int probeLength) {
+        int mask = heads.length - 1;
+        for (int slot = hash & mask;; slot = (slot + 1) & mask) {
+            int head = heads[slot];
+            if (head < 0) {
+                return -1;
+            }
+            if (hashes[head] == hash) {
+                long address = addresses[head];
+                ByteBuffer segment = segments.get((int) (address >>> 32));
+                int offset = (int) address;
+                if (LookupRowCodec.compare(segment, offset + RECORD_HEADER_SIZE, segment.getInt(offset + 4), probe,
+                        probeLength) == 0) {
+                    return head;
+                }
+            }
+        }
+    }
+
+    private void rehash() {
+        int[] oldHeads = heads;
+        int[] oldTails = tails;
+        heads = newTable(oldHeads.length * 2);
+        tails = new int[heads.length];
+        int mask = heads.length - 1;
+        for (int i = 0; i < oldHeads.length; i++) {
+            int head = oldHeads[i];
+            if (head >= 0) {
+                int slot = hashes[head] & mask;
+                while (heads[slot] >= 0) {
+                    slot = (slot + 1) & mask;
+                }
+                heads[slot] = head;
+                tails[slot] = oldTails[i];
+            }
+        }
+    }
+
+    private static int[] newTable(int length) {
+        int[] table = new int[length];
+        Arrays.fill(table, -1);
+        return table;
+    }
+
+    private void addMatch(int source, int position) {
+        if (matchingMode == UNIQUE) {
+            // only keep the last one
+            matchCount = 0;
+        }
+        if (matchCount == matchSources.length) {
+            matchSources = Arrays.copyOf(matchSources, matchCount * 2);
+            matchPositions = Arrays.copyOf(matchPositions, matchCount * 2);
+        }
+        matchSources[matchCount] = source;
+        matchPositions[matchCount] = position;
+        matchCount++;
+    }
+
+    // ------- spilling -------
+
+    /**
+     * write the in-memory rows sorted by (hash, keys, insertion order) to a new run file, then map it.
+     *
+     * run file layout: records, then the int offsets of the records, then the record count and the index offset.
+     */
+    private void spill() throws IOException {
+        int[] order = new int[recordCount];
+        for (int i = 0; i < recordCount; i++) {
+            order[i] = i;
+        }
+        mergeSort(order, new int[recordCount], 0, recordCount);
+
+        File file = File.createTempFile("talend_lookup_", ".run", tempDirectory); //$NON-NLS-1$ //$NON-NLS-2$
+        runFiles.add(file);
+        RandomAccessFile raf = new RandomAccessFile(file, "rw"); //$NON-NLS-1$
+        try {
+            FileChannel channel = raf.getChannel();
+            ByteBuffer staging = ByteBuffer.allocateDirect(256 * 1024);
+            ByteBuffer[] views = new ByteBuffer[currentSegment + 1];
+            for (int i = 0; i <= currentSegment; i++) {
+                views[i] = segments.get(i).duplicate();
+            }
+            int[] offsets = new int[recordCount];
+            int filePosition = 0;
+            for (int i = 0; i < recordCount; i++) {
+                long address = addresses[order[i]];
+                ByteBuffer view = views[(int) (address >>> 32)];
+                int offset = (int) address;
+                view.clear();
+                int length = RECORD_HEADER_SIZE + view.getInt(offset + 4) + view.getInt(offset + 8)
+                        + view.getInt(offset + 12);
+                view.limit(offset + length);
+                view.position(offset);
+                offsets[i] = filePosition;
+                filePosition += length;
+                while (view.hasRemaining()) {
+                    if (!staging.hasRemaining()) {
+                        flush(channel, staging);
+                    }
+                    if (view.remaining() > staging.remaining()) {
+                        int limit = view.limit();
+                        view.limit(view.position() + staging.remaining());
+                        staging.put(view);
+                        view.limit(limit);
+                    } else {
+                        staging.put(view);
+                    }
+                }
+            }
+            for (int i = 0; i < recordCount; i++) {
+                if (staging.remaining() < 4) {
+                    flush(channel, staging);
+                }
+                staging.putInt(offsets[i]);
+            }
+            if (staging.remaining() < 8) {
+                flush(channel, staging);
+            }
+            staging.putInt(recordCount);
+            staging.putInt(filePosition);
+            flush(channel, staging);
+            runs.add(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+        } finally {
+            raf.close();
+        }
+
+        // reuse the segments for the next rows
+        for (int i = 0; i <= currentSegment; i++) {
+            segments.get(i).clear();
+        }
+        currentSegment = -1;
+        memoryUsed = 0;
+        recordCount = 0;
+        keyCount = 0;
+        Arrays.fill(heads, -1);
+    }
+
+    private static void flush(FileChannel channel, ByteBuffer staging) throws IOException {
+        staging.flip();
+        while (staging.hasRemaining()) {
+            channel.write(staging);
+        }
+        staging.clear();
+    }
+
+    // stable, so that rows with the same keys stay in insertion order
+    private void mergeSort(int[] order, int[] work, int from, int to) {
+        if (to - from < 2) {
+            return;
+        }
+        int middle = (from + to) >>> 1;
+        mergeSort(order, work, from, middle);
+        mergeSort(order, work, middle, to);
+        if (compareRecords(order[middle - 1], order[middle]) <= 0) {
+            return;
+        }
+        System.arraycopy(order, from, work, from, to - from);
+        int left = from;
+        int right = middle;
+        for (int i = from; i < to; i++) {
+            if (right >= to || (left < middle && compareRecords(work[left], work[right]) <= 0)) {
+                order[i] = work[left++];
+            } else {
+                order[i] = work[right++];
+            }
+        }
+    }
+
+    private int compareRecords(int left, int right) {
+        if (hashes[left] != hashes[right]) {
+            return hashes[left] < hashes[right] ? -1 : 1;
+        }
+        long leftAddress = addresses[left];
+        long rightAddress = addresses[right];
+        ByteBuffer leftSegment = segments.get((int) (leftAddress >>> 32));
+        ByteBuffer rightSegment = segments.get((int) (rightAddress >>> 32));
+        int leftOffset = (int) leftAddress;
+        int rightOffset = (int) rightAddress;
+        return LookupRowCodec.compare(leftSegment, leftOffset + RECORD_HEADER_SIZE, leftSegment.getInt(leftOffset + 4),
+                rightSegment, rightOffset + RECORD_HEADER_SIZE, rightSegment.getInt(rightOffset + 4));
+    }
+
+    private void lookupInRun(int runIndex, int hash, byte[] probe, int probeLength) {
+        MappedByteBuffer run = runs.get(runIndex);
+        int footer = run.capacity() - 8;
+        int count = run.getInt(footer);
+        int index = run.getInt(footer + 4);
+
+        // lower bound of (hash, keys)
+        int low = 0;
+        int high = count;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (compareInRun(run, run.getInt(index + middle * 4), hash, probe, probeLength) < 0) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        for (int i = low; i < count; i++) {
+            int offset = run.getInt(index + i * 4);
+            if (compareInRun(run, offset, hash, probe, probeLength) != 0) {
+                break;
+            }
+            addMatch(runIndex, offset);
+            if (matchingMode == FIRST) {
+                return;
+            }
+        }
+    }
+
+    private static int compareInRun(ByteBuffer run, int offset, int hash, byte[] probe, int probeLength) {
+        int recordHash = run.getInt(offset);
+        if (recordHash != hash) {
+            return recordHash < hash ? -1 : 1;
+        }
+        return LookupRowCodec.compare(run, offset + RECORD_HEADER_SIZE, run.getInt(offset + 4), probe, probeLength);
+    }
+}
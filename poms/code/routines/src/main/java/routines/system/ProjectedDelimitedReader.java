@@ -0,0 +1,318 @@
+// ============================================================================
+//
+// Copyright (C) 2006-2019 Talend Inc. - www.talend.com
+//
+// This source code is available under agreement available at
+// %InstallDIR%\features\org.talend.rcp.branding.%PRODUCTNAME%\%PRODUCTNAME%license.txt
+//
+// You should have received a copy of the agreement
+// along with this program; if not, write to Talend SA
+// 9 rue Pages 92150 Suresnes, France
+//
+// ============================================================================
+package routines.system;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.math.BigDecimal;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Reads delimited rows from a stream, but only the columns of a projection.
+ *
+ * The rows are split with a {@link DelimitedSplitter} which stops after the last projected column, and a column is
+ * only decoded when it is read. The numeric getters parse the bytes of the column with the byte[] methods of
+ * {@link ParserUtils}, so the values and the errors are the same as ParserUtils.parseTo_xxx(String).
+ *
+ * The rows are split on bytes, so the encoding must be UTF-8 or a single byte encoding in which the ASCII chars keep
+ * their codes (ISO-8859-x, windows-125x...). The others (UTF-16, UTF-32, EBCDIC, the double byte encodings) are
+ * rejected.
+ *
+ * Not thread safe.
+ */
+public class ProjectedDelimitedReader implements Closeable {
+
+    private static final int DEFAULT_BUFFER_SIZE = 65536;
+
+    private final InputStream in;
+
+    private final DelimitedSplitter splitter;
+
+    // of the fields, for the numbers the byte[] parsers leave to the String ones
+    private final Charset charset;
+
+    private final byte[] rowSeparator;
+
+    // "\n" also ends the rows with "\r\n"
+    private final boolean stripCarriageReturn;
+
+    private final boolean[] projected;
+
+    private final int[] columns;
+
+    private final int maxFields;
+
+    private byte[] buffer = new byte[DEFAULT_BUFFER_SIZE];
+
+    // the bytes not consumed yet are buffer[position, limit[
+    private int position = 0;
+
+    private int limit = 0;
+
+    private boolean endOfStream = false;
+
+    private long rowNumber = 0;
+
+    /**
+     * @param encoding of the input, null for the platform encoding of the separators and UTF-8 for the fields
+     * @param rowSeparator usually "\n", which also accepts "\r\n"
+     * @param fieldSeparator
+     * @param columns the indexes of the columns which will be read, from 0
+     * @throws IllegalArgumentException if the encoding is not ASCII compatible
+     */
+    public ProjectedDelimitedReader(InputStream in, String encoding, String rowSeparator, String fieldSeparator,
+            int[] columns) throws IOException {
+        if (columns == null || columns.length == 0) {
+            throw new IllegalArgumentException("No column to read"); //$NON-NLS-1$
+        }
+        checkAsciiCompatible(encoding != null ? Charset.forName(encoding) : Charset.defaultCharset());
+        this.charset = encoding != null ? Charset.forName(encoding) : StandardCharsets.UTF_8;
+        this.in = in;
+        this.splitter = new DelimitedSplitter(fieldSeparator, encoding);
+        this.rowSeparator = encoding != null ? rowSeparator.getBytes(encoding) : rowSeparator.getBytes();
+        if (this.rowSeparator.length == 0) {
+            throw new IllegalArgumentException("The row separator is empty"); //$NON-NLS-1$
+        }
+        this.stripCarriageReturn = "\n".equals(rowSeparator); //$NON-NLS-1$
+        int max = -1;
+        for (int column : columns) {
+            if (column < 0) {
+                throw new IllegalArgumentException("Invalid column index: " + column); //$NON-NLS-1$
+            }
+            max = Math.max(max, column);
+        }
+        this.projected = new boolean[max + 1];
+        for (int column : columns) {
+            projected[column] = true;
+        }
+        this.columns = columns.clone();
+        this.maxFields = max + 1;
+    }
+
+    private static void checkAsciiCompatible(Charset charset) {
+        // UTF-8 never uses an ASCII byte inside a multi byte char
+        boolean compatible = charset.equals(StandardCharsets.UTF_8) || (charset.canEncode()
+                && charset.newEncoder().maxBytesPerChar() == 1.0f);
+        if (compatible) {
+            char[] ascii = new char[128];
+            for (int i = 0; i < ascii.length; i++) {
+                ascii[i] = (char) i;
+            }
+            byte[] bytes = new String(ascii).getBytes(charset);
+            compatible = bytes.length == ascii.length;
+            for (int i = 0; compatible && i < bytes.length; i++) {
+                compatible = bytes[i] == i;
+            }
+        }
+        if (!compatible) {
+            throw new IllegalArgumentException("The rows can't be split on bytes with the encoding " + charset.name()); //$NON-NLS-1$
+        }
+    }
+
+    /**
+     * @return the indexes of the projected columns
+     */
+    public int[] getColumns() {
+        return columns.clone();
+    }
+
+    /**
+     * read the next row, only split up to the last projected column.
+     *
+     * @return false at the end of the stream
+     */
+    public boolean nextRow() throws IOException {
+        int scanFrom = position;
+        while (true) {
+            int end = indexOfRowSeparator(scanFrom);
+            if (end >= 0) {
+                splitRow(position, end);
+                position = end + rowSeparator.length;
+                return true;
+            }
+            if (endOfStream) {
+                if (position < limit) {
+                    // last row without separator
+                    splitRow(position, limit);
+                    position = limit;
+                    return true;
+                }
+                return false;
+            }
+            // the separator may start in the bytes already scanned
+            scanFrom = Math.max(position, limit - rowSeparator.length + 1);
+            int shift = position;
+            fill();
+            scanFrom -= shift;
+        }
+    }
+
+    private int indexOfRowSeparator(int from) {
+        byte first = rowSeparator[0];
+        int last = limit - rowSeparator.length;
+        for (int i = from; i <= last; i++) {
+            if (buffer[i] == first) {
+                int j = 1;
+                while (j < rowSeparator.length && buffer[i + j] == rowSeparator[j]) {
+                    j++;
+                }
+                if (j == rowSeparator.length) {
+                    return i;
+                }
+            }
+        }
+        return -1;
+    }
+
+    private void splitRow(int start, int end) {
+        if (stripCarriageReturn && end > start && buffer[end - 1] == '\r') {
+            end--;
+        }
+        rowNumber++;
+        splitter.split(buffer, start, end - start, maxFields);
+    }
+
+    // move the pending bytes to the start of the buffer, grow it if full, and read more
+    private void fill() throws IOException {
+        int pending = limit - position;
+        if (position > 0) {
+            System.arraycopy(buffer, position, buffer, 0, pending);
+        } else if (pending == buffer.length) {
+            byte[] bigger = new byte[buffer.length * 2];
+            System.arraycopy(buffer, 0, bigger, 0, pending);
+            buffer = bigger;
+        }
+        position = 0;
+        limit = pending;
+        int read = in.read(buffer, limit, buffer.length - limit);
+        if (read < 0) {
+            endOfStream = true;
+        } else {
+            limit += read;
+        }
+    }
+
+    /**
+     * @return the number of rows read
+     */
+    public long getRowNumber() {
+        return rowNumber;
+    }
+
+    private void checkProjected(int column) {
+        if (column < 0 || column >= projected.length || !projected[column]) {
+            throw new IllegalArgumentException("The column " + column + " is not in the projection"); //$NON-NLS-1$ //$NON-NLS-2$
+        }
+    }
+
+    /**
+     * @return false if the row is too short to have this column
+     */
+    public boolean hasColumn(int column) {
+        checkProjected(column);
+        return column < splitter.getFieldCount();
+    }
+
+    /**
+     * @return true if the column is missing or empty
+     */
+    public boolean isEmpty(int column) {
+        return !hasColumn(column) || splitter.getFieldLength(column) == 0;
+    }
+
+    /**
+     * @return the chars of the column, valid until the next read, null if the column is missing
+     */
+    public CharSequence getChars(int column) {
+        return hasColumn(column) ? splitter.getFieldChars(column) : null;
+    }
+
+    /**
+     * @return the column, null if it is missing
+     */
+    public String getString(int column) {
+        return hasColumn(column) ? splitter.getField(column) : null;
+    }
+
+    public int getInt(int column) {
+        if (hasColumn(column)) {
+            return ParserUtils.parseTo_int(splitter.getLine(), splitter.getFieldStart(column),
+                    splitter.getFieldLength(column), charset);
+        }
+        return ParserUtils.parseTo_int((String) null);
+    }
+
+    public long getLong(int column) {
+        if (hasColumn(column)) {
+            return ParserUtils.parseTo_long(splitter.getLine(), splitter.getFieldStart(column),
+                    splitter.getFieldLength(column), charset);
+        }
+        return ParserUtils.parseTo_long((String) null);
+    }
+
+    public short getShort(int column) {
+        if (hasColumn(column)) {
+            return ParserUtils.parseTo_short(splitter.getLine(), splitter.getFieldStart(column),
+                    splitter.getFieldLength(column), charset);
+        }
+        return ParserUtils.parseTo_short((String) null);
+    }
+
+    public byte getByte(int column) {
+        // parseTo_byte decodes hexadecimal and octal values
+        return ParserUtils.parseTo_byte(getString(column));
+    }
+
+    public double getDouble(int column) {
+        if (hasColumn(column)) {
+            return ParserUtils.parseTo_double(splitter.getLine(), splitter.getFieldStart(column),
+                    splitter.getFieldLength(column), charset);
+        }
+        return ParserUtils.parseTo_double((String) null);
+    }
+
+    public float getFloat(int column) {
+        return ParserUtils.parseTo_float(getString(column));
+    }
+
+    public boolean getBoolean(int column) {
+        if (hasColumn(column)) {
+            byte[] line = splitter.getLine();
+            int start = splitter.getFieldStart(column);
+            int length = splitter.getFieldLength(column);
+            if (length == 1 && line[start] == '1') {
+                return true;
+            }
+            if (length == 4) {
+                return (line[start] | 0x20) == 't' && (line[start + 1] | 0x20) == 'r' && (line[start + 2] | 0x20) == 'u'
+                        && (line[start + 3] | 0x20) == 'e';
+            }
+            return false;
+        }
+        return ParserUtils.parseTo_boolean(getString(column));
+    }
+
+    public BigDecimal getBigDecimal(int column) {
+        if (hasColumn(column)) {
+            return ParserUtils.parseTo_BigDecimal(splitter.getLine(), splitter.getFieldStart(column),
+                    splitter.getFieldLength(column), charset);
+        }
+        throw new NumberFormatException("The column " + column + " is missing"); //$NON-NLS-1$ //$NON-NLS-2$
+    }
+
+    public void close() throws IOException {
+        in.close();
+    }
+}
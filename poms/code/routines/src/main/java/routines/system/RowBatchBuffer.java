@@ -0,0 +1,196 @@
+// ============================================================================
+//
+// Copyright (C) 2006-2019 Talend Inc. - www.talend.com
+//
+// This source code is available under agreement available at
+// %InstallDIR%\features\org.talend.rcp.branding.%PRODUCTNAME%\%PRODUCTNAME%license.txt
+//
+// You should have received a copy of the agreement
+// along with this program; if not, write to Talend SA
+// 9 rue Pages 92150 Suresnes, France
+//
+// ============================================================================
+package routines.system;
+
+import java.util.Arrays;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Single producer, single consumer ring of row batches, used by {@link ParallelThread} in batch mode.
+ *
+ * The producer fills the batch arrays of the ring in place and publishes a batch when it is full, on flush() or on
+ * end(). The consumer copies a whole batch at once. Both sides only wait (park) when the ring is full or empty, so
+ * there is no monitor hand-off per row.
+ */
+class RowBatchBuffer {
+
+    private static final long PARK_NANOS = 10000000L;
+
+    private final Object[][] batches;
+
+    private final int[] batchSizes;
+
+    private final int mask;
+
+    private final int batchSize;
+
+    // only written by the producer
+    private volatile long published = 0;
+
+    // only written by the consumer
+    private volatile long consumed = 0;
+
+    private volatile boolean ended = false;
+
+    // the batches published and not consumed yet are dropped
+    private volatile boolean cleared = false;
+
+    private volatile Thread waitingProducer;
+
+    private volatile Thread waitingConsumer;
+
+    // producer side: the batch being filled
+    private Object[] filling;
+
+    private int fillingSize = 0;
+
+    /**
+     * @param batchSize number of rows per batch
+     * @param batchCount number of batches in the ring, rounded up to a power of 2
+     */
+    RowBatchBuffer(int batchSize, int batchCount) {
+        if (batchSize <= 0 || batchCount <= 0) {
+            throw new IllegalArgumentException("Batch size and count must be > 0"); //$NON-NLS-1$
+        }
+        int count = 1;
+        while (count < batchCount) {
+            count <<= 1;
+        }
+        this.batchSize = batchSize;
+        this.mask = count - 1;
+        this.batches = new Object[count][batchSize];
+        this.batchSizes = new int[count];
+    }
+
+    int getBatchSize() {
+        return batchSize;
+    }
+
+    /**
+     * producer: add a row, publish the batch if full.
+     */
+    void add(Object row) throws InterruptedException {
+        if (filling == null) {
+            while (published - consumed > mask) {
+                waitForConsumer();
+            }
+            filling = batches[(int) (published & mask)];
+        }
+        filling[fillingSize++] = row;
+        if (fillingSize == batchSize) {
+            publish();
+        }
+    }
+
+    /**
+     * producer: publish the batch being filled, even if not full.
+     */
+    void flush() {
+        if (fillingSize > 0) {
+            publish();
+        }
+    }
+
+    /**
+     * producer: flush and mark the end of stream.
+     */
+    void end() {
+        flush();
+        ended = true;
+        wake(waitingConsumer);
+    }
+
+    /**
+     * consumer: copy the next batch into rows, which must hold at least batchSize rows.
+     *
+     * @return the number of rows copied, or -1 at the end of stream
+     */
+    int drainTo(Object[] rows) throws InterruptedException {
+        if (cleared) {
+            return -1;
+        }
+        while (consumed == published) {
+            if (ended) {
+                // published is written before ended
+                if (consumed == published) {
+                    return -1;
+                }
+                break;
+            }
+            waitForProducer();
+            if (cleared) {
+                return -1;
+            }
+        }
+        int index = (int) (consumed & mask);
+        int size = batchSizes[index];
+        Object[] batch = batches[index];
+        System.arraycopy(batch, 0, rows, 0, size);
+        // don't keep the rows alive
+        Arrays.fill(batch, 0, size, null);
+        consumed = consumed + 1;
+        wake(waitingProducer);
+        return size;
+    }
+
+    /**
+     * drop the rows not consumed yet and end the stream.
+     */
+    void clear() {
+        cleared = true;
+        ended = true;
+        wake(waitingConsumer);
+        wake(waitingProducer);
+    }
+
+    private void publish() {
+        batchSizes[(int) (published & mask)] = fillingSize;
+        filling = null;
+        fillingSize = 0;
+        published = published + 1;
+        wake(waitingConsumer);
+    }
+
+    private void waitForConsumer() throws InterruptedException {
+        waitingProducer = Thread.currentThread();
+        // check again once registered, a consumer may have missed us
+        if (published - consumed > mask && !ended) {
+            LockSupport.parkNanos(this, PARK_NANOS);
+        }
+        waitingProducer = null;
+        if (Thread.interrupted()) {
+            throw new InterruptedException();
+        }
+        if (ended) {
+            // cleared by the pool, the consumer is gone
+            throw new InterruptedException("Row batch buffer cleared"); //$NON-NLS-1$
+        }
+    }
+
+    private void waitForProducer() throws InterruptedException {
+        waitingConsumer = Thread.currentThread();
+        if (consumed == published && !ended) {
+            LockSupport.parkNanos(this, PARK_NANOS);
+        }
+        waitingConsumer = null;
+        if (Thread.interrupted()) {
+            throw new InterruptedException();
+        }
+    }
+
+    private static void wake(Thread thread) {
+        if (thread != null) {
+            LockSupport.unpark(thread);
+        }
+    }
+}
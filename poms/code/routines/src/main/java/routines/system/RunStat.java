@@ -15,11 +15,15 @@ package routines.system;
 import java.io.OutputStream;
 import java.net.Socket;
 import java.text.SimpleDateFormat;
+import java.util.ArrayList;
 import java.util.Date;
 import java.util.HashMap;
-import java.util.LinkedList;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
 
 public class RunStat implements Runnable {
 
@@ -166,9 +170,51 @@ public class RunStat implements Runnable {
 
     }
 
+    /**
+     * The row counter of a connection, updated without lock. The sender thread collects the counters which changed
+     * every second, see {@link RunStat#getConnectionStat(String)}.
+     */
+    public final class ConnectionStat {
+
+        private final String connectionId;
+
+        private final LongAdder lines = new LongAdder();
+
+        // guarded by the RunStat: the lines at the last BEGIN, and the lines already in the StatBean
+        private long base = 0;
+
+        private long collected = 0;
+
+        private ConnectionStat(String connectionId) {
+            this.connectionId = connectionId;
+        }
+
+        public String getConnectionId() {
+            return connectionId;
+        }
+
+        /**
+         * the same as updateStatOnConnection(connectionId, RUNNING, nbLine).
+         */
+        public void add(int nbLine) {
+            lines.add(nbLine);
+        }
+
+        public void increment() {
+            lines.increment();
+        }
+    }
+
     private Map<String, StatBean> processStats = new HashMap<String, StatBean>();
 
-    private List<String> keysList = new LinkedList<String>();
+    // the keys to send, in order
+    private Set<String> keysList = new LinkedHashSet<String>();
+
+    // the connections not ended yet, a connection is dropped at its END
+    private final ConcurrentHashMap<String, ConnectionStat> connectionStats = new ConcurrentHashMap<String, ConnectionStat>();
+
+    // also publishes the rows of the connections, see registerMetrics
+    private volatile MetricsRegistry metrics;
 
     // private java.util.ArrayList<StatBean> processStats = new java.util.ArrayList<StatBean>();
 
@@ -178,11 +224,30 @@ public class RunStat implements Runnable {
 
     private boolean jobIsFinished = false;
 
-    private String str = ""; //$NON-NLS-1$
+    // the binary protocol, instead of pred
+    private StatsCodec codec;
+
+    // false for the codec of the parent job
+    private boolean ownsCodec = false;
+
+    // the keys of the socket and codec retained in GlobalResource, shared by the parent and child jobs
+    private final List<Object> retainedResources = new ArrayList<Object>();
+
+    private final StringBuilder messageBuilder = new StringBuilder();
+
+    private final SimpleDateFormat jobDateFormat = new SimpleDateFormat("yyyyMMddHHmmss.SSSZ"); //$NON-NLS-1$
 
     public void startThreadStat(String clientHost, int portStats) throws java.io.IOException, java.net.UnknownHostException {
         if (!openSocket) {
             // if go here, it means it is a childJob, it should share the socket opened in parentJob.
+            Object parentCodec = GlobalResource.resourceMap.get(codecResourceKey(portStats));
+            if (parentCodec instanceof StatsCodec && !debug) {
+                retainResource(codecResourceKey(portStats));
+                codec = (StatsCodec) parentCodec;
+                Thread t = new Thread(this);
+                t.start();
+                return;
+            }
             Socket s = null;
             Object object = GlobalResource.resourceMap.get(portStats);
             OutputStream output = null;
@@ -198,13 +263,14 @@ public class RunStat implements Runnable {
                 // s = new Socket(clientHost, portStats);
                 output = System.out;
             } else {
+                retainResource(portStats);
                 s = (Socket) object;
                 output = s.getOutputStream();
             }
             if (debug) {
                 output = System.out;
             }
-            pred = new java.io.PrintWriter(new java.io.BufferedWriter(new java.io.OutputStreamWriter(output)), true);
+            pred = new java.io.PrintWriter(new java.io.BufferedWriter(new java.io.OutputStreamWriter(output)));
             Thread t = new Thread(this);
             t.start();
 
@@ -222,6 +288,7 @@ public class RunStat implements Runnable {
         }
         if (isConnect) {
             GlobalResource.resourceMap.put(portStats, s);
+            retainResource(portStats);
             output = s.getOutputStream();
             System.out.println("[statistics] connected"); //$NON-NLS-1$
         } else {
@@ -231,11 +298,45 @@ public class RunStat implements Runnable {
         if (debug) {
             output = System.out;
         }
-        pred = new java.io.PrintWriter(new java.io.BufferedWriter(new java.io.OutputStreamWriter(output)), true);
+        if (isConnect && !debug && StatsCodec.isEnabled()) {
+            codec = new StatsCodec(new StatsSink.StreamSink(output));
+            ownsCodec = true;
+            GlobalResource.resourceMap.put(codecResourceKey(portStats), codec);
+            retainResource(codecResourceKey(portStats));
+        } else {
+            pred = new java.io.PrintWriter(new java.io.BufferedWriter(new java.io.OutputStreamWriter(output)));
+        }
+        Thread t = new Thread(this);
+        t.start();
+    }
+
+    /**
+     * send the statistics to the sink with the binary protocol of {@link StatsCodec}.
+     */
+    public void startThreadStat(StatsSink sink) {
+        codec = new StatsCodec(sink);
+        ownsCodec = true;
         Thread t = new Thread(this);
         t.start();
     }
 
+    private static String codecResourceKey(int portStats) {
+        return "StatsCodec:" + portStats; //$NON-NLS-1$
+    }
+
+    private void retainResource(Object key) {
+        GlobalResource.resourceRegistry.retain(key);
+        retainedResources.add(key);
+    }
+
+    // the last job releasing the socket and the codec closes them, the codec first
+    private void releaseResources() {
+        for (int i = retainedResources.size() - 1; i >= 0; i--) {
+            GlobalResource.resourceRegistry.release(retainedResources.get(i));
+        }
+        retainedResources.clear();
+    }
+
     public void run() {
         if (!debug) {
             synchronized (this) {
@@ -255,14 +356,25 @@ public class RunStat implements Runnable {
         jobIsFinished = true;
         try {
             sendMessages();
+            boolean shared = !retainedResources.isEmpty();
+            if (shared) {
+                if (pred != null) {
+                    pred.flush();
+                }
+                releaseResources();
+            } else if (codec != null && ownsCodec) {
+                codec.close();
+            }
             if (!openSocket) {
                 return;
             }
-            if (pred != null) {
-                pred.close();
-            }
-            if (s != null && !s.isClosed()) {
-                s.close();
+            if (!shared) {
+                if (pred != null) {
+                    pred.close();
+                }
+                if (s != null && !s.isClosed()) {
+                    s.close();
+                }
             }
             System.out.println("[statistics] disconnected"); //$NON-NLS-1$
         } catch (java.io.IOException ie) {
@@ -277,71 +389,145 @@ public class RunStat implements Runnable {
         // SimpleDateFormat sdf = new SimpleDateFormat("hh:mm:ss.SZ");
         // System.out.println("############ Sending packets " + sdf.format(new Date()) + " ... #################");
 
-        for (String curKey : keysList) {
-            StatBean sb = processStats.get(curKey);
-            // it is connection
-            int jobStat = sb.getJobStat();
-            if (jobStat == JOBDEFAULT) {//it mean job is running here for connection status, not a good name
-                str = TYPE1_CONNECTION + "|" + rootPid + "|" + fatherPid + "|" + pid + "|" + sb.getConnectionId();
-                // str = sb.getConnectionId();
-                if (sb.getState() == RunStat.CLEAR) {
-                    str += "|" + "clear"; //$NON-NLS-1$ //$NON-NLS-2$
-                } else {
-
-                    if (sb.getExec() == null) {
-                        str += "|" + sb.getNbLine() + "|" + (sb.getEndTime() - sb.getStartTime()); //$NON-NLS-1$ //$NON-NLS-2$
-                    } else {
-                        str += "|" + sb.getExec(); //$NON-NLS-1$
-                    }
-                    if (sb.getState() != RunStat.RUNNING) {
-                        str += "|" + ((sb.getState() == RunStat.BEGIN) ? "start" : "stop"); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
-                    }
+        collectConnectionStats();
 
-                    if(sb.isClearAfterSend()) {
-                        //remove the stat object when end to avoid memory cost
-                        processStats.remove(curKey);
-                    }
+        if (codec != null) {
+            // one frame for all the messages
+            synchronized (codec) {
+                for (String curKey : keysList) {
+                    StatBean sb = processStats.get(curKey);
+                    encodeMessage(sb);
+                    removeIfClearAfterSend(curKey, sb);
                 }
-            } else {
-                SimpleDateFormat simpleDateFormat = new SimpleDateFormat("yyyyMMddHHmmss.SSSZ");
-
-                // it is job, for feature:11356
-                String jobStatStr = "";
-                String itemId = sb.getItemId();
-                itemId = itemId == null ? "" : itemId;
-                if (jobStat == JOBSTART) {
-                    jobStatStr = jobName + "|" + "start job" + "|" + itemId + "|"
-                            + simpleDateFormat.format(new Date(sb.getStartTime()));
-                } else if (jobStat == JOBEND) {
-                    jobStatStr = jobName + "|" + "end job" + "|" + itemId + "|"
-                            + simpleDateFormat.format(new Date(sb.getEndTime()));
+                try {
+                    codec.flush();
+                } catch (java.io.IOException e) {
+                    // ignored, as the PrintWriter of the text messages does
                 }
-
-                str = TYPE0_JOB + "|" + rootPid + "|" + fatherPid + "|" + pid + "|" + jobStatStr;
             }
-            // System.out.println(str);
-            pred.println(str); // envoi d'un message
+        } else {
+            for (String curKey : keysList) {
+                StatBean sb = processStats.get(curKey);
+                pred.println(formatMessage(sb)); // envoi d'un message
+                removeIfClearAfterSend(curKey, sb);
+            }
+            pred.flush();
         }
         keysList.clear();
 
         // System.out.println("*** data sent ***");
     }
 
-    long lastStatsUpdate = 0;
+    private void removeIfClearAfterSend(String key, StatBean sb) {
+        if (sb.getJobStat() == JOBDEFAULT && sb.getState() != RunStat.CLEAR && sb.isClearAfterSend()) {
+            // remove the stat object when end to avoid memory cost
+            processStats.remove(key);
+        }
+    }
 
-    private Map<String, StatBean> processStats4Meter = new HashMap<String, StatBean>();
+    private String formatMessage(StatBean sb) {
+        StringBuilder message = messageBuilder;
+        message.setLength(0);
+        int jobStat = sb.getJobStat();
+        if (jobStat == JOBDEFAULT) {// it mean job is running here for connection status, not a good name
+            message.append(TYPE1_CONNECTION).append('|').append(rootPid).append('|').append(fatherPid).append('|')
+                    .append(pid).append('|').append(sb.getConnectionId());
+            if (sb.getState() == RunStat.CLEAR) {
+                message.append('|').append("clear"); //$NON-NLS-1$
+            } else {
+                if (sb.getExec() == null) {
+                    message.append('|').append(sb.getNbLine()).append('|').append(sb.getEndTime() - sb.getStartTime());
+                } else {
+                    message.append('|').append(sb.getExec());
+                }
+                if (sb.getState() != RunStat.RUNNING) {
+                    message.append('|').append((sb.getState() == RunStat.BEGIN) ? "start" : "stop"); //$NON-NLS-1$ //$NON-NLS-2$
+                }
+            }
+        } else {
+            // it is job, for feature:11356
+            String itemId = sb.getItemId();
+            itemId = itemId == null ? "" : itemId;
+            message.append(TYPE0_JOB).append('|').append(rootPid).append('|').append(fatherPid).append('|').append(pid)
+                    .append('|');
+            if (jobStat == JOBSTART) {
+                message.append(jobName).append('|').append("start job").append('|').append(itemId).append('|') //$NON-NLS-1$
+                        .append(jobDateFormat.format(new Date(sb.getStartTime())));
+            } else if (jobStat == JOBEND) {
+                message.append(jobName).append('|').append("end job").append('|').append(itemId).append('|') //$NON-NLS-1$
+                        .append(jobDateFormat.format(new Date(sb.getEndTime())));
+            }
+        }
+        return message.toString();
+    }
 
-    private List<String> keysList4Meter = new LinkedList<String>();
+    // the same content as formatMessage, the job times are not formatted
+    private void encodeMessage(StatBean sb) {
+        int jobStat = sb.getJobStat();
+        if (jobStat == JOBDEFAULT) {
+            codec.beginRecord(StatsCodec.RUN_STAT_CONNECTION, sb.getConnectionId());
+            encodePids();
+            codec.writeLong(sb.getState());
+            if (sb.getState() != RunStat.CLEAR) {
+                if (sb.getExec() == null) {
+                    codec.writeCounter(sb.getNbLine());
+                    codec.writeLong(sb.getEndTime() - sb.getStartTime());
+                } else {
+                    codec.writeText(sb.getExec());
+                }
+            }
+        } else {
+            codec.beginRecord(StatsCodec.RUN_STAT_JOB, jobName);
+            encodePids();
+            codec.writeLong(jobStat);
+            codec.writeKey(sb.getItemId() == null ? "" : sb.getItemId());
+            codec.writeLong(jobStat == JOBSTART ? sb.getStartTime() : sb.getEndTime());
+        }
+        codec.endRecord();
+    }
 
-    public synchronized StatBean logStatOnConnection(String connectionId, int mode, int nbLine) {
-        StatBean bean;
-        String key = connectionId;
-        if (connectionId.contains(".")) {
+    private void encodePids() {
+        codec.writeKey(rootPid);
+        codec.writeKey(fatherPid);
+        codec.writeKey(pid);
+    }
+
+    // add the changed counters to the keys to send, as updateStatOnConnection(connectionId, RUNNING, nbLine) does
+    private synchronized void collectConnectionStats() {
+        if (connectionStats.isEmpty()) {
+            return;
+        }
+        long now = System.currentTimeMillis();
+        for (ConnectionStat stat : connectionStats.values()) {
+            long lines = stat.lines.sum();
+            if (lines == stat.collected) {
+                continue;
+            }
+            stat.collected = lines;
+            String key = stat.connectionId;
+            touchConnectionKey(keysList, key);
+            StatBean bean = processStats.get(key);
+            if (bean == null) {
+                bean = new StatBean(key);
+                processStats.put(key, bean);
+            }
+            bean.setState(RUNNING);
+            bean.setEndTime(now);
+            bean.setNbLine((int) (lines - stat.base));
+        }
+    }
+
+    /**
+     * add the key of a connection to the keys to send. At most 4 keys of an iterated connection ("row1.xxx") are kept.
+     */
+    private static void touchConnectionKey(Set<String> keys, String connectionId) {
+        int dot = connectionId.indexOf('.');
+        if (dot >= 0) {
+            String prefix = connectionId.substring(0, dot + 1);
             String firstKey = null;
-            String connectionName = connectionId.split("\\.")[0];
             int nbKeys = 0;
-            for (String myKey : keysList4Meter) {
-                if (myKey.startsWith(connectionName + ".")) {
+            for (String myKey : keys) {
+                if (myKey.startsWith(prefix)) {
                     if (firstKey == null) {
                         firstKey = myKey;
                     }
@@ -352,17 +538,71 @@ public class RunStat implements Runnable {
                 }
             }
             if (nbKeys == 4) {
-            	keysList4Meter.remove(firstKey);
+                keys.remove(firstKey);
             }
         }
+        // a key already there keeps its place
+        keys.add(connectionId);
+    }
 
-        if (keysList4Meter.contains(key)) {
-            int keyNb = keysList4Meter.indexOf(key);
-            keysList4Meter.remove(key);
-            keysList4Meter.add(keyNb, key);
-        } else {
-        	keysList4Meter.add(key);
+    /**
+     * @return the counter of the connection, to count its rows without calling updateStatOnConnection for each row. It
+     * is valid until the END of the connection, a new counter is returned after.
+     */
+    public ConnectionStat getConnectionStat(String connectionId) {
+        ConnectionStat stat = connectionStats.get(connectionId);
+        if (stat == null) {
+            stat = new ConnectionStat(connectionId);
+            ConnectionStat old = connectionStats.putIfAbsent(connectionId, stat);
+            if (old != null) {
+                stat = old;
+            } else if (metrics != null) {
+                registerMetrics(metrics, stat);
+            }
         }
+        return stat;
+    }
+
+    // the bean keeps the rows. The id of an iterated connection ("row1.xxx") is not seen again, its rows are no longer
+    // published, the other connections keep their last count until they begin again
+    private void endConnectionStat(ConnectionStat stat) {
+        connectionStats.remove(stat.connectionId, stat);
+        MetricsRegistry registry = metrics;
+        if (registry != null && stat.connectionId.indexOf('.') >= 0) {
+            registry.remove("talend_connection_rows", stat.connectionId); //$NON-NLS-1$
+        }
+    }
+
+    /**
+     * publish the rows of each connection in the registry, as the counter "talend_connection_rows".
+     */
+    public void registerMetrics(MetricsRegistry registry) {
+        this.metrics = registry;
+        for (ConnectionStat stat : connectionStats.values()) {
+            registerMetrics(registry, stat);
+        }
+    }
+
+    private static void registerMetrics(MetricsRegistry registry, final ConnectionStat stat) {
+        registry.counter("talend_connection_rows", "Rows of the connection", "connection", stat.connectionId, //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+                new java.util.function.DoubleSupplier() {
+
+                    public double getAsDouble() {
+                        return stat.lines.sum();
+                    }
+                });
+    }
+
+    long lastStatsUpdate = 0;
+
+    private Map<String, StatBean> processStats4Meter = new HashMap<String, StatBean>();
+
+    private Set<String> keysList4Meter = new LinkedHashSet<String>();
+
+    public synchronized StatBean logStatOnConnection(String connectionId, int mode, int nbLine) {
+        StatBean bean;
+        String key = connectionId;
+        touchConnectionKey(keysList4Meter, key);
 
         if (processStats4Meter.containsKey(key)) {
             bean = processStats4Meter.get(key);
@@ -387,50 +627,42 @@ public class RunStat implements Runnable {
         return bean;
     }
 
-    public synchronized void updateStatOnConnection(String connectionId, int mode, int nbLine) {
-        StatBean bean;
-        String key = connectionId;
-        if (connectionId.contains(".")) {
-            String firstKey = null;
-            String connectionName = connectionId.split("\\.")[0];
-            int nbKeys = 0;
-            for (String myKey : keysList) {
-                if (myKey.startsWith(connectionName + ".")) {
-                    if (firstKey == null) {
-                        firstKey = myKey;
-                    }
-                    nbKeys++;
-                    if (nbKeys == 4) {
-                        break;
-                    }
-                }
-            }
-            if (nbKeys == 4) {
-                keysList.remove(firstKey);
-            }
+    public void updateStatOnConnection(String connectionId, int mode, int nbLine) {
+        ConnectionStat stat = getConnectionStat(connectionId);
+        if (mode == RUNNING && !debug) {
+            // no lock for the rows, the sender thread collects the counter
+            stat.add(nbLine);
+            return;
         }
+        updateStatOnConnection(stat, mode, nbLine);
+    }
 
-        if (keysList.contains(key)) {
-            int keyNb = keysList.indexOf(key);
-            keysList.remove(key);
-            keysList.add(keyNb, key);
-        } else {
-            keysList.add(key);
-        }
+    private synchronized void updateStatOnConnection(ConnectionStat stat, int mode, int nbLine) {
+        StatBean bean;
+        String connectionId = stat.connectionId;
+        String key = connectionId;
+        touchConnectionKey(keysList, key);
 
         if (processStats.containsKey(key)) {
             bean = processStats.get(key);
         } else {
             bean = new StatBean(connectionId);
         }
+        stat.add(nbLine);
+        long lines = stat.lines.sum();
+        stat.collected = lines;
         bean.setState(mode);
         bean.setEndTime(System.currentTimeMillis());
-        bean.setNbLine(bean.getNbLine() + nbLine);
+        bean.setNbLine((int) (lines - stat.base));
         processStats.put(key, bean);
+        if (mode == END) {
+            endConnectionStat(stat);
+        }
 
         // if tFileList-->tFileInputDelimited-->tFileOuputDelimited, it should clear the data every iterate
         if (mode == BEGIN) {
             bean.setNbLine(0);
+            stat.base = lines;
             // Set a maximum interval for each update of 250ms.
             // since Iterate can be fast, we try to update the UI often.
             long newStatsUpdate = System.currentTimeMillis();
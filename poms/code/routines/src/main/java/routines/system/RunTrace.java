@@ -13,11 +13,14 @@
 package routines.system;
 
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.HashMap;
-import java.util.Iterator;
 import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
-import java.util.Map.Entry;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
 
 public class RunTrace implements Runnable {
 
@@ -31,18 +34,93 @@ public class RunTrace implements Runnable {
 
     private Map<String, String> subjobMap = new HashMap<String, String>();
 
+    // the number of connections of each subjob in subjobMap
+    private Map<String, Integer> subjobConnectionCounts = new HashMap<String, Integer>();
+
     private java.net.Socket s;
 
     private NoHeaderObjectOutputStream oos;
 
     private NoHeaderObjectInputStream ois;
 
-    private boolean jobIsFinished = false;
+    private volatile boolean jobIsFinished = false;
 
     private String str = ""; //$NON-NLS-1$
 
     private Thread t;
 
+    // sampling, see setSampling
+    private int sampleEveryRows = 1;
+
+    private long sampleIntervalMillis = 0;
+
+    // the sampling state and the column names of each connection
+    private Map<String, ConnectionTrace> connectionTraces = new HashMap<String, ConnectionTrace>();
+
+    // async mode: the rows to send, written by the trace thread with the codec
+    private BlockingQueue<TraceRow> traceRows;
+
+    private StatsCodec codec;
+
+    private long droppedRows = 0;
+
+    private static class ConnectionTrace {
+
+        private long lastSentTime = 0;
+
+        private String[] columnNames = new String[0];
+    }
+
+    private static class TraceRow {
+
+        private final String connectionId;
+
+        private final int nbLine;
+
+        private final String[] columnNames;
+
+        private final String[] values;
+
+        TraceRow(String connectionId, int nbLine, String[] columnNames, String[] values) {
+            this.connectionId = connectionId;
+            this.nbLine = nbLine;
+            this.columnNames = columnNames;
+            this.values = values;
+        }
+    }
+
+    /**
+     * Only send some rows of each connection: a row is sent if it is the first of everyRows rows, or if intervalMillis
+     * elapsed since the last row sent. The rows are still counted.
+     *
+     * @param everyRows 1 for all the rows, 0 to only sample by time
+     * @param intervalMillis 0 to only sample by rows
+     */
+    public synchronized void setSampling(int everyRows, long intervalMillis) {
+        this.sampleIntervalMillis = Math.max(0, intervalMillis);
+        this.sampleEveryRows = this.sampleIntervalMillis == 0 ? Math.max(1, everyRows) : Math.max(0, everyRows);
+    }
+
+    /**
+     * Async mode, without interaction with the studio: sendTrace only queues the sampled rows, the trace thread writes
+     * them to the sink with the compact encoding of {@link StatsCodec}. The rows are dropped when the queue is full,
+     * see {@link #getDroppedRows()}.
+     */
+    public void startThreadTrace(StatsSink sink, int queueCapacity) {
+        if (!openSocket) {
+            return;
+        }
+        codec = new StatsCodec(sink);
+        traceRows = new ArrayBlockingQueue<TraceRow>(queueCapacity);
+        t = new Thread(this);
+        t.setDaemon(true);
+        t.start();
+    }
+
+    public synchronized long getDroppedRows() {
+        return droppedRows;
+    }
+
     public void startThreadTrace(String clientHost, int portTraces) throws java.io.IOException, java.net.UnknownHostException {
         if (!openSocket) {
             return;
@@ -57,6 +135,11 @@ public class RunTrace implements Runnable {
     }
 
     public void run() {
+        if (codec != null) {
+            // without the lock, the rows are queued while the trace thread writes
+            writeTraceRows();
+            return;
+        }
         synchronized (this) {
             try {
                 while (!jobIsFinished) {
@@ -68,11 +151,52 @@ public class RunTrace implements Runnable {
         }
     }
 
+    private void writeTraceRows() {
+        List<TraceRow> rows = new ArrayList<TraceRow>();
+        try {
+            while (!jobIsFinished || !traceRows.isEmpty()) {
+                TraceRow row = traceRows.poll(100, TimeUnit.MILLISECONDS);
+                if (row == null) {
+                    continue;
+                }
+                rows.add(row);
+                traceRows.drainTo(rows);
+                for (TraceRow traceRow : rows) {
+                    codec.beginRecord(StatsCodec.TRACE_ROW, traceRow.connectionId);
+                    codec.writeCounter(traceRow.nbLine);
+                    for (int i = 0; i < traceRow.values.length; i++) {
+                        codec.writeKey(traceRow.columnNames[i]);
+                        codec.writeText(traceRow.values[i]);
+                    }
+                    codec.endRecord();
+                }
+                rows.clear();
+                codec.flush();
+            }
+        } catch (InterruptedException e) {
+            System.out.println("[trace] interrupted"); //$NON-NLS-1$
+        } catch (IOException e) {
+            System.err.println("[trace] " + e.getMessage()); //$NON-NLS-1$
+        }
+    }
+
     public void stopThreadTrace() {
         if (!openSocket) {
             return;
         }
         jobIsFinished = true;
+        if (codec != null) {
+            try {
+                // the queued rows are written first
+                t.join();
+                codec.close();
+                System.out.println("[trace] disconnected"); //$NON-NLS-1$
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } catch (IOException e) {
+            }
+            return;
+        }
         try {
             oos.close();
             s.close();
@@ -82,7 +206,7 @@ public class RunTrace implements Runnable {
     }
 
     public synchronized boolean isNextRow() {
-        if (!openSocket) {
+        if (!openSocket || codec != null) {
             return false;
         }
         try {
@@ -100,7 +224,7 @@ public class RunTrace implements Runnable {
     }
 
     public synchronized boolean isNextBreakpoint() {
-        if (!openSocket) {
+        if (!openSocket || codec != null) {
             return false;
         }
         try {
@@ -118,7 +242,7 @@ public class RunTrace implements Runnable {
     }
 
     public synchronized void waitForUserAction() throws InterruptedException {
-        if (!openSocket) {
+        if (!openSocket || codec != null) {
             return;
         }
         try {
@@ -142,7 +266,7 @@ public class RunTrace implements Runnable {
     }
 
     public synchronized boolean isPause() {
-        if (!openSocket) {
+        if (!openSocket || codec != null) {
             return false;
         }
         try {
@@ -169,19 +293,17 @@ public class RunTrace implements Runnable {
         if (!openSocket) {
             return;
         }
-        subjobMap.put(connectionId, startNodeCid);
-        Iterator<Entry<String, String>> ite = subjobMap.entrySet().iterator();
-        boolean sameSub = false;
-        while (ite.hasNext()) {
-            Entry<String, String> en = ite.next();
-            if (en.getKey().equals(connectionId)) {
-                continue;
-            }
-            if (en.getValue().equals(startNodeCid)) {
-                sameSub = true;
-                break;
+        boolean knownConnection = subjobMap.containsKey(connectionId);
+        String oldStartNodeCid = subjobMap.put(connectionId, startNodeCid);
+        if (!knownConnection || !java.util.Objects.equals(startNodeCid, oldStartNodeCid)) {
+            if (knownConnection) {
+                subjobConnectionCounts.put(oldStartNodeCid, subjobConnectionCounts.get(oldStartNodeCid) - 1);
             }
+            Integer count = subjobConnectionCounts.get(startNodeCid);
+            subjobConnectionCounts.put(startNodeCid, count == null ? 1 : count + 1);
         }
+        // another connection in the same subjob
+        boolean sameSub = subjobConnectionCounts.get(startNodeCid) > 1;
         if (sameSub && processTraces.size() > 1) { // if the connections are more than one, will check
             if (connectionId.equals(this.connectionId)) {
                 return;
@@ -195,10 +317,70 @@ public class RunTrace implements Runnable {
         }
         bean.setNbLine(bean.getNbLine() + 1);
         processTraces.put(connectionId, bean);
+        if (sampleEveryRows != 1 && !isSampled(bean)) {
+            return;
+        }
+        if (codec != null) {
+            queueRow(bean, datas);
+            this.connectionId = connectionId;
+            return;
+        }
         bean.setData(datas);
 
         oos.writeUnshared(bean); // envoi d'un message
         oos.flush();
         this.connectionId = connectionId;
     }
+
+    private boolean isSampled(TraceDataBean bean) {
+        ConnectionTrace trace = getConnectionTrace(bean.getConnectionId());
+        if (sampleEveryRows > 0 && (bean.getNbLine() - 1) % sampleEveryRows == 0) {
+            trace.lastSentTime = System.currentTimeMillis();
+            return true;
+        }
+        if (sampleIntervalMillis > 0) {
+            long now = System.currentTimeMillis();
+            if (now - trace.lastSentTime >= sampleIntervalMillis) {
+                trace.lastSentTime = now;
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private ConnectionTrace getConnectionTrace(String connectionId) {
+        ConnectionTrace trace = connectionTraces.get(connectionId);
+        if (trace == null) {
+            trace = new ConnectionTrace();
+            connectionTraces.put(connectionId, trace);
+        }
+        return trace;
+    }
+
+    private void queueRow(TraceDataBean bean, Map<?, ?> datas) {
+        ConnectionTrace trace = getConnectionTrace(bean.getConnectionId());
+        // the names are kept while the columns don't change
+        String[] values = new String[datas.size()];
+        String[] columnNames = trace.columnNames;
+        boolean sameColumns = columnNames.length == values.length;
+        int i = 0;
+        for (Map.Entry<?, ?> column : datas.entrySet()) {
+            if (sameColumns && !columnNames[i].equals(String.valueOf(column.getKey()))) {
+                sameColumns = false;
+            }
+            Object value = column.getValue();
+            values[i++] = value == null ? null : value.toString();
+        }
+        if (!sameColumns) {
+            columnNames = new String[values.length];
+            i = 0;
+            for (Object name : datas.keySet()) {
+                columnNames[i++] = String.valueOf(name);
+            }
+            trace.columnNames = columnNames;
+        }
+        if (!traceRows.offer(new TraceRow(bean.getConnectionId(), bean.getNbLine(), columnNames, values))) {
+            droppedRows++;
+        }
+    }
 }
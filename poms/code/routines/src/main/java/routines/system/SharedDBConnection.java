@@ -18,6 +18,7 @@ import java.sql.SQLException;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * A buffer to keep all the DB connections, make it reusable between the different jobs.
@@ -30,6 +31,11 @@ public class SharedDBConnection {
 
     private Map<String, Connection> sharedConnections = new HashMap<String, java.sql.Connection>();
 
+    // pooled mode, by connection name
+    private static final Map<String, DBConnectionPool.PoolConfig> poolConfigs = new ConcurrentHashMap<String, DBConnectionPool.PoolConfig>();
+
+    private static final Map<String, DBConnectionPool> pools = new ConcurrentHashMap<String, DBConnectionPool>();
+
     private SharedDBConnection() {
 
     }
@@ -127,6 +133,9 @@ public class SharedDBConnection {
      */
     public static Connection getDBConnection(String dbDriver, String url, String userName, String password,
             String dbConnectionName) throws ClassNotFoundException, SQLException {
+        if (isPooled(dbConnectionName)) {
+            return getPool(dbDriver, url, userName, password, dbConnectionName).getConnection();
+        }
         SharedDBConnection instanceLocal = getInstance();
         Connection connection = instanceLocal.getConnection(dbDriver, url, userName, password, dbConnectionName);
         return connection;
@@ -144,16 +153,94 @@ public class SharedDBConnection {
      */
     public static Connection getDBConnection(String dbDriver, String url, String dbConnectionName) throws ClassNotFoundException,
             SQLException {
+        if (isPooled(dbConnectionName)) {
+            return getPool(dbDriver, url, null, null, dbConnectionName).getConnection();
+        }
         SharedDBConnection instanceLocal = getInstance();
         Connection connection = instanceLocal.getConnection(dbDriver, url, dbConnectionName);
         return connection;
     }
 
     /**
-     * Set the buffer as null, make it recyclable.
+     * Switch the connection name to pooled mode: getDBConnection() then borrows a connection of a pool instead of
+     * returning the shared one, and the caller gives it back with close(). Must be called before the first
+     * getDBConnection() for this name.
+     *
+     * @param dbConnectionName
+     * @param config the pool settings, null to go back to the shared connection
+     */
+    public static void setPoolConfig(String dbConnectionName, DBConnectionPool.PoolConfig config) {
+        if (config == null) {
+            poolConfigs.remove(dbConnectionName);
+        } else {
+            poolConfigs.put(dbConnectionName, config);
+        }
+    }
+
+    /**
+     * @param dbConnectionName
+     * @return the pool of the connection name, null if not created yet
+     */
+    public static DBConnectionPool getPool(String dbConnectionName) {
+        return pools.get(dbConnectionName);
+    }
+
+    /**
+     * @param dbConnectionName
+     * @return the pool of the connection name as a data source, null if not created yet
+     */
+    public static TalendDataSource getDataSource(String dbConnectionName) {
+        DBConnectionPool pool = pools.get(dbConnectionName);
+        return pool == null ? null : new TalendDataSource(pool);
+    }
+
+    static boolean isPooled(String dbConnectionName) {
+        return !poolConfigs.isEmpty() && dbConnectionName != null && poolConfigs.containsKey(dbConnectionName);
+    }
+
+    static DBConnectionPool getPool(String dbDriver, String url, String userName, String password,
+            String dbConnectionName) throws ClassNotFoundException {
+        DBConnectionPool pool = pools.get(dbConnectionName);
+        if (pool == null) {
+            synchronized (pools) {
+                pool = pools.get(dbConnectionName);
+                if (pool == null) {
+                    if (DEBUG) {
+                        System.out.println("SharedDBConnection, create the connection pool: " + dbConnectionName); //$NON-NLS-1$
+                    }
+                    pool = new DBConnectionPool(dbConnectionName, dbDriver, url, userName, password,
+                            poolConfigs.get(dbConnectionName));
+                    pools.put(dbConnectionName, pool);
+                }
+            }
+        }
+        return pool;
+    }
+
+    /**
+     * close the pool and forget it, the next getDBConnection() for its name creates a new one.
+     */
+    static void closePool(DBConnectionPool pool) {
+        synchronized (pools) {
+            pools.remove(pool.getName(), pool);
+        }
+        pool.close();
+    }
+
+    /**
+     * Set the buffer as null, make it recyclable. The connection pools are closed.
      */
     public static void clear() {
         instance = null;
+        synchronized (pools) {
+            for (DBConnectionPool pool : pools.values()) {
+                if (DEBUG) {
+                    System.out.println("SharedDBConnection, close the connection pool: " + pool); //$NON-NLS-1$
+                }
+                pool.close();
+            }
+            pools.clear();
+        }
     }
 
     public static void setDebugMode(boolean debug) {
@@ -162,6 +162,10 @@ public class SharedDBConnectionLog4j {
      */
     public static Connection getDBConnection(String dbDriver, String url, String userName, String password,
             String dbConnectionName) throws ClassNotFoundException, SQLException {
+        // the pooled mode is shared with SharedDBConnection
+        if (SharedDBConnection.isPooled(dbConnectionName)) {
+            return SharedDBConnection.getPool(dbDriver, url, userName, password, dbConnectionName).getConnection();
+        }
         SharedDBConnectionLog4j instanceLocal = getInstance();
         Connection connection = instanceLocal.getConnection(dbDriver, url, userName, password, dbConnectionName);
         return connection;
@@ -179,6 +183,9 @@ public class SharedDBConnectionLog4j {
      */
     public static Connection getDBConnection(String dbDriver, String url, String dbConnectionName) throws ClassNotFoundException,
             SQLException {
+        if (SharedDBConnection.isPooled(dbConnectionName)) {
+            return SharedDBConnection.getPool(dbDriver, url, null, null, dbConnectionName).getConnection();
+        }
         SharedDBConnectionLog4j instanceLocal = getInstance();
         Connection connection = instanceLocal.getConnection(dbDriver, url, dbConnectionName);
         return connection;
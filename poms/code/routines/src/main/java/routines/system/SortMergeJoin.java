@@ -0,0 +1,200 @@
+// ============================================================================
+//
+// Copyright (C) 2006-2019 Talend Inc. - www.talend.com
+//
+// This source code is available under agreement available at
+// %InstallDIR%\features\org.talend.rcp.branding.%PRODUCTNAME%\%PRODUCTNAME%license.txt
+//
+// You should have received a copy of the agreement
+// along with this program; if not, write to Talend SA
+// 9 rue Pages 92150 Suresnes, France
+//
+// ============================================================================
+package routines.system;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Sort-merge join of a main stream and a lookup stream, both sorted with {@link ExternalSorter}, so that neither side
+ * has to fit in memory. Only the lookup rows sharing the key of the current main row are kept.
+ *
+ * usage:
+ *
+ * <pre>
+ * join.putLookup(lookupRow); // for every lookup row
+ * join.putMain(mainRow); // for every main row
+ * join.endPut();
+ * while (join.nextMain()) {
+ *     M main = join.getMain();
+ *     while (join.hasNextLookup()) {
+ *         L lookup = join.nextLookup();
+ *     }
+ * }
+ * join.close();
+ * </pre>
+ *
+ * Main rows come back sorted, each one once, whether it has matches or not: inner or left outer join is decided by
+ * the caller. The matching mode works like for {@link DocumentLookupCache}: "UNIQUE_MATCH" gives the last lookup row
+ * of a key, "FIRST_MATCH" the first one, "ALL_MATCHES" and "ALL_ROWS" all of them in the order they were put.
+ */
+public class SortMergeJoin<M extends IPersistableComparableLookupRow<M>, L extends IPersistableComparableLookupRow<L>> {
+
+    /**
+     * compares the join keys of a main row with the ones of a lookup row, consistently with the compareTo() of both
+     * row types.
+     */
+    public interface JoinKeyComparator<M, L> {
+
+        public int compare(M mainRow, L lookupRow);
+    }
+
+    private static final int UNIQUE = 0;
+
+    private static final int FIRST = 1;
+
+    private static final int ALL = 2;
+
+    private final int matchingMode;
+
+    private final JoinKeyComparator<M, L> comparator;
+
+    private final IRowCreator<L> lookupCreator;
+
+    private final ExternalSorter<M> mainSorter;
+
+    private final ExternalSorter<L> lookupSorter;
+
+    private M currentMain;
+
+    // head of the sorted lookup stream, not consumed by a group yet
+    private L lookupHead;
+
+    // lookup rows with the key of the current group, instances are reused between groups
+    private final List<L> group = new ArrayList<L>();
+
+    private int groupSize = 0;
+
+    private boolean groupValid = false;
+
+    private int groupCursor = 0;
+
+    /**
+     * @param matchingMode UNIQUE_MATCH, FIRST_MATCH, ALL_MATCHES or ALL_ROWS
+     * @param bufferSize max number of rows kept in memory by each side before spilling a sorted run
+     * @param tempDirectory where the run files are created, java.io.tmpdir if null
+     */
+    public SortMergeJoin(String matchingMode, JoinKeyComparator<M, L> comparator, IRowCreator<M> mainCreator,
+            IRowCreator<L> lookupCreator, int bufferSize, String tempDirectory) {
+        if ("FIRST_MATCH".equals(matchingMode)) {
+            this.matchingMode = FIRST;
+        } else if ("ALL_MATCHES".equals(matchingMode) || "ALL_ROWS".equals(matchingMode)) {
+            this.matchingMode = ALL;
+        } else {
+            this.matchingMode = UNIQUE;
+        }
+        this.comparator = comparator;
+        this.lookupCreator = lookupCreator;
+        this.mainSorter = new ExternalSorter<M>(mainCreator, bufferSize, tempDirectory);
+        this.lookupSorter = new ExternalSorter<L>(lookupCreator, bufferSize, tempDirectory);
+    }
+
+    public SortMergeJoin(String matchingMode, JoinKeyComparator<M, L> comparator, IRowCreator<M> mainCreator,
+            IRowCreator<L> lookupCreator) {
+        this(matchingMode, comparator, mainCreator, lookupCreator, ExternalSorter.DEFAULT_BUFFER_SIZE, null);
+    }
+
+    public void putMain(M mainRow) throws IOException {
+        mainSorter.add(mainRow);
+    }
+
+    public void putLookup(L lookupRow) throws IOException {
+        lookupSorter.add(lookupRow);
+    }
+
+    public void endPut() throws IOException {
+        mainSorter.endAdd();
+        lookupSorter.endAdd();
+        lookupHead = lookupSorter.hasNext() ? lookupSorter.next() : null;
+    }
+
+    /**
+     * move to the next main row, in sorted order, and position the lookup rows matching it.
+     *
+     * @return false when all the main rows have been read
+     */
+    public boolean nextMain() throws IOException {
+        if (!mainSorter.hasNext()) {
+            currentMain = null;
+            return false;
+        }
+        currentMain = mainSorter.next();
+        groupCursor = 0;
+        if (groupValid && comparator.compare(currentMain, group.get(0)) == 0) {
+            // same key as the previous main row, replay the group
+            return true;
+        }
+        groupValid = false;
+        groupSize = 0;
+        while (lookupHead != null && comparator.compare(currentMain, lookupHead) > 0) {
+            lookupHead = lookupSorter.hasNext() ? lookupSorter.next() : null;
+        }
+        if (lookupHead != null && comparator.compare(currentMain, lookupHead) == 0) {
+            loadGroup();
+        }
+        return true;
+    }
+
+    public M getMain() {
+        return currentMain;
+    }
+
+    public boolean hasNextLookup() {
+        return groupValid && groupCursor < groupSize;
+    }
+
+    /**
+     * @return the next lookup row matching the current main row, only valid until the group changes
+     */
+    public L nextLookup() {
+        if (!hasNextLookup()) {
+            throw new java.util.NoSuchElementException();
+        }
+        return group.get(groupCursor++);
+    }
+
+    public void close() throws IOException {
+        try {
+            mainSorter.close();
+        } finally {
+            lookupSorter.close();
+        }
+    }
+
+    private void loadGroup() throws IOException {
+        // keep a copy as lookupHead is reused by the sorter on next()
+        addToGroup(lookupHead);
+        L first = group.get(0);
+        while (true) {
+            lookupHead = lookupSorter.hasNext() ? lookupSorter.next() : null;
+            if (lookupHead == null || first.compareTo(lookupHead) != 0) {
+                break;
+            }
+            if (matchingMode == ALL) {
+                addToGroup(lookupHead);
+            } else if (matchingMode == UNIQUE) {
+                // keep the last one
+                lookupHead.copyDataTo(first);
+            }
+        }
+        groupValid = true;
+    }
+
+    private void addToGroup(L lookupRow) {
+        if (groupSize == group.size()) {
+            group.add(lookupCreator.createRowInstance());
+        }
+        lookupRow.copyDataTo(group.get(groupSize++));
+    }
+}
@@ -78,6 +78,19 @@ public class SparkRunStat extends MRRunStat {
             return stats;
         }
 
+        void encode(StatsCodec codec) {
+            for (String connectionId : this.connectionId.split(";")) {
+                codec.beginRecord(StatsCodec.SPARK_PROGRESS, connectionId);
+                codec.writeKey(rootPid);
+                codec.writeKey(fatherPid);
+                codec.writeKey(pid);
+                codec.writeLong(this.jobId);
+                codec.writeLong(this.mode);
+                codec.writeFloat(this.progress);
+                codec.endRecord();
+            }
+        }
+
     }
 
     public StatBean createSparkStatBean() {
@@ -87,11 +100,16 @@ public class SparkRunStat extends MRRunStat {
     @Override
     public void sendMessages() {
         for (StatBean message : messages) {
+            if (codec != null) {
+                message.encode(codec);
+                continue;
+            }
             for (String stat : message.toStatFormat()) {
                 pred.println(stat);
             }
         }
         messages.clear();
+        flushMessages();
     }
 
     public synchronized void updateSparkProgress(StatBean message) {
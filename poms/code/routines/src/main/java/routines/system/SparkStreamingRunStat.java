@@ -96,6 +96,19 @@ public class SparkStreamingRunStat extends MRRunStat {
 
             return stats;
         }
+
+        void encode(StatsCodec codec) {
+            codec.beginRecord(StatsCodec.SPARK_STREAMING, this.subjobId);
+            codec.writeKey(rootPid);
+            codec.writeKey(fatherPid);
+            codec.writeKey(pid);
+            codec.writeCounter(this.batchCompleted);
+            codec.writeCounter(this.batchStarted);
+            codec.writeText(this.lastProcessingDelay);
+            codec.writeText(this.lastSchedulingDelay);
+            codec.writeText(this.lastTotalDelay);
+            codec.endRecord();
+        }
     }
 
     public StatBean createSparkStreamingStatBean() {
@@ -105,9 +118,14 @@ public class SparkStreamingRunStat extends MRRunStat {
     @Override
     public void sendMessages() {
         for (StatBean message : messages) {
-            pred.println(message.toStatFormat());
+            if (codec != null) {
+                message.encode(codec);
+            } else {
+                pred.println(message.toStatFormat());
+            }
         }
         messages.clear();
+        flushMessages();
     }
 
     public synchronized void updateSparkStreamingData(StatBean message) {
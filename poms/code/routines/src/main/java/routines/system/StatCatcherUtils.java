@@ -125,6 +125,9 @@ public class StatCatcherUtils {
     java.util.List<StatCatcherMessage> messages = java.util.Collections
             .synchronizedList(new java.util.ArrayList<StatCatcherMessage>());
 
+    // the bounded mode, instead of messages, see setCapacity
+    private volatile MessageRing<StatCatcherMessage> ring = MessageRing.fromSystemProperties();
+
     String jobId = ""; //$NON-NLS-1$
 
     String jobVersion = ""; //$NON-NLS-1$
@@ -146,7 +149,12 @@ public class StatCatcherUtils {
             messageType = "end"; //$NON-NLS-1$
         }
         StatCatcherMessage scm = new StatCatcherMessage(message, messageType, origin, duration, this.jobVersion, this.jobId);
-        messages.add(scm);
+        MessageRing<StatCatcherMessage> ring = this.ring;
+        if (ring != null) {
+            ring.add(scm);
+        } else {
+            messages.add(scm);
+        }
     }
 
     public void addMessage(String message, String origin) {
@@ -169,9 +177,33 @@ public class StatCatcherUtils {
             }
             messages.clear();
         }
+        MessageRing<StatCatcherMessage> ring = this.ring;
+        if (ring != null) {
+            ring.drainTo(messagesToSend);
+        }
         return messagesToSend;
     }
 
+    /**
+     * keep at most capacity messages until getMessages(), see {@link MessageRing}. The messages already kept are not
+     * lost, unless they don't fit in the new capacity.
+     */
+    public synchronized void setCapacity(int capacity, MessageRing.OverflowPolicy policy) {
+        if (ring == null) {
+            ring = new MessageRing<StatCatcherMessage>(capacity, policy);
+        } else {
+            ring.setCapacity(capacity, policy);
+        }
+    }
+
+    /**
+     * @return the number of messages dropped in the bounded mode
+     */
+    public long getDroppedMessages() {
+        MessageRing<StatCatcherMessage> ring = this.ring;
+        return ring == null ? 0 : ring.getDroppedCount();
+    }
+
     public static long getPid() {
         RuntimeMXBean mx = ManagementFactory.getRuntimeMXBean();
         String[] mxNameTable = mx.getName().split("@"); //$NON-NLS-1$
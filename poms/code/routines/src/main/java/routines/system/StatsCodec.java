@@ -0,0 +1,507 @@
+// ============================================================================
+//
+// Copyright (C) 2006-2019 Talend Inc. - www.talend.com
+//
+// This source code is available under agreement available at
+// %InstallDIR%\features\org.talend.rcp.branding.%PRODUCTNAME%\%PRODUCTNAME%license.txt
+//
+// You should have received a copy of the agreement
+// along with this program; if not, write to Talend SA
+// 9 rue Pages 92150 Suresnes, France
+//
+// ============================================================================
+package routines.system;
+
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The binary protocol of the statistics, used by {@link RunStat} and {@link MRRunStat} and its subclasses instead of
+ * the text messages when the system property "talend.stats.binary" is true, or with startThreadStat(StatsSink).
+ *
+ * The records of a tick are written to the sink as one frame: the marker byte 0xB5, the length of the rest of the
+ * frame as varint, the time in ms as zigzag varint delta from the previous frame, the number of records as varint,
+ * then the records. A record is its type as varint, its key, then tagged fields ended by a 0 tag. The keys are
+ * defined the first time they are written, then written as their id, for the whole stream. A counter field is written
+ * as the difference with the same counter of the previous record with the same key.
+ *
+ * When the sink fails to write a frame, the keys defined and the counters written in it are forgotten, so the next
+ * frames can still be decoded if the failed one was not written at all.
+ *
+ * {@link RunTrace} also uses it for the sampled rows, in async mode.
+ *
+ * Not thread safe, the writers sharing a codec synchronize on it.
+ */
+public class StatsCodec implements Closeable {
+
+    public static final String BINARY_PROPERTY = "talend.stats.binary"; //$NON-NLS-1$
+
+    // never the first char of a text message
+    public static final int FRAME_MARKER = 0xB5;
+
+    public static final int RUN_STAT_CONNECTION = 1;
+
+    public static final int RUN_STAT_JOB = 2;
+
+    public static final int MR_PROGRESS = 3;
+
+    public static final int SPARK_PROGRESS = 4;
+
+    public static final int SPARK_STREAMING = 5;
+
+    public static final int TRACE_ROW = 6;
+
+    // the field tags
+    private static final int END = 0;
+
+    private static final int KEY = 1;
+
+    private static final int TEXT = 2;
+
+    private static final int COUNTER = 3;
+
+    private static final int LONG = 4;
+
+    private static final int FLOAT = 5;
+
+    // how a key is written: null, defined here, inline when there are too many keys, or (KEY_ID + id)
+    private static final int NULL_KEY = 0;
+
+    private static final int NEW_KEY = 1;
+
+    private static final int INLINE_KEY = 2;
+
+    private static final int KEY_ID = 3;
+
+    private static final int MAX_KEYS = 65536;
+
+    // room for the marker, the frame length, the time and the number of records
+    private static final int HEADER_SIZE = 1 + 5 + 10 + 5;
+
+    private final StatsSink sink;
+
+    private final Map<String, Integer> keyIds = new HashMap<String, Integer>();
+
+    // the last value of the counters of each key, by key id
+    private long[][] counters = new long[64][];
+
+    // the keys defined in the frames written to the sink
+    private int writtenKeys = 0;
+
+    // the counters changed since the last flush, as (key id, index, previous value), to undo a frame not written
+    private long[] undo = new long[48];
+
+    private int undoSize = 0;
+
+    private int recordKeyId = -1;
+
+    private int counterIndex;
+
+    private byte[] buffer = new byte[4096];
+
+    private int position = HEADER_SIZE;
+
+    private int records = 0;
+
+    private long lastTime = 0;
+
+    public StatsCodec(StatsSink sink) {
+        this.sink = sink;
+    }
+
+    /**
+     * @return true if the statistics use the binary protocol instead of the text messages
+     */
+    public static boolean isEnabled() {
+        return Boolean.getBoolean(BINARY_PROPERTY);
+    }
+
+    public void beginRecord(int type, String key) {
+        records++;
+        writeVarint(type);
+        recordKeyId = writeKeyReference(key);
+        counterIndex = 0;
+    }
+
+    public void writeKey(String value) {
+        writeByte(KEY);
+        writeKeyReference(value);
+    }
+
+    public void writeText(String value) {
+        writeByte(TEXT);
+        if (value == null) {
+            writeVarint(0);
+        } else {
+            writeString(value);
+        }
+    }
+
+    /**
+     * write a value which is mostly growing, such as a number of lines.
+     */
+    public void writeCounter(long value) {
+        writeByte(COUNTER);
+        long previous = 0;
+        if (recordKeyId >= 0) {
+            long[] values = counters[recordKeyId];
+            if (values == null || counterIndex >= values.length) {
+                values = values == null ? new long[Math.max(4, counterIndex + 1)]
+                        : Arrays.copyOf(values, Math.max(values.length * 2, counterIndex + 1));
+                counters[recordKeyId] = values;
+            }
+            previous = values[counterIndex];
+            values[counterIndex] = value;
+            if (recordKeyId < writtenKeys) {
+                if (undoSize == undo.length) {
+                    undo = Arrays.copyOf(undo, undoSize * 2);
+                }
+                undo[undoSize++] = recordKeyId;
+                undo[undoSize++] = counterIndex;
+                undo[undoSize++] = previous;
+            }
+        }
+        counterIndex++;
+        writeVarint(zigzag(value - previous));
+    }
+
+    public void writeLong(long value) {
+        writeByte(LONG);
+        writeVarint(zigzag(value));
+    }
+
+    public void writeFloat(float value) {
+        writeByte(FLOAT);
+        int bits = Float.floatToIntBits(value);
+        ensureCapacity(4);
+        buffer[position++] = (byte) (bits >>> 24);
+        buffer[position++] = (byte) (bits >>> 16);
+        buffer[position++] = (byte) (bits >>> 8);
+        buffer[position++] = (byte) bits;
+    }
+
+    public void endRecord() {
+        writeByte(END);
+        recordKeyId = -1;
+    }
+
+    /**
+     * write the records since the last flush to the sink, as one frame. The records are dropped if the sink fails.
+     */
+    public void flush() throws IOException {
+        if (records == 0) {
+            return;
+        }
+        long time = System.currentTimeMillis();
+        // the header is written just before the records
+        byte[] prefix = new byte[15];
+        int prefixLength = putVarint(prefix, 0, zigzag(time - lastTime));
+        prefixLength = putVarint(prefix, prefixLength, records);
+        int frameLength = prefixLength + position - HEADER_SIZE;
+        byte[] length = new byte[5];
+        int lengthSize = putVarint(length, 0, frameLength);
+        int start = HEADER_SIZE - prefixLength - lengthSize - 1;
+        buffer[start] = (byte) FRAME_MARKER;
+        System.arraycopy(length, 0, buffer, start + 1, lengthSize);
+        System.arraycopy(prefix, 0, buffer, start + 1 + lengthSize, prefixLength);
+        boolean written = false;
+        try {
+            sink.write(buffer, start, position - start);
+            written = true;
+            lastTime = time;
+            writtenKeys = keyIds.size();
+        } finally {
+            if (!written) {
+                rollback();
+            }
+            undoSize = 0;
+            position = HEADER_SIZE;
+            records = 0;
+        }
+    }
+
+    // forget the keys and the counters of the frame not written, the decoder has not seen them
+    private void rollback() {
+        for (int i = undoSize - 3; i >= 0; i -= 3) {
+            counters[(int) undo[i]][(int) undo[i + 1]] = undo[i + 2];
+        }
+        if (keyIds.size() > writtenKeys) {
+            Arrays.fill(counters, writtenKeys, keyIds.size(), null);
+            for (Iterator<Integer> ids = keyIds.values().iterator(); ids.hasNext();) {
+                if (ids.next() >= writtenKeys) {
+                    ids.remove();
+                }
+            }
+        }
+    }
+
+    public void close() throws IOException {
+        try {
+            flush();
+        } finally {
+            sink.close();
+        }
+    }
+
+    // @return the id of the key, -1 if it has none
+    private int writeKeyReference(String key) {
+        if (key == null) {
+            writeVarint(NULL_KEY);
+            return -1;
+        }
+        Integer id = keyIds.get(key);
+        if (id != null) {
+            writeVarint(KEY_ID + id);
+            return id;
+        }
+        if (keyIds.size() >= MAX_KEYS) {
+            writeVarint(INLINE_KEY);
+            writeString(key);
+            return -1;
+        }
+        int newId = keyIds.size();
+        keyIds.put(key, newId);
+        if (newId == counters.length) {
+            counters = Arrays.copyOf(counters, newId * 2);
+        }
+        writeVarint(NEW_KEY);
+        writeString(key);
+        return newId;
+    }
+
+    // the length + 1, then the UTF-8 bytes
+    private void writeString(String value) {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        writeVarint(bytes.length + 1);
+        ensureCapacity(bytes.length);
+        System.arraycopy(bytes, 0, buffer, position, bytes.length);
+        position += bytes.length;
+    }
+
+    private void writeByte(int value) {
+        ensureCapacity(1);
+        buffer[position++] = (byte) value;
+    }
+
+    private void writeVarint(long value) {
+        ensureCapacity(10);
+        position = putVarint(buffer, position, value);
+    }
+
+    private void ensureCapacity(int size) {
+        if (position + size > buffer.length) {
+            buffer = Arrays.copyOf(buffer, Math.max(buffer.length * 2, position + size));
+        }
+    }
+
+    private static int putVarint(byte[] bytes, int offset, long value) {
+        while ((value & ~0x7FL) != 0) {
+            bytes[offset++] = (byte) ((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        bytes[offset++] = (byte) value;
+        return offset;
+    }
+
+    private static long zigzag(long value) {
+        return (value << 1) ^ (value >> 63);
+    }
+
+    /**
+     * A decoded record. The fields are Strings for the keys and the texts, Longs for the counters and the longs, and
+     * Floats.
+     */
+    public static class Record {
+
+        private final long time;
+
+        private final int type;
+
+        private final String key;
+
+        private final List<Object> fields;
+
+        Record(long time, int type, String key, List<Object> fields) {
+            this.time = time;
+            this.type = type;
+            this.key = key;
+            this.fields = fields;
+        }
+
+        /**
+         * @return the time of the frame
+         */
+        public long getTime() {
+            return time;
+        }
+
+        public int getType() {
+            return type;
+        }
+
+        public String getKey() {
+            return key;
+        }
+
+        public List<Object> getFields() {
+            return fields;
+        }
+
+        @Override
+        public String toString() {
+            return type + "|" + key + "|" + fields; //$NON-NLS-1$ //$NON-NLS-2$
+        }
+    }
+
+    /**
+     * Reads the frames of a stream, from the first one.
+     */
+    public static class Decoder {
+
+        private final List<String> keys = new ArrayList<String>();
+
+        private final List<long[]> keyCounters = new ArrayList<long[]>();
+
+        private long lastTime = 0;
+
+        public List<Record> decode(byte[] frame) throws IOException {
+            List<Record> records = readFrame(new ByteArrayInputStream(frame));
+            if (records == null) {
+                throw new EOFException();
+            }
+            return records;
+        }
+
+        /**
+         * @return the records of the next frame, null at the end of the stream
+         */
+        public List<Record> readFrame(InputStream in) throws IOException {
+            int marker = in.read();
+            if (marker < 0) {
+                return null;
+            }
+            if (marker != FRAME_MARKER) {
+                throw new IOException("Not a statistics frame: " + marker); //$NON-NLS-1$
+            }
+            byte[] frame = new byte[(int) readVarint(in)];
+            new DataInputStream(in).readFully(frame);
+            InputStream frameIn = new ByteArrayInputStream(frame);
+            long time = lastTime + unzigzag(readVarint(frameIn));
+            lastTime = time;
+            int count = (int) readVarint(frameIn);
+            List<Record> records = new ArrayList<Record>(count);
+            for (int i = 0; i < count; i++) {
+                records.add(readRecord(frameIn, time));
+            }
+            return records;
+        }
+
+        private Record readRecord(InputStream in, long time) throws IOException {
+            int type = (int) readVarint(in);
+            int[] keyId = new int[1];
+            String key = readKeyReference(in, keyId);
+            List<Object> fields = new ArrayList<Object>();
+            int counterIndex = 0;
+            while (true) {
+                int tag = readByte(in);
+                switch (tag) {
+                case END:
+                    return new Record(time, type, key, fields);
+                case KEY:
+                    fields.add(readKeyReference(in, new int[1]));
+                    break;
+                case TEXT:
+                    long length = readVarint(in);
+                    fields.add(length == 0 ? null : readString(in, length - 1));
+                    break;
+                case COUNTER:
+                    long value = unzigzag(readVarint(in));
+                    if (keyId[0] >= 0) {
+                        long[] values = keyCounters.get(keyId[0]);
+                        if (values == null || counterIndex >= values.length) {
+                            values = values == null ? new long[counterIndex + 1] : Arrays.copyOf(values, counterIndex + 1);
+                            keyCounters.set(keyId[0], values);
+                        }
+                        value += values[counterIndex];
+                        values[counterIndex] = value;
+                    }
+                    counterIndex++;
+                    fields.add(value);
+                    break;
+                case LONG:
+                    fields.add(unzigzag(readVarint(in)));
+                    break;
+                case FLOAT:
+                    int bits = (readByte(in) << 24) | (readByte(in) << 16) | (readByte(in) << 8) | readByte(in);
+                    fields.add(Float.intBitsToFloat(bits));
+                    break;
+                default:
+                    throw new IOException("Unknown field: " + tag); //$NON-NLS-1$
+                }
+            }
+        }
+
+        private String readKeyReference(InputStream in, int[] keyId) throws IOException {
+            long reference = readVarint(in);
+            keyId[0] = -1;
+            if (reference == NULL_KEY) {
+                return null;
+            }
+            if (reference == NEW_KEY || reference == INLINE_KEY) {
+                String key = readString(in, readVarint(in) - 1);
+                if (reference == NEW_KEY) {
+                    keyId[0] = keys.size();
+                    keys.add(key);
+                    keyCounters.add(null);
+                }
+                return key;
+            }
+            keyId[0] = (int) (reference - KEY_ID);
+            if (keyId[0] >= keys.size()) {
+                throw new IOException("Unknown key: " + keyId[0]); //$NON-NLS-1$
+            }
+            return keys.get(keyId[0]);
+        }
+
+        private static String readString(InputStream in, long length) throws IOException {
+            byte[] bytes = new byte[(int) length];
+            new DataInputStream(in).readFully(bytes);
+            return new String(bytes, StandardCharsets.UTF_8);
+        }
+
+        private static int readByte(InputStream in) throws IOException {
+            int b = in.read();
+            if (b < 0) {
+                throw new EOFException();
+            }
+            return b;
+        }
+
+        private static long readVarint(InputStream in) throws IOException {
+            long value = 0;
+            for (int shift = 0; shift < 64; shift += 7) {
+                int b = readByte(in);
+                value |= (long) (b & 0x7F) << shift;
+                if ((b & 0x80) == 0) {
+                    return value;
+                }
+            }
+            throw new IOException("Bad varint"); //$NON-NLS-1$
+        }
+
+        private static long unzigzag(long value) {
+            return (value >>> 1) ^ -(value & 1);
+        }
+    }
+}
@@ -0,0 +1,128 @@
+// ============================================================================
+//
+// Copyright (C) 2006-2019 Talend Inc. - www.talend.com
+//
+// This source code is available under agreement available at
+// %InstallDIR%\features\org.talend.rcp.branding.%PRODUCTNAME%\%PRODUCTNAME%license.txt
+//
+// You should have received a copy of the agreement
+// along with this program; if not, write to Talend SA
+// 9 rue Pages 92150 Suresnes, France
+//
+// ============================================================================
+package routines.system;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Where a {@link StatsCodec} writes its frames, one frame for each tick of the statistics thread.
+ */
+public interface StatsSink extends Closeable {
+
+    /**
+     * write a whole frame.
+     */
+    void write(byte[] frame, int offset, int length) throws IOException;
+
+    /**
+     * @return a sink writing to a new socket, closed with the sink
+     */
+    static StatsSink socket(String host, int port) throws IOException {
+        final Socket socket = new Socket(host, port);
+        return new StreamSink(socket.getOutputStream()) {
+
+            @Override
+            public void close() throws IOException {
+                try {
+                    super.close();
+                } finally {
+                    socket.close();
+                }
+            }
+        };
+    }
+
+    /**
+     * @return a sink writing to a file, the frames are written as they come
+     */
+    static StatsSink file(String fileName, boolean append) throws IOException {
+        return new StreamSink(new BufferedOutputStream(new FileOutputStream(fileName, append)));
+    }
+
+    /**
+     * Writes the frames to a stream, and flushes it after each frame.
+     */
+    class StreamSink implements StatsSink {
+
+        private final OutputStream out;
+
+        public StreamSink(OutputStream out) {
+            this.out = out;
+        }
+
+        public void write(byte[] frame, int offset, int length) throws IOException {
+            out.write(frame, offset, length);
+            out.flush();
+        }
+
+        public void close() throws IOException {
+            out.close();
+        }
+    }
+
+    /**
+     * Keeps the last frames in memory, for the tests. The frames can only be decoded from the first one, see
+     * {@link #getDroppedFrames()}.
+     */
+    class RingSink implements StatsSink {
+
+        private final byte[][] frames;
+
+        private int next = 0;
+
+        private long count = 0;
+
+        public RingSink(int capacity) {
+            if (capacity < 1) {
+                throw new IllegalArgumentException("Capacity < 1"); //$NON-NLS-1$
+            }
+            this.frames = new byte[capacity][];
+        }
+
+        public synchronized void write(byte[] frame, int offset, int length) {
+            frames[next] = Arrays.copyOfRange(frame, offset, offset + length);
+            next = (next + 1) % frames.length;
+            count++;
+        }
+
+        /**
+         * @return the kept frames, the oldest first
+         */
+        public synchronized List<byte[]> getFrames() {
+            int size = (int) Math.min(count, frames.length);
+            List<byte[]> result = new ArrayList<byte[]>(size);
+            for (int i = 0; i < size; i++) {
+                result.add(frames[(next - size + i + frames.length) % frames.length]);
+            }
+            return result;
+        }
+
+        /**
+         * @return the number of frames no longer kept
+         */
+        public synchronized long getDroppedFrames() {
+            return Math.max(0, count - frames.length);
+        }
+
+        public void close() {
+        }
+    }
+}
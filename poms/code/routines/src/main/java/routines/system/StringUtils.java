@@ -15,10 +15,8 @@ package routines.system;
 import java.io.UnsupportedEncodingException;
 import java.nio.ByteBuffer;
 import java.nio.CharBuffer;
-import java.nio.charset.Charset;
 import java.nio.charset.CharsetDecoder;
 import java.nio.charset.CoderResult;
-import java.nio.charset.CodingErrorAction;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.regex.Matcher;
@@ -50,80 +48,31 @@ public class StringUtils {
         return "";
     }
 
+    // the splitter of the last separator and encoding, per thread
+    private static final ThreadLocal<DelimitedSplitter> localSplitter = new ThreadLocal<DelimitedSplitter>();
+
+    /**
+     * split a line of bytes, see {@link DelimitedSplitter} to reuse the split and decode only some fields.
+     */
     public static String[] splitNotRegexWithEncoding(byte[] bline, String encoding, String separatorChars)
             throws UnsupportedEncodingException {
         if (bline == null) {
             return null;
         }
 
-        ByteBuffer line = ByteBuffer.wrap(bline);
-
-        byte[] sep = null;
-        CharsetDecoder decoder = null;
-        if (encoding != null) {
-            sep = separatorChars.getBytes(encoding);
-
-            decoder = Charset.forName(encoding).newDecoder();
-            decoder.onMalformedInput(CodingErrorAction.REPORT);
-            decoder.onUnmappableCharacter(CodingErrorAction.REPORT);
-        } else {
-            sep = separatorChars.getBytes();
-        }
-
-        if (sep.length == 0) {
+        if (separatorChars.length() == 0) {
             String[] result = new String[1];
             result[0] = new String(bline, encoding);
             return result;
         }
 
-        CharsetDecoder utf8Decoder = Charset.forName("UTF-8").newDecoder(); //$NON-NLS-1$
-        utf8Decoder.onMalformedInput(CodingErrorAction.REPORT);
-        utf8Decoder.onUnmappableCharacter(CodingErrorAction.REPORT);
-
-        ArrayList<String> substrings = new ArrayList<String>();
-
-        int lineLength = line.limit();
-        int sepCursor = 0;
-        int fieldCursor = 0;
-        byte[] fieldBytes = new byte[lineLength];
-        while (line.position() < line.limit()) {
-            if (sepCursor < sep.length) {
-                byte currentByte = line.get();
-                if (currentByte == sep[sepCursor]) {
-                    sepCursor++;
-                } else {
-                    sepCursor = 0;
-                    fieldBytes[fieldCursor++] = currentByte;
-                }
-            } else {
-                // we found a new field
-                if (fieldCursor > 0) {
-                    substrings.add(newStringFromSplit(decoder, utf8Decoder, encoding, fieldBytes, fieldCursor));
-                    fieldCursor = 0;
-                } else {
-                    // empty field
-                    substrings.add(""); //$NON-NLS-1$
-                }
-                sepCursor = 0;
-            }
-        }
-        if (fieldCursor > 0) {
-            substrings.add(newStringFromSplit(decoder, utf8Decoder, encoding, fieldBytes, fieldCursor));
-        }
-        if (sepCursor == sep.length) {
-            substrings.add(""); //$NON-NLS-1$
-        }
-
-        int resultSize = substrings.size();
-        if (resultSize == 0) {
-            // no delimiter found so we have only one column
-            String[] result = new String[1];
-            result[0] = new String(bline, encoding);
-            return result;
+        DelimitedSplitter splitter = localSplitter.get();
+        if (splitter == null || !splitter.accepts(separatorChars, encoding)) {
+            splitter = new DelimitedSplitter(separatorChars, encoding);
+            localSplitter.set(splitter);
         }
-        String[] result = new String[resultSize];
-        substrings.toArray(result);
-        return result;
+        splitter.split(bline);
+        return splitter.getFields();
     }
 
 	/**
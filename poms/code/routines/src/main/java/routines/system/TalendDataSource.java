@@ -50,7 +50,9 @@ public class TalendDataSource {
      */
     
     public void close() throws SQLException {
-    	
+    	if (ds instanceof DBConnectionPool) {
+    		SharedDBConnection.closePool((DBConnectionPool) ds);
+    	}
     }
     
 }
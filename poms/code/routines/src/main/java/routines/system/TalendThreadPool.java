@@ -12,8 +12,26 @@
 // ============================================================================
 package routines.system;
 
+import java.util.concurrent.atomic.AtomicInteger;
+
 public class TalendThreadPool {
 
+    /**
+     * create the pool of a job for the given execution mode.
+     *
+     * @param numberOfThreads the max number of TalendThreads running at the same time
+     * @param executionMode "VIRTUAL" for one virtual thread per TalendThread, "LOCK_FREE" for platform workers on a
+     * lock-free queue, anything else for the default pool
+     */
+    public static TalendThreadPool newInstance(int numberOfThreads, String executionMode) {
+        if ("VIRTUAL".equals(executionMode)) { //$NON-NLS-1$
+            return new VirtualThreadTalendThreadPool(numberOfThreads);
+        } else if ("LOCK_FREE".equals(executionMode)) { //$NON-NLS-1$
+            return new LockFreeTalendThreadPool(numberOfThreads);
+        }
+        return new TalendThreadPool(numberOfThreads);
+    }
+
     private volatile boolean stopAllWorkers = false;
 
     private TalendThread errorThread = null;
@@ -24,6 +42,9 @@ public class TalendThreadPool {
 
     private ThreadPoolWorker[] workerList;
 
+    // the threads in execute() waiting for an idle worker
+    private final AtomicInteger waitingThreads = new AtomicInteger();
+
     public TalendThreadPool(int numberOfThreads) {
         threadResult = new TalendThreadResult();
         numberOfThreads = Math.max(1, numberOfThreads);
@@ -34,9 +55,22 @@ public class TalendThreadPool {
         }
     }
 
+    /**
+     * for the pools which manage their own workers
+     */
+    protected TalendThreadPool() {
+        threadResult = new TalendThreadResult();
+    }
+
     public void execute(TalendThread target) throws InterruptedException {
         if (!stopAllWorkers) {
-            ThreadPoolWorker worker = (ThreadPoolWorker) idleWorkers.remove();
+            ThreadPoolWorker worker;
+            waitingThreads.incrementAndGet();
+            try {
+                worker = (ThreadPoolWorker) idleWorkers.remove();
+            } finally {
+                waitingThreads.decrementAndGet();
+            }
             target.talendThreadPool = this;
             if (worker != null) {
                 worker.process(target);
@@ -90,6 +124,13 @@ public class TalendThreadPool {
     public TalendThreadResult getTalendThreadResult() {
         return threadResult;
     }
+
+    /**
+     * @return the number of threads waiting for a worker
+     */
+    public int getQueueSize() {
+        return waitingThreads.get();
+    }
 }
 
 class ThreadPoolWorker extends Object {
@@ -0,0 +1,53 @@
+// ============================================================================
+//
+// Copyright (C) 2006-2019 Talend Inc. - www.talend.com
+//
+// This source code is available under agreement available at
+// %InstallDIR%\features\org.talend.rcp.branding.%PRODUCTNAME%\%PRODUCTNAME%license.txt
+//
+// You should have received a copy of the agreement
+// along with this program; if not, write to Talend SA
+// 9 rue Pages 92150 Suresnes, France
+//
+// ============================================================================
+package routines.system;
+
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Creates virtual threads when the JVM supports them (java 21+), platform threads otherwise.
+ *
+ * The routines are compiled for java 8, so the virtual thread factory is looked up by reflection once and then
+ * used as a plain {@link ThreadFactory}.
+ */
+public class VirtualThreadSupport {
+
+    private static final ThreadFactory virtualThreadFactory = lookupVirtualThreadFactory();
+
+    private static ThreadFactory lookupVirtualThreadFactory() {
+        try {
+            Object builder = Thread.class.getMethod("ofVirtual").invoke(null); //$NON-NLS-1$
+            Class<?> builderClass = Class.forName("java.lang.Thread$Builder"); //$NON-NLS-1$
+            return (ThreadFactory) builderClass.getMethod("factory").invoke(builder); //$NON-NLS-1$
+        } catch (Exception e) {
+            // before java 21
+            return null;
+        }
+    }
+
+    /**
+     * @return true if newThread() creates virtual threads
+     */
+    public static boolean isAvailable() {
+        return virtualThreadFactory != null;
+    }
+
+    /**
+     * @return a new thread, not started, virtual if supported
+     */
+    public static Thread newThread(Runnable target, String name) {
+        Thread thread = virtualThreadFactory != null ? virtualThreadFactory.newThread(target) : new Thread(target);
+        thread.setName(name);
+        return thread;
+    }
+}
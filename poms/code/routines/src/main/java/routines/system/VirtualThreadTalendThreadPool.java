@@ -0,0 +1,130 @@
+// ============================================================================
+//
+// Copyright (C) 2006-2019 Talend Inc. - www.talend.com
+//
+// This source code is available under agreement available at
+// %InstallDIR%\features\org.talend.rcp.branding.%PRODUCTNAME%\%PRODUCTNAME%license.txt
+//
+// You should have received a copy of the agreement
+// along with this program; if not, write to Talend SA
+// 9 rue Pages 92150 Suresnes, France
+//
+// ============================================================================
+package routines.system;
+
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * A {@link TalendThreadPool} which runs every TalendThread in its own virtual thread, so that iterations blocked on
+ * I/O don't hold a platform thread each. The number of concurrent TalendThreads is bounded by the pool size, which
+ * can be much bigger than with platform workers.
+ *
+ * Falls back to platform threads before java 21, see {@link VirtualThreadSupport}.
+ */
+public class VirtualThreadTalendThreadPool extends TalendThreadPool {
+
+    private static final AtomicInteger nextThreadID = new AtomicInteger();
+
+    private volatile boolean stopAllWorkers = false;
+
+    private final AtomicReference<TalendThread> errorThread = new AtomicReference<TalendThread>();
+
+    private final int maxConcurrency;
+
+    private final Semaphore permits;
+
+    private final Set<Thread> runningThreads = ConcurrentHashMap.<Thread> newKeySet();
+
+    public VirtualThreadTalendThreadPool(int maxConcurrency) {
+        super();
+        this.maxConcurrency = Math.max(1, maxConcurrency);
+        this.permits = new Semaphore(this.maxConcurrency);
+    }
+
+    /**
+     * @return the number of threads waiting for a permit
+     */
+    @Override
+    public int getQueueSize() {
+        return permits.getQueueLength();
+    }
+
+    @Override
+    public void execute(final TalendThread target) throws InterruptedException {
+        if (stopAllWorkers) {
+            return;
+        }
+        target.talendThreadPool = this;
+        permits.acquire();
+        if (stopAllWorkers) {
+            permits.release();
+            return;
+        }
+        Thread thread = VirtualThreadSupport.newThread(new Runnable() {
+
+            public void run() {
+                try {
+                    target.run();
+                } catch (Exception runex) {
+                    runex.printStackTrace();
+                } finally {
+                    runningThreads.remove(Thread.currentThread());
+                    permits.release();
+                }
+            }
+        }, "TalendThreadPool-virtual-" + nextThreadID.getAndIncrement()); //$NON-NLS-1$
+        runningThreads.add(thread);
+        thread.start();
+    }
+
+    @Override
+    public void waitForEndOfQueue() {
+        try {
+            while (!stopAllWorkers) {
+                if (permits.tryAcquire(maxConcurrency, 100, TimeUnit.MILLISECONDS)) {
+                    permits.release(maxConcurrency);
+                    return;
+                }
+            }
+        } catch (InterruptedException x) {
+        }
+    }
+
+    @Override
+    public void stopAllWorkers() {
+        if (!stopAllWorkers) {
+            stopAllWorkers = true;
+            Thread current = Thread.currentThread();
+            for (Thread thread : runningThreads) {
+                // stopAllWorkers() is called from a TalendThread when it fails
+                if (thread != current) {
+                    thread.interrupt();
+                }
+            }
+            try {
+                for (Thread thread : runningThreads) {
+                    if (thread != current) {
+                        thread.join();
+                    }
+                }
+            } catch (InterruptedException x) {
+            }
+        }
+    }
+
+    @Override
+    public TalendThread getErrorThread() {
+        return errorThread.get();
+    }
+
+    // only keep the first ErrorThread
+    @Override
+    public void setErrorThread(TalendThread errorThread) {
+        this.errorThread.compareAndSet(null, errorThread);
+    }
+}